@@ -0,0 +1,13 @@
+package fr.leowenex.hashtransfer.config;
+
+public enum DownloadEngine {
+    /**
+     * Files are written by Spring's Resource message converters, through heap buffers.
+     */
+    RESOURCE,
+    /**
+     * Full files and single ranges are handed to the container sendfile support (zero-copy).
+     * Falls back to RESOURCE when sendfile is not available (e.g. TLS connector) or for multiple ranges.
+     */
+    SENDFILE
+}
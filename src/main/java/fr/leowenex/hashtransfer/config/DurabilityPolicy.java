@@ -0,0 +1,16 @@
+package fr.leowenex.hashtransfer.config;
+
+public enum DurabilityPolicy {
+    /**
+     * Nothing is synced: a published file survives a process crash, but may be lost or truncated on a system crash.
+     */
+    NONE,
+    /**
+     * The content and metadata of a file are synced to disk before it is published.
+     */
+    DATA,
+    /**
+     * As DATA, and the directories are synced around the publishing rename, so that a published file is never lost.
+     */
+    FULL
+}
@@ -1,9 +1,14 @@
 package fr.leowenex.hashtransfer.config;
 
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
 
 @Getter
 @Setter
@@ -15,5 +20,47 @@ public class HashTransferProperties {
     private String expirationCheckCron = "0 0/15 * * * *";
     private String fileStorageDirectory = "files/";
     private String metadataFileName = "metadata.json";
+    private String uploadSessionDirectory = "uploads/";
+    private DownloadEngine downloadEngine = DownloadEngine.SENDFILE;
+    private int metadataIndexMaxEntries = 0;
+    private StorageLayout storageLayout = StorageLayout.DIRECTORY;
+    private DurabilityPolicy durabilityPolicy = DurabilityPolicy.DATA;
+    private int storageShardDepth = 2;
+    private String objectStoreEndpoint = "";
+    private String objectStoreRegion = "us-east-1";
+    private String objectStoreBucket = "hashtransfer";
+    private String objectStoreAccessKey = "";
+    private String objectStoreSecretKey = "";
+    private boolean objectStorePathStyleAccess = true;
+    private DataSize objectStorePartSize = DataSize.ofMegabytes(16);
+    private int objectStoreParallelism = 8;
+    private DataSize objectStoreCacheSize = DataSize.ofGigabytes(10);
+    private int purgeBatchSize = 1000;
+    private int purgeParallelism = 4;
+    private DataSize maxUploadSize = DataSize.ofGigabytes(10);
+    private int maxBatchSize = 1000;
+    private DataSize storageQuota = DataSize.ofBytes(0);
+    private DataSize clientStorageQuota = DataSize.ofBytes(0);
+    private DataSize minFreeDiskSpace = DataSize.ofBytes(0);
+    private DataSize uploadBufferSize = DataSize.ofKilobytes(64);
+    private List<String> contentDigestAlgorithms = List.of(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+    private DataSize treeHashChunkSize = DataSize.ofBytes(0);
+    private int treeHashParallelism = 0;
+    private int maxConcurrentUploads = 0;
+    private int maxConcurrentDownloads = 0;
+    private Duration transferSlotTimeout = Duration.ofSeconds(30);
+    private DataSize maxDiskBandwidth = DataSize.ofBytes(0);
+    private DataSize maxNetworkBandwidth = DataSize.ofBytes(0);
+    private DataSize maxClientBandwidth = DataSize.ofBytes(0);
+    private DataSize smallTransferSize = DataSize.ofMegabytes(16);
+    private int smallTransferWeight = 4;
+    private boolean compressionEnabled = false;
+    private List<String> compressionContentTypes = List.of("text/*", "application/json", "application/xml", "application/x-ndjson", "application/javascript", "application/x-yaml", "application/csv");
+    private int compressionLevel = 1;
+    private double compressionMaxRatio = 0.9;
+    private DataSize hotFileCacheSize = DataSize.ofBytes(0);
+    private DataSize hotFileCacheMaxFileSize = DataSize.ofMegabytes(256);
+    private DataSize hotFileCacheMappedThreshold = DataSize.ofMegabytes(1);
+    private DataSize warmUpSize = DataSize.ofMegabytes(64);
 
 }
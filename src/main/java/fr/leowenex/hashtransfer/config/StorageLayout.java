@@ -0,0 +1,16 @@
+package fr.leowenex.hashtransfer.config;
+
+public enum StorageLayout {
+    /**
+     * Each file is stored in its own directory.
+     */
+    DIRECTORY,
+    /**
+     * Each distinct content is stored once, under its SHA-256, and shared by the files having this content.
+     */
+    CONTENT_ADDRESSED,
+    /**
+     * Each file is stored in a shared object store (S3-compatible), the storage directory holding a cache of the hot files.
+     */
+    OBJECT_STORE
+}
@@ -0,0 +1,30 @@
+package fr.leowenex.hashtransfer.config;
+
+import fr.leowenex.hashtransfer.rest.limit.StorageQuotaInterceptor;
+import fr.leowenex.hashtransfer.rest.limit.TransferLimitInterceptor;
+import fr.leowenex.hashtransfer.rest.metrics.TransferMetricsInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+public class WebMvcConfiguration implements WebMvcConfigurer {
+
+    private final TransferLimitInterceptor transferLimitInterceptor;
+
+    private final StorageQuotaInterceptor storageQuotaInterceptor;
+
+    private final TransferMetricsInterceptor transferMetricsInterceptor;
+
+    @Override
+    public void addInterceptors(@NonNull InterceptorRegistry registry) {
+        registry.addInterceptor(transferLimitInterceptor).addPathPatterns("/api/**");
+        registry.addInterceptor(storageQuotaInterceptor).addPathPatterns("/api/**");
+        registry.addInterceptor(transferMetricsInterceptor).addPathPatterns("/api/**");
+    }
+}
@@ -0,0 +1,11 @@
+package fr.leowenex.hashtransfer.dto;
+
+/**
+ * Range of bytes of a file.
+ * @param start The offset of the first byte.
+ * @param end The offset following the last byte (exclusive).
+ */
+public record ByteRange(
+        long start,
+        long end
+) {}
@@ -1,7 +1,53 @@
 package fr.leowenex.hashtransfer.dto;
 
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+
+import java.time.Instant;
+import java.util.Map;
+
+/**
+ * Metadata of a stored file.
+ * @param sha256 The SHA-256 of the content (lowercase hex), which identifies it.
+ * @param digests All the digests computed at upload (lowercase hex), by Content-Digest algorithm. Null for files stored before digests were recorded.
+ * @param treeHash The tree hash of the content (without its chunk hashes, stored separately), or null if tree hashing is disabled.
+ * @param size The size of the content in bytes, before compression. Null for files stored before sizes were recorded.
+ * @param contentEncoding The encoding the content is stored with (e.g. "gzip"), or null if it is stored as is.
+ * @param owner The client (remote address) the file is accounted to for the storage quotas, or null if it has none.
+ *              Only kept in the stored metadata, it is removed from the metadata returned to clients.
+ */
 public record FileData (
         String contentType,
         String filename,
-        String sha256
-) {}
+        String sha256,
+        Map<String, String> digests,
+        TreeHash treeHash,
+        Long size,
+        String contentEncoding,
+        Instant expiresAt,
+        String owner
+) {
+
+    public FileData withExpiresAt(Instant expiresAt) {
+        return new FileData(contentType, filename, sha256, digests, treeHash, size, contentEncoding, expiresAt, owner);
+    }
+
+    public FileData withTreeHash(TreeHash treeHash) {
+        return new FileData(contentType, filename, sha256, digests, treeHash, size, contentEncoding, expiresAt, owner);
+    }
+
+    public FileData withoutOwner() {
+        return owner == null ? this : new FileData(contentType, filename, sha256, digests, treeHash, size, contentEncoding, expiresAt, null);
+    }
+
+    /**
+     * Get a digest of the content.
+     * @param algorithm The Content-Digest algorithm.
+     * @return The digest (lowercase hex), or null if it was not computed at upload.
+     */
+    public String findDigest(String algorithm) {
+        if (ContentDigestHeaderUtils.SHA256_ALGORITHM.equals(algorithm)) {
+            return sha256;
+        }
+        return digests != null ? digests.get(algorithm) : null;
+    }
+}
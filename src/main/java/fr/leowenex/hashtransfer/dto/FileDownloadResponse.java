@@ -1,9 +1,18 @@
 package fr.leowenex.hashtransfer.dto;
 
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 
+/**
+ * A file to download.
+ * @param fileData The metadata of the file.
+ * @param fileResource The content to send.
+ * @param contentEncoding The encoding of the content to send (e.g. "gzip"), or null if it is sent as is.
+ * @param mediaType The media type of the file.
+ */
 public record FileDownloadResponse(
         FileData fileData,
-        Resource fileResource
+        Resource fileResource,
+        String contentEncoding,
+        MediaType mediaType
 ) {}
-
@@ -0,0 +1,24 @@
+package fr.leowenex.hashtransfer.dto;
+
+import java.util.List;
+
+/**
+ * SHA-256 tree hash of a file content.
+ * <p>
+ * The content is split into fixed-size chunks (a single empty chunk for an empty content). Each chunk is hashed as
+ * SHA-256(0x00 || chunk), then the hashes are combined pairwise, level by level, as SHA-256(0x01 || left || right) until
+ * one remains: the root. The last hash of a level with an odd count is carried over to the next level as is.
+ * @param chunkSize The size of the chunks in bytes.
+ * @param root The root hash (lowercase hex).
+ * @param chunkHashes The hashes of the chunks (lowercase hex), in order. Null when only the root is given.
+ */
+public record TreeHash(
+        long chunkSize,
+        String root,
+        List<String> chunkHashes
+) {
+
+    public TreeHash withoutChunkHashes() {
+        return new TreeHash(chunkSize, root, null);
+    }
+}
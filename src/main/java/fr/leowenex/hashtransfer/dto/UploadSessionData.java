@@ -0,0 +1,38 @@
+package fr.leowenex.hashtransfer.dto;
+
+import java.util.List;
+
+/**
+ * State of an upload session.
+ * @param offset The committed offset: all the bytes before it have been received.
+ * @param receivedRanges The ranges received past the committed offset by parallel chunks, in order. Null or empty when there are none.
+ * @param owner The client (remote address) the session and its file are accounted to for the storage quotas.
+ *              Only kept in the session file, it is removed from the session data returned to clients.
+ */
+public record UploadSessionData (
+        String uploadId,
+        String filename,
+        long fileSize,
+        String contentType,
+        String sha256,
+        long offset,
+        List<ByteRange> receivedRanges,
+        String owner
+) {
+
+    public UploadSessionData withOffset(long offset) {
+        return new UploadSessionData(uploadId, filename, fileSize, contentType, sha256, offset, receivedRanges, owner);
+    }
+
+    public UploadSessionData withReceivedRanges(long offset, List<ByteRange> receivedRanges) {
+        return new UploadSessionData(uploadId, filename, fileSize, contentType, sha256, offset, receivedRanges, owner);
+    }
+
+    public UploadSessionData withoutOwner() {
+        return owner == null ? this : new UploadSessionData(uploadId, filename, fileSize, contentType, sha256, offset, receivedRanges, null);
+    }
+
+    public boolean hasReceivedRanges() {
+        return receivedRanges != null && !receivedRanges.isEmpty();
+    }
+}
@@ -0,0 +1,8 @@
+package fr.leowenex.hashtransfer.dto;
+
+public record UploadSessionRequest (
+        String filename,
+        long fileSize,
+        String contentType,
+        String sha256
+) {}
@@ -0,0 +1,7 @@
+package fr.leowenex.hashtransfer.exception;
+
+public class FileContentMissingException extends RuntimeException {
+    public FileContentMissingException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package fr.leowenex.hashtransfer.exception;
+
+public class StorageQuotaExceededException extends RuntimeException {
+    public StorageQuotaExceededException(String message) {
+        super(message);
+    }
+}
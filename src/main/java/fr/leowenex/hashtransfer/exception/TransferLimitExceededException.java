@@ -0,0 +1,7 @@
+package fr.leowenex.hashtransfer.exception;
+
+public class TransferLimitExceededException extends RuntimeException {
+    public TransferLimitExceededException(String message) {
+        super(message);
+    }
+}
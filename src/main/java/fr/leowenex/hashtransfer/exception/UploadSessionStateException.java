@@ -0,0 +1,7 @@
+package fr.leowenex.hashtransfer.exception;
+
+public class UploadSessionStateException extends RuntimeException {
+    public UploadSessionStateException(String message) {
+        super(message);
+    }
+}
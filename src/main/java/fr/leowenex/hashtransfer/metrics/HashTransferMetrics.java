@@ -0,0 +1,222 @@
+package fr.leowenex.hashtransfer.metrics;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import fr.leowenex.hashtransfer.service.StorageUsage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.apache.commons.io.output.ProxyOutputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Micrometer meters of the transfers and of the storage, exposed through the Actuator metrics and Prometheus endpoints.
+ */
+@Component
+public class HashTransferMetrics {
+
+    public static final String UPLOAD_DIRECTION = "upload";
+    public static final String DOWNLOAD_DIRECTION = "download";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, AtomicInteger> activeTransfers = new ConcurrentHashMap<>();
+
+    private final Timer metadataReadTimer;
+
+    private final Timer purgeTimer;
+
+    private final Counter purgeScannedCounter;
+
+    private final Counter purgeDeletedCounter;
+
+    public HashTransferMetrics(MeterRegistry meterRegistry, StorageUsage storageUsage) {
+        this.meterRegistry = meterRegistry;
+
+        for (String direction : new String[]{UPLOAD_DIRECTION, DOWNLOAD_DIRECTION}) {
+            AtomicInteger active = new AtomicInteger();
+            activeTransfers.put(direction, active);
+            Gauge.builder("hashtransfer.transfers.active", active, AtomicInteger::get)
+                    .description("Transfers in progress")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+        }
+
+        Gauge.builder("hashtransfer.storage.bytes", storageUsage, StorageUsage::getStoredBytes)
+                .description("On-disk size of the stored files")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        Gauge.builder("hashtransfer.storage.files", storageUsage, StorageUsage::getStoredFiles)
+                .description("Number of stored files")
+                .register(meterRegistry);
+
+        this.metadataReadTimer = Timer.builder("hashtransfer.metadata.read")
+                .description("Latency of the metadata file reads")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+
+        this.purgeTimer = Timer.builder("hashtransfer.purge.duration")
+                .description("Duration of the purge runs")
+                .register(meterRegistry);
+        this.purgeScannedCounter = Counter.builder("hashtransfer.purge.entries")
+                .description("Expired entries taken from the expiry index by the purge")
+                .tag("result", "scanned")
+                .register(meterRegistry);
+        this.purgeDeletedCounter = Counter.builder("hashtransfer.purge.entries")
+                .description("Expired entries taken from the expiry index by the purge")
+                .tag("result", "deleted")
+                .register(meterRegistry);
+    }
+
+    public void transferStarted(String direction) {
+        activeTransfers.get(direction).incrementAndGet();
+    }
+
+    public void transferEnded(String direction) {
+        activeTransfers.get(direction).decrementAndGet();
+    }
+
+    /**
+     * Record a completed transfer.
+     * @param direction The direction of the transfer.
+     * @param bytes The number of bytes of the body.
+     * @param durationNanos The duration of the transfer, or a negative value if it is unknown (e.g. handed to sendfile).
+     */
+    public void recordTransfer(String direction, long bytes, long durationNanos) {
+        DistributionSummary.builder("hashtransfer.transfer.size")
+                .description("Size of the transferred bodies")
+                .baseUnit("bytes")
+                .tag("direction", direction)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(bytes);
+        if (durationNanos < 0) {
+            return;
+        }
+        Timer.builder("hashtransfer.transfer.duration")
+                .description("Duration of the transfers")
+                .tag("direction", direction)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(durationNanos, TimeUnit.NANOSECONDS);
+        if (durationNanos > 0) {
+            DistributionSummary.builder("hashtransfer.transfer.throughput")
+                    .description("Throughput of the transfers")
+                    .baseUnit("bytes/s")
+                    .tag("direction", direction)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry)
+                    .record(bytes * 1e9 / durationNanos);
+        }
+    }
+
+    /**
+     * Record the time an upload spent in each of its phases.
+     * @param receiveNanos Time spent waiting for the bytes of the client (including the disk bandwidth throttling).
+     * @param hashNanos Time spent updating the digests.
+     * @param writeNanos Time spent writing to the storage (including compression and tree hashing).
+     */
+    public void recordUploadPhases(long receiveNanos, long hashNanos, long writeNanos) {
+        RecordUploadPhase("receive", receiveNanos);
+        RecordUploadPhase("hash", hashNanos);
+        RecordUploadPhase("write", writeNanos);
+    }
+
+    private void RecordUploadPhase(String phase, long nanos) {
+        Timer.builder("hashtransfer.upload.phase")
+                .description("Time spent by the uploads in each phase")
+                .tag("phase", phase)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public <T> T timeMetadataRead(Supplier<T> metadataRead) {
+        return metadataReadTimer.record(metadataRead);
+    }
+
+    public void countDigestMismatch(String algorithm) {
+        Counter.builder("hashtransfer.digest.mismatches")
+                .description("Uploads rejected because a digest did not match the provided one")
+                .tag("algorithm", algorithm)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Record a purge run.
+     * @param durationNanos The duration of the run.
+     * @param scannedEntries The number of expired entries taken from the expiry index.
+     * @param deletedEntries The number of file directories actually deleted.
+     */
+    public void recordPurge(long durationNanos, int scannedEntries, int deletedEntries) {
+        purgeTimer.record(durationNanos, TimeUnit.NANOSECONDS);
+        purgeScannedCounter.increment(scannedEntries);
+        purgeDeletedCounter.increment(deletedEntries);
+    }
+
+    /**
+     * Expose the meters of the hot file cache: hits and misses (cache.gets), evictions, entries and cached bytes.
+     * @param cache The cache of the hot files.
+     */
+    public void monitorHotFileCache(Cache<String, ?> cache) {
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "hashtransfer.hotfiles");
+        Gauge.builder("hashtransfer.hotfiles.bytes", cache, c -> c.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L))
+                .description("Size of the contents held by the hot file cache")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Accumulates the time spent in the reads or writes of the streams it wraps.
+     * Not thread-safe: a clock is meant to be used by a single transfer.
+     */
+    public static final class PhaseClock {
+
+        private long nanos;
+
+        private long startTime;
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public InputStream time(InputStream inputStream) {
+            return new ProxyInputStream(inputStream) {
+                @Override
+                protected void beforeRead(int n) {
+                    startTime = System.nanoTime();
+                }
+
+                @Override
+                protected void afterRead(int n) {
+                    nanos += System.nanoTime() - startTime;
+                }
+            };
+        }
+
+        public OutputStream time(OutputStream outputStream) {
+            return new ProxyOutputStream(outputStream) {
+                @Override
+                protected void beforeWrite(int n) {
+                    startTime = System.nanoTime();
+                }
+
+                @Override
+                protected void afterWrite(int n) {
+                    nanos += System.nanoTime() - startTime;
+                }
+            };
+        }
+    }
+}
@@ -1,16 +1,44 @@
 package fr.leowenex.hashtransfer.rest;
 
+import fr.leowenex.hashtransfer.config.DownloadEngine;
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
 import fr.leowenex.hashtransfer.dto.FileData;
 import fr.leowenex.hashtransfer.dto.FileDownloadResponse;
 import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.TreeHash;
+import fr.leowenex.hashtransfer.exception.DataAccessException;
+import fr.leowenex.hashtransfer.exception.DigestNotMatchingException;
+import fr.leowenex.hashtransfer.exception.InvalidFilePathException;
+import fr.leowenex.hashtransfer.rest.archive.ArchiveFormat;
+import fr.leowenex.hashtransfer.rest.archive.FileArchiveWriter;
+import fr.leowenex.hashtransfer.rest.limit.LimitedTransfer;
+import fr.leowenex.hashtransfer.rest.limit.ReservedStorage;
+import fr.leowenex.hashtransfer.rest.limit.StorageQuotaInterceptor;
+import fr.leowenex.hashtransfer.rest.limit.TransferShaper;
 import fr.leowenex.hashtransfer.service.FileService;
 import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import fr.leowenex.hashtransfer.util.DownloadHeaderUtils;
+import fr.leowenex.hashtransfer.util.SendfileUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletRequestContext;
+import org.apache.commons.io.input.BoundedInputStream;
 import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.InputStreamResource;
 import org.springframework.core.io.Resource;
 import org.springframework.http.ContentDisposition;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
@@ -18,69 +46,168 @@ import org.springframework.util.ObjectUtils;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.WebRequest;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 
 @Slf4j
 @RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @RequestMapping("/api/file")
 @RequiredArgsConstructor
 public class FileTransferController {
 
+    private static final String ARCHIVE_MANIFEST_NAME = "SHA256SUMS";
+
     private final FileService fileService;
 
+    private final HashTransferProperties hashTransferProperties;
+
+    private final TransferShaper transferShaper;
+
+    /**
+     * Download a file.
+     * The SHA-256 of the file is used as a strong ETag, for conditional requests (If-None-Match, If-Match) and If-Range.
+     * Single and multiple byte ranges are supported.
+     * Full bodies carry a Content-Digest, with the digests stored at upload that the client asks for in Want-Content-Digest (SHA-256 by default).
+     * Files stored compressed are sent as is to the clients accepting their encoding (with their own ETag, and without
+     * Content-Digest as the compressed bytes have no stored digest), and decompressed for the others.
+     */
     @GetMapping("/{fileId}/download")
-    public ResponseEntity<@NonNull Resource> downloadFile(@PathVariable String fileId, @RequestParam(required = false, name = "dib") boolean displayInBrowser) throws IOException {
+    @LimitedTransfer(LimitedTransfer.Direction.DOWNLOAD)
+    public ResponseEntity<@NonNull Resource> downloadFile(@PathVariable String fileId,
+                                          @RequestParam(required = false, name = "dib") boolean displayInBrowser,
+                                          @RequestHeader HttpHeaders requestHeaders,
+                                          WebRequest webRequest,
+                                          HttpServletRequest request,
+                                          HttpServletResponse response) throws IOException {
 
-        FileDownloadResponse downloadResponse = fileService.downloadFile(fileId)
+        List<String> acceptedContentEncodings = DownloadHeaderUtils.parseAcceptEncoding(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+        FileDownloadResponse downloadResponse = fileService.downloadFile(fileId, acceptedContentEncodings)
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found"));
 
-        Resource fileResource = downloadResponse.fileResource();
+        Resource fileResource = transferShaper.shape(downloadResponse.fileResource(), request.getRemoteAddr());
         FileData fileData = downloadResponse.fileData();
 
-        MediaType mediaType = resolveMediaType(fileData);
+        String contentEncoding = downloadResponse.contentEncoding();
+        String eTag = DownloadHeaderUtils.toETag(fileData.sha256(), contentEncoding);
+        if (webRequest.checkNotModified(eTag)) {
+            return null;
+        }
+
+        MediaType mediaType = downloadResponse.mediaType();
 
         HttpHeaders headers = new HttpHeaders();
         ContentDisposition contentDisposition = displayInBrowser
                 ? ContentDisposition.inline().filename(fileData.filename()).build()
                 : ContentDisposition.attachment().filename(fileData.filename()).build();
         headers.setContentDisposition(contentDisposition);
-        headers.setContentLength(fileResource.contentLength());
         headers.setContentType(mediaType);
-        headers.add(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, ContentDigestHeaderUtils.SHA256_ALGORITHM_PREFIX + fileData.sha256());
+        headers.setETag(eTag);
+        headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        if (fileData.contentEncoding() != null) {
+            headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+        }
+        if (contentEncoding != null) {
+            headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        boolean sendContentDigest = contentEncoding == null;
 
+        String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        if (range != null && ifRange != null && !ifRange.equals(eTag)) {
+            // The client's partial copy is outdated: the whole file is sent, as a stream so that Spring does not apply the range
+            headers.setContentLength(fileResource.contentLength());
+            if (sendContentDigest) {
+                headers.add(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, DownloadHeaderUtils.toContentDigest(fileData, requestHeaders.getFirst(ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER)));
+            }
+            return ResponseEntity.ok().headers(headers).body(new InputStreamResource(fileResource.getInputStream()));
+        }
+        if (range == null && sendContentDigest) {
+            headers.add(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, DownloadHeaderUtils.toContentDigest(fileData, requestHeaders.getFirst(ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER)));
+        }
+
+        if (hashTransferProperties.getDownloadEngine() == DownloadEngine.SENDFILE && sendFile(fileResource, range, headers, request, response)) {
+            return null;
+        }
+
+        // With a Range header, Spring answers 206 (multipart/byteranges for several ranges) or 416 from the Resource
         return ResponseEntity.ok().headers(headers).body(fileResource);
     }
 
-    private MediaType resolveMediaType(FileData fileData) {
-        if (fileData.contentType() != null) {
+    /**
+     * Send a file (or a single range of it) through the container sendfile support.
+     * @return true if the response was handed to sendfile, false if the caller must write it.
+     */
+    private static boolean sendFile(Resource fileResource, String range, HttpHeaders headers, HttpServletRequest request, HttpServletResponse response) throws IOException {
+
+        if (!HttpMethod.GET.matches(request.getMethod()) || !fileResource.isFile() || !SendfileUtils.isSendfileSupported(request)) {
+            return false;
+        }
+
+        long contentLength = fileResource.contentLength();
+        long start = 0;
+        long end = contentLength;
+        HttpStatus status = HttpStatus.OK;
+
+        if (range != null) {
             try {
-                return MediaType.parseMediaType(fileData.contentType());
-            } catch (Exception _) {
+                List<HttpRange> httpRanges = HttpRange.parseRanges(range);
+                if (httpRanges.size() != 1) {
+                    return false;
+                }
+                start = httpRanges.getFirst().getRangeStart(contentLength);
+                end = httpRanges.getFirst().getRangeEnd(contentLength) + 1;
+            } catch (IllegalArgumentException _) {
+                // Unsatisfiable or malformed ranges are answered by the default path
+                return false;
             }
+            status = HttpStatus.PARTIAL_CONTENT;
+        }
+
+        if (end - start < SendfileUtils.SENDFILE_MIN_SIZE) {
+            return false;
         }
-        return resolveMediaType(fileData.filename());
+
+        if (status == HttpStatus.PARTIAL_CONTENT) {
+            headers.set(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + (end - 1) + "/" + contentLength);
+        }
+        headers.setContentLength(end - start);
+        response.setStatus(status.value());
+        headers.forEach((name, values) -> {
+            response.setHeader(name, values.getFirst());
+            values.stream().skip(1).forEach(value -> response.addHeader(name, value));
+        });
+        log.debug("Sending file with sendfile: file={}, start={}, end={}", fileResource.getFilename(), start, end);
+        SendfileUtils.sendfile(request, fileResource.getFile(), start, end);
+        return true;
     }
 
-    private MediaType resolveMediaType(String filename) {
+    private static Map<String, String> parseContentDigest(String contentDigest) {
         try {
-            String contentType = Files.probeContentType(Paths.get(filename));
-            if (contentType != null) {
-                return MediaType.parseMediaType(contentType);
-            }
-        } catch (IOException _) {
+            return ContentDigestHeaderUtils.parseContentDigestHeader(contentDigest);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Content-Digest header: " + e.getMessage());
         }
-
-        return MediaType.APPLICATION_OCTET_STREAM;
     }
 
     @GetMapping("/{fileId}")
@@ -91,23 +218,118 @@ public class FileTransferController {
         return ResponseEntity.ok(fileData);
     }
 
+    /**
+     * Query the metadata of several files in one request.
+     * The body is a JSON array of file IDs. The response maps each ID to the metadata of its file, or to null if the file does not exist.
+     */
+    @PostMapping(value = "/_batch", consumes = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<@NonNull Map<String, FileData>> getFileDataBatch(@RequestBody List<String> fileIds) {
+        CheckBatchSize(fileIds.size());
+
+        return ResponseEntity.ok(fileService.queryFileData(fileIds));
+    }
+
+    /**
+     * Download several files as a single archive, written as the files are read (without temp file nor buffering).
+     * The body is a JSON array of file IDs, and the format a query parameter ("zip" by default, or "tar").
+     * The archive starts with a SHA256SUMS manifest, so that "sha256sum -c SHA256SUMS" checks the extracted files.
+     * Files are stored under their original names, prefixed with their ID when the name is already taken.
+     * Files stored compressed are decompressed.
+     */
+    @PostMapping(value = "/_archive", consumes = MediaType.APPLICATION_JSON_VALUE)
+    @LimitedTransfer(LimitedTransfer.Direction.DOWNLOAD)
+    public void downloadArchive(@RequestParam(name = "format", defaultValue = "zip") String formatName,
+                                @RequestBody List<String> fileIds,
+                                HttpServletRequest request,
+                                HttpServletResponse response) throws IOException {
+
+        ArchiveFormat format = ArchiveFormat.fromExtension(formatName)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.BAD_REQUEST, "Unsupported archive format: " + formatName));
+        CheckBatchSize(fileIds.size());
+
+        // Every file is looked up before the response is committed, so that a missing one can still be answered with a 404
+        Map<String, FileData> fileDataById = fileService.queryFileData(fileIds);
+        List<String> missingFileIds = fileDataById.entrySet().stream().filter(entry -> entry.getValue() == null).map(Map.Entry::getKey).toList();
+        if (!missingFileIds.isEmpty()) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Files not found: " + String.join(", ", missingFileIds));
+        }
+
+        Set<String> entryNames = new HashSet<>();
+        entryNames.add(ARCHIVE_MANIFEST_NAME);
+        Map<String, String> entryNamesById = new LinkedHashMap<>();
+        StringBuilder manifest = new StringBuilder();
+        fileDataById.forEach((fileId, fileData) -> {
+            String entryName = entryNames.add(fileData.filename()) ? fileData.filename() : fileId + "/" + fileData.filename();
+            entryNamesById.put(fileId, entryName);
+            manifest.append(fileData.sha256()).append("  ").append(entryName).append('\n');
+        });
+        byte[] manifestBytes = manifest.toString().getBytes(StandardCharsets.UTF_8);
+
+        response.setContentType(format.getMediaType());
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, ContentDisposition.attachment().filename("files." + format.getExtension()).build().toString());
+
+        try (FileArchiveWriter archiveWriter = new FileArchiveWriter(format, response.getOutputStream())) {
+            archiveWriter.addEntry(ARCHIVE_MANIFEST_NAME, manifestBytes.length, new ByteArrayInputStream(manifestBytes));
+            for (Map.Entry<String, String> entry : entryNamesById.entrySet()) {
+                FileDownloadResponse downloadResponse = fileService.downloadFile(entry.getKey())
+                        .orElseThrow(() -> new DataAccessException("File deleted during the archive download: " + entry.getKey()));
+                Resource fileResource = transferShaper.shape(downloadResponse.fileResource(), request.getRemoteAddr());
+                try (InputStream inputStream = fileResource.getInputStream()) {
+                    archiveWriter.addEntry(entry.getValue(), fileResource.contentLength(), inputStream);
+                }
+            }
+        }
+    }
+
+    private void CheckBatchSize(int batchSize) {
+        if (batchSize > hashTransferProperties.getMaxBatchSize()) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many files in the batch (max " + hashTransferProperties.getMaxBatchSize() + ")");
+        }
+    }
+
+    /**
+     * Get the tree hash of a file with its chunk hashes, to verify ranged or resumed downloads chunk by chunk.
+     */
+    @GetMapping("/{fileId}/treehash")
+    public ResponseEntity<@NonNull TreeHash> getTreeHash(@PathVariable String fileId) {
+        TreeHash treeHash = fileService.queryTreeHash(fileId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Tree hash not found"));
+
+        return ResponseEntity.ok(treeHash);
+    }
 
     @PostMapping
-    public ResponseEntity<@NonNull FileUploadResponse> uploadFile(@RequestPart(value = "file") MultipartFile file, @RequestPart(value = "sha256", required = false) String sha256) throws IOException {
+    @LimitedTransfer(LimitedTransfer.Direction.UPLOAD)
+    @ReservedStorage
+    public ResponseEntity<@NonNull FileUploadResponse> uploadFile(@RequestPart(value = "file") MultipartFile file,
+                                                                  @RequestPart(value = "sha256", required = false) String sha256,
+                                                                  @RequestHeader(value = ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER, required = false) String wantContentDigest,
+                                                                  HttpServletRequest request) throws IOException {
 
         if (ObjectUtils.isEmpty(file.getOriginalFilename())) {
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File must have a filename");
         }
 
+        Map<String, String> expectedDigests = ObjectUtils.isEmpty(sha256) ? Map.of() : Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, sha256);
+        List<String> wantedDigestAlgorithms = ContentDigestHeaderUtils.parseWantContentDigestHeader(wantContentDigest);
+
+        Optional<FileUploadResponse> existingFileResponse = fileService.uploadExistingFile(file.getOriginalFilename(), file.getContentType(), expectedDigests, wantedDigestAlgorithms, request.getRemoteAddr());
+        if (existingFileResponse.isPresent()) {
+            return ResponseEntity.ok(existingFileResponse.get());
+        }
+
         FileUploadResponse uploadResponse;
 
-        try (InputStream inputStream = file.getInputStream()) {
+        // The multipart body is received by the container before the handler: only its copy to the storage is shaped
+        try (InputStream inputStream = transferShaper.shape(StorageQuotaInterceptor.cover(request, file.getInputStream()), request.getRemoteAddr(), file.getSize())) {
             uploadResponse = fileService.uploadFile(
                     file.getOriginalFilename(),
                     file.getSize(),
                     file.getContentType(),
-                    sha256,
-                    inputStream
+                    expectedDigests,
+                    wantedDigestAlgorithms,
+                    inputStream,
+                    request.getRemoteAddr()
             );
         }
 
@@ -115,7 +337,136 @@ public class FileTransferController {
         return ResponseEntity.ok(uploadResponse);
     }
 
+    /**
+     * Upload several files in one multipart request.
+     * The "file" parts are streamed to the storage one after the other, as they are received, without being spooled to
+     * the multipart temp directory. Other parts are ignored.
+     * Each part can carry the expected digests of its file in a Content-Digest header, and the algorithms listed in the
+     * Want-Content-Digest header of the request are computed for all the files.
+     * The response has one result per file, in order. A file rejected for its own content (digest mismatch, invalid
+     * name) gets a result without file ID, with the reason as message, and does not fail the other files.
+     */
+    @PostMapping(value = "/_upload", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @LimitedTransfer(LimitedTransfer.Direction.UPLOAD)
+    @ReservedStorage
+    public ResponseEntity<@NonNull List<FileUploadResponse>> uploadFiles(@RequestHeader(value = ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER, required = false) String wantContentDigest,
+                                                                         HttpServletRequest request) throws IOException {
+
+        long maxUploadSize = hashTransferProperties.getMaxUploadSize().toBytes();
+        List<String> wantedDigestAlgorithms = ContentDigestHeaderUtils.parseWantContentDigestHeader(wantContentDigest);
 
+        // The body is read directly from the request, Spring resolves multipart requests lazily
+        JakartaServletRequestContext requestContext = new JakartaServletRequestContext(request) {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return transferShaper.shape(StorageQuotaInterceptor.cover(request, super.getInputStream()), request.getRemoteAddr(), request.getContentLengthLong());
+            }
+        };
+
+        List<FileUploadResponse> uploadResponses = new ArrayList<>();
+        try {
+            FileItemInputIterator itemIterator = new JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory>().getItemIterator(requestContext);
+            while (itemIterator.hasNext()) {
+                FileItemInput item = itemIterator.next();
+                if (item.isFormField() || !"file".equals(item.getFieldName())) {
+                    continue;
+                }
+                CheckBatchSize(uploadResponses.size() + 1);
+                if (ObjectUtils.isEmpty(item.getName())) {
+                    throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File must have a filename");
+                }
+                uploadResponses.add(UploadFileItem(item, wantedDigestAlgorithms, maxUploadSize, request.getRemoteAddr()));
+            }
+        } catch (FileUploadException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Malformed multipart body: " + e.getMessage());
+        }
+
+        return ResponseEntity.ok(uploadResponses);
+    }
+
+    private FileUploadResponse UploadFileItem(FileItemInput item, List<String> wantedDigestAlgorithms, long maxUploadSize, String owner) throws IOException {
+        String fileName = item.getName();
+        Map<String, String> expectedDigests;
+        try {
+            expectedDigests = ContentDigestHeaderUtils.parseContentDigestHeader(item.getHeaders().getHeader(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER));
+        } catch (IllegalArgumentException e) {
+            return new FileUploadResponse(null, fileName, "Invalid Content-Digest header: " + e.getMessage());
+        }
+        try {
+            // Known content is not read: the iterator skips the rest of the part
+            Optional<FileUploadResponse> existingFileResponse = fileService.uploadExistingFile(fileName, item.getContentType(), expectedDigests, wantedDigestAlgorithms, owner);
+            if (existingFileResponse.isPresent()) {
+                return existingFileResponse.get();
+            }
 
+            try (InputStream inputStream = BoundedInputStream.builder()
+                    .setInputStream(item.getInputStream())
+                    .setMaxCount(maxUploadSize + 1)
+                    .setOnMaxCount((_, _) -> {
+                        throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size: " + fileName);
+                    })
+                    .get()) {
+                return fileService.uploadFile(fileName, -1, item.getContentType(), expectedDigests, wantedDigestAlgorithms, inputStream, owner);
+            }
+        } catch (DigestNotMatchingException | InvalidFilePathException e) {
+            log.debug("Rejected file of a batch upload: filename={}, reason={}", fileName, e.getMessage());
+            return new FileUploadResponse(null, fileName, e.getMessage());
+        }
+    }
+
+    /**
+     * Upload a file from the raw request body.
+     * The body is streamed once into storage, without being spooled to the multipart temp directory first.
+     * Expected digests can be provided through the Content-Digest header (RFC 9530, e.g. "sha-256=:base64:", or hex encoded),
+     * for any of the supported algorithms. The algorithms listed in Want-Content-Digest are computed and stored as well,
+     * so that downloads can answer with them.
+     */
+    @PutMapping(value = "/{fileName}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @LimitedTransfer(LimitedTransfer.Direction.UPLOAD)
+    @ReservedStorage
+    public ResponseEntity<@NonNull FileUploadResponse> uploadFileStream(@PathVariable String fileName,
+                                                                        @RequestParam(required = false) String contentType,
+                                                                        @RequestHeader(value = ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, required = false) String contentDigest,
+                                                                        @RequestHeader(value = ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER, required = false) String wantContentDigest,
+                                                                        HttpServletRequest request) throws IOException {
+
+        long maxUploadSize = hashTransferProperties.getMaxUploadSize().toBytes();
+        long contentLength = request.getContentLengthLong();
+        if (contentLength > maxUploadSize) {
+            throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size");
+        }
+
+        Map<String, String> expectedDigests = parseContentDigest(contentDigest);
+        List<String> wantedDigestAlgorithms = ContentDigestHeaderUtils.parseWantContentDigestHeader(wantContentDigest);
+
+        // Known content is not read at all: with "Expect: 100-continue", the client does not even send the body
+        Optional<FileUploadResponse> existingFileResponse = fileService.uploadExistingFile(fileName, contentType, expectedDigests, wantedDigestAlgorithms, request.getRemoteAddr());
+        if (existingFileResponse.isPresent()) {
+            return ResponseEntity.ok(existingFileResponse.get());
+        }
+
+        FileUploadResponse uploadResponse;
+
+        // Bodies without a Content-Length (chunked) are cut off once they go past the maximum upload size
+        try (InputStream inputStream = BoundedInputStream.builder()
+                .setInputStream(transferShaper.shape(StorageQuotaInterceptor.cover(request, request.getInputStream()), request.getRemoteAddr(), contentLength))
+                .setMaxCount(maxUploadSize + 1)
+                .setOnMaxCount((_, _) -> {
+                    throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size");
+                })
+                .get()) {
+            uploadResponse = fileService.uploadFile(
+                    fileName,
+                    contentLength,
+                    contentType,
+                    expectedDigests,
+                    wantedDigestAlgorithms,
+                    inputStream,
+                    request.getRemoteAddr()
+            );
+        }
+
+        return ResponseEntity.ok(uploadResponse);
+    }
 
 }
@@ -0,0 +1,135 @@
+package fr.leowenex.hashtransfer.rest;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.UploadSessionData;
+import fr.leowenex.hashtransfer.dto.UploadSessionRequest;
+import fr.leowenex.hashtransfer.rest.limit.LimitedTransfer;
+import fr.leowenex.hashtransfer.rest.limit.TransferShaper;
+import fr.leowenex.hashtransfer.service.UploadSessionService;
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.DeleteMapping;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Resumable uploads: create a session, PUT chunks at the committed offset, query the offset after a failure, then complete.
+ * Chunks can also be PUT at any offset, in parallel: the session then tracks the ranges received past the committed offset.
+ */
+@Slf4j
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequestMapping("/api/upload")
+@RequiredArgsConstructor
+public class UploadSessionController {
+
+    private final UploadSessionService uploadSessionService;
+
+    private final TransferShaper transferShaper;
+
+    private final HashTransferProperties hashTransferProperties;
+
+    @PostMapping
+    public ResponseEntity<@NonNull UploadSessionData> createSession(@RequestBody UploadSessionRequest uploadSessionRequest, HttpServletRequest request) {
+        if (uploadSessionRequest.fileSize() < 0) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "File size must not be negative");
+        }
+        if (uploadSessionRequest.fileSize() > hashTransferProperties.getMaxUploadSize().toBytes()) {
+            throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size");
+        }
+        return ResponseEntity.ok(uploadSessionService.createSession(uploadSessionRequest, request.getRemoteAddr()));
+    }
+
+    @GetMapping("/{uploadId}")
+    public ResponseEntity<@NonNull UploadSessionData> getSession(@PathVariable String uploadId) {
+        UploadSessionData sessionData = uploadSessionService.querySession(uploadId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+
+        return ResponseEntity.ok(sessionData);
+    }
+
+    @PutMapping(value = "/{uploadId}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @LimitedTransfer(LimitedTransfer.Direction.UPLOAD)
+    public ResponseEntity<@NonNull UploadSessionData> appendChunk(@PathVariable String uploadId, @RequestParam long offset, HttpServletRequest request) throws IOException {
+
+        UploadSessionData sessionData;
+
+        try (InputStream inputStream = transferShaper.shape(request.getInputStream(), request.getRemoteAddr(), request.getContentLengthLong())) {
+            sessionData = uploadSessionService.appendChunk(uploadId, offset, inputStream)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+        }
+
+        return ResponseEntity.ok(sessionData);
+    }
+
+    /**
+     * Write a chunk at any offset, in parallel with the other chunks of the session (e.g. one chunk stream per connection).
+     * The chunk is only recorded once fully received, so its Content-Length is required.
+     */
+    @PutMapping(value = "/{uploadId}/chunks", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @LimitedTransfer(LimitedTransfer.Direction.UPLOAD)
+    public ResponseEntity<@NonNull UploadSessionData> writeChunk(@PathVariable String uploadId, @RequestParam long offset, HttpServletRequest request) throws IOException {
+
+        long length = request.getContentLengthLong();
+        if (length < 0) {
+            throw new ResponseStatusException(HttpStatus.LENGTH_REQUIRED, "Parallel chunks must have a Content-Length");
+        }
+
+        UploadSessionData sessionData;
+
+        try (InputStream inputStream = transferShaper.shape(request.getInputStream(), request.getRemoteAddr(), length)) {
+            sessionData = uploadSessionService.writeChunk(uploadId, offset, length, inputStream)
+                    .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+        }
+
+        return ResponseEntity.ok(sessionData);
+    }
+
+    /**
+     * Complete the session. The expected digests can be given in a Content-Digest header, e.g. when the client
+     * computed them while the chunks were being sent.
+     */
+    @PostMapping("/{uploadId}/complete")
+    public ResponseEntity<@NonNull FileUploadResponse> completeSession(@PathVariable String uploadId,
+                                                                       @RequestHeader(value = ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, required = false) String contentDigest) {
+        Map<String, String> expectedDigests;
+        try {
+            expectedDigests = ContentDigestHeaderUtils.parseContentDigestHeader(contentDigest);
+        } catch (IllegalArgumentException e) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Content-Digest header: " + e.getMessage());
+        }
+
+        FileUploadResponse uploadResponse = uploadSessionService.completeSession(uploadId, expectedDigests)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found"));
+
+        return ResponseEntity.ok(uploadResponse);
+    }
+
+    @DeleteMapping("/{uploadId}")
+    public ResponseEntity<@NonNull Void> abortSession(@PathVariable String uploadId) {
+        if (!uploadSessionService.abortSession(uploadId)) {
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "Upload session not found");
+        }
+        return ResponseEntity.noContent().build();
+    }
+}
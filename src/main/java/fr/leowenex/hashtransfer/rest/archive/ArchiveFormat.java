@@ -0,0 +1,28 @@
+package fr.leowenex.hashtransfer.rest.archive;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+@Getter
+@RequiredArgsConstructor
+public enum ArchiveFormat {
+    /**
+     * Zip archive, with Zip64 extensions for the large files. Entries are not compressed.
+     */
+    ZIP("zip", "application/zip"),
+    /**
+     * POSIX (pax) tar archive.
+     */
+    TAR("tar", "application/x-tar");
+
+    private final String extension;
+
+    private final String mediaType;
+
+    public static Optional<ArchiveFormat> fromExtension(String extension) {
+        return Arrays.stream(values()).filter(format -> format.extension.equalsIgnoreCase(extension)).findFirst();
+    }
+}
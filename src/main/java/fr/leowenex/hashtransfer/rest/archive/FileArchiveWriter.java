@@ -0,0 +1,85 @@
+package fr.leowenex.hashtransfer.rest.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.IOUtils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes an archive to a stream, one entry after the other: entries are copied to the output as they are read, and
+ * neither the archive nor its entries are buffered or written to a temp file.
+ * The size of each entry must be known before its content is written.
+ */
+public class FileArchiveWriter implements Closeable {
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final ZipArchiveOutputStream zipOutputStream;
+
+    private final TarArchiveOutputStream tarOutputStream;
+
+    private final FileTime modificationTime = FileTime.from(Instant.now());
+
+    public FileArchiveWriter(ArchiveFormat format, OutputStream outputStream) {
+        if (format == ArchiveFormat.ZIP) {
+            // Stored entries need their CRC up front, so entries are deflated without compression instead
+            this.zipOutputStream = new ZipArchiveOutputStream(outputStream);
+            this.zipOutputStream.setMethod(ZipEntry.DEFLATED);
+            this.zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+            this.tarOutputStream = null;
+        } else {
+            this.zipOutputStream = null;
+            this.tarOutputStream = new TarArchiveOutputStream(outputStream);
+            this.tarOutputStream.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            this.tarOutputStream.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            this.tarOutputStream.setAddPaxHeadersForNonAsciiNames(true);
+        }
+    }
+
+    /**
+     * Add an entry to the archive.
+     * @param name The name of the entry.
+     * @param size The size of the content in bytes.
+     * @param inputStream The content of the entry (to be closed by the caller).
+     */
+    public void addEntry(String name, long size, InputStream inputStream) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+        if (zipOutputStream != null) {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setSize(size);
+            entry.setLastModifiedTime(modificationTime);
+            zipOutputStream.putArchiveEntry(entry);
+            IOUtils.copyLarge(inputStream, zipOutputStream, buffer);
+            zipOutputStream.closeArchiveEntry();
+        } else {
+            TarArchiveEntry entry = new TarArchiveEntry(name);
+            entry.setSize(size);
+            entry.setLastModifiedTime(modificationTime);
+            tarOutputStream.putArchiveEntry(entry);
+            IOUtils.copyLarge(inputStream, tarOutputStream, buffer);
+            tarOutputStream.closeArchiveEntry();
+        }
+    }
+
+    /**
+     * Write the end of the archive. The underlying stream is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (zipOutputStream != null) {
+            zipOutputStream.finish();
+        } else {
+            tarOutputStream.finish();
+        }
+    }
+}
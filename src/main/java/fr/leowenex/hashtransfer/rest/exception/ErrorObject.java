@@ -14,10 +14,11 @@ public record ErrorObject (
 ) {
 
     public static ErrorObject of(HttpStatus status, String error, WebRequest request) {
-        ZonedDateTime timestamp = ZonedDateTime.now();
-        int statusCode = status.value();
-        String path = ((ServletWebRequest)request).getRequest().getRequestURI();
-        return new ErrorObject(timestamp, statusCode, error, path);
+        return of(status, error, ((ServletWebRequest)request).getRequest().getRequestURI());
+    }
+
+    public static ErrorObject of(HttpStatus status, String error, String path) {
+        return new ErrorObject(ZonedDateTime.now(), status.value(), error, path);
     }
 
 }
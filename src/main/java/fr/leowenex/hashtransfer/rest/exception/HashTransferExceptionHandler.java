@@ -3,8 +3,12 @@ package fr.leowenex.hashtransfer.rest.exception;
 import fr.leowenex.hashtransfer.exception.DataAccessException;
 import fr.leowenex.hashtransfer.exception.DigestNotMatchingException;
 import fr.leowenex.hashtransfer.exception.InvalidFilePathException;
+import fr.leowenex.hashtransfer.exception.StorageQuotaExceededException;
+import fr.leowenex.hashtransfer.exception.TransferLimitExceededException;
 import fr.leowenex.hashtransfer.exception.UnreadableMetadataException;
+import fr.leowenex.hashtransfer.exception.UploadSessionStateException;
 import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -14,6 +18,7 @@ import org.springframework.web.method.annotation.MethodArgumentTypeMismatchExcep
 import org.springframework.web.server.ResponseStatusException;
 
 @RestControllerAdvice
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 public class HashTransferExceptionHandler {
 
     @ExceptionHandler(DataAccessException.class)
@@ -46,6 +51,21 @@ public class HashTransferExceptionHandler {
         return makeResponse(HttpStatus.INTERNAL_SERVER_ERROR, "Unreadable file metadata: " + ex.getMessage(), request);
     }
 
+    @ExceptionHandler(UploadSessionStateException.class)
+    public ResponseEntity<@NonNull ErrorObject> handleUploadSessionStateException(UploadSessionStateException ex, WebRequest request) {
+        return makeResponse(HttpStatus.CONFLICT, ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(TransferLimitExceededException.class)
+    public ResponseEntity<@NonNull ErrorObject> handleTransferLimitExceededException(TransferLimitExceededException ex, WebRequest request) {
+        return makeResponse(HttpStatus.SERVICE_UNAVAILABLE, ex.getMessage(), request);
+    }
+
+    @ExceptionHandler(StorageQuotaExceededException.class)
+    public ResponseEntity<@NonNull ErrorObject> handleStorageQuotaExceededException(StorageQuotaExceededException ex, WebRequest request) {
+        return makeResponse(HttpStatus.INSUFFICIENT_STORAGE, ex.getMessage(), request);
+    }
+
     private static ResponseEntity<@NonNull ErrorObject> makeResponse(HttpStatus status, String error, WebRequest request) {
         ErrorObject errorObject = ErrorObject.of(status, error, request);
         return ResponseEntity.status(status).body(errorObject);
@@ -0,0 +1,22 @@
+package fr.leowenex.hashtransfer.rest.limit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler method as a file transfer, which takes a slot of the matching concurrency limit for the whole request.
+ * @see TransferLimitInterceptor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface LimitedTransfer {
+
+    Direction value();
+
+    enum Direction {
+        UPLOAD,
+        DOWNLOAD
+    }
+}
@@ -0,0 +1,15 @@
+package fr.leowenex.hashtransfer.rest.limit;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a handler method as an upload, which reserves the size of its body against the storage quotas for the whole request.
+ * @see StorageQuotaInterceptor
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ReservedStorage {
+}
@@ -0,0 +1,60 @@
+package fr.leowenex.hashtransfer.rest.limit;
+
+import fr.leowenex.hashtransfer.service.StorageQuota;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.InputStream;
+
+/**
+ * Reserves the Content-Length of the uploads (handlers annotated with {@link ReservedStorage}) against the storage quotas,
+ * before their body is received: an upload that does not fit is rejected with a 507 without reading a byte of it.
+ * <p>
+ * The reservation is held until the response is complete, the stored file being counted by the storage usage by then.
+ * A body without a Content-Length (chunked) reserves nothing up front: the handler covers it with {@link #cover} as it is read.
+ * Registered after the transfer limit, so that an upload waiting for a slot does not hold space.
+ */
+@Component
+@RequiredArgsConstructor
+public class StorageQuotaInterceptor implements HandlerInterceptor {
+
+    private static final String RESERVATION_ATTRIBUTE = StorageQuotaInterceptor.class.getName() + ".reservation";
+
+    private final StorageQuota storageQuota;
+
+    /**
+     * Cover the body of an upload by the reservation of its request, as it is read.
+     * @param request The upload request.
+     * @param inputStream The body, or the part of it holding a file.
+     * @return The covered body, or the body as is if the request holds no reservation.
+     */
+    public static InputStream cover(HttpServletRequest request, InputStream inputStream) {
+        if (request.getAttribute(RESERVATION_ATTRIBUTE) instanceof StorageQuota.Reservation reservation) {
+            return reservation.cover(inputStream);
+        }
+        return inputStream;
+    }
+
+    @Override
+    public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod) || !handlerMethod.hasMethodAnnotation(ReservedStorage.class)) {
+            return true;
+        }
+        StorageQuota.Reservation reservation = storageQuota.reserve(request.getRemoteAddr(), Math.max(request.getContentLengthLong(), 0));
+        request.setAttribute(RESERVATION_ATTRIBUTE, reservation);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler, Exception ex) {
+        if (request.getAttribute(RESERVATION_ATTRIBUTE) instanceof StorageQuota.Reservation reservation) {
+            request.removeAttribute(RESERVATION_ATTRIBUTE);
+            reservation.close();
+        }
+    }
+}
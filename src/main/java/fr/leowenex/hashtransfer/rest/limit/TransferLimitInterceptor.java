@@ -0,0 +1,76 @@
+package fr.leowenex.hashtransfer.rest.limit;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.exception.TransferLimitExceededException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds the number of concurrent uploads and downloads (handlers annotated with {@link LimitedTransfer}).
+ * <p>
+ * A transfer waits for a free slot up to the configured timeout, then is rejected with a 503.
+ * The slot is held until the response is complete, including the body written by the message converters.
+ * Multipart bodies must be resolved lazily for an upload to take its slot before its body is received.
+ * Downloads handed to the container sendfile support release their slot when the request thread returns.
+ */
+@Slf4j
+@Component
+public class TransferLimitInterceptor implements HandlerInterceptor {
+
+    private static final String ACQUIRED_SLOT_ATTRIBUTE = TransferLimitInterceptor.class.getName() + ".acquiredSlot";
+
+    private final Map<LimitedTransfer.Direction, Semaphore> transferSlots = new EnumMap<>(LimitedTransfer.Direction.class);
+
+    private final Duration transferSlotTimeout;
+
+    public TransferLimitInterceptor(HashTransferProperties hashTransferProperties) {
+        this.transferSlotTimeout = hashTransferProperties.getTransferSlotTimeout();
+        if (hashTransferProperties.getMaxConcurrentUploads() > 0) {
+            transferSlots.put(LimitedTransfer.Direction.UPLOAD, new Semaphore(hashTransferProperties.getMaxConcurrentUploads(), true));
+        }
+        if (hashTransferProperties.getMaxConcurrentDownloads() > 0) {
+            transferSlots.put(LimitedTransfer.Direction.DOWNLOAD, new Semaphore(hashTransferProperties.getMaxConcurrentDownloads(), true));
+        }
+    }
+
+    @Override
+    public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler) throws InterruptedException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+        LimitedTransfer limitedTransfer = handlerMethod.getMethodAnnotation(LimitedTransfer.class);
+        if (limitedTransfer == null) {
+            return true;
+        }
+        Semaphore slots = transferSlots.get(limitedTransfer.value());
+        if (slots == null) {
+            return true;
+        }
+
+        if (!slots.tryAcquire(transferSlotTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            log.warn("No {} slot freed within {}, rejecting request: {}", limitedTransfer.value(), transferSlotTimeout, request.getRequestURI());
+            throw new TransferLimitExceededException("Too many concurrent transfers, retry later");
+        }
+        request.setAttribute(ACQUIRED_SLOT_ATTRIBUTE, slots);
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler, Exception ex) {
+        if (request.getAttribute(ACQUIRED_SLOT_ATTRIBUTE) instanceof Semaphore slots) {
+            request.removeAttribute(ACQUIRED_SLOT_ATTRIBUTE);
+            slots.release();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package fr.leowenex.hashtransfer.rest.limit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Network bandwidth shaping of the transfers: a limit per client, a global limit, and fair queuing between the transfers
+ * competing for the global limit.
+ * <p>
+ * Transfers are accounted in quanta of 64 KB. Each client (remote address) has its own token bucket, shared by all its transfers.
+ * The global bandwidth is handed out quantum by quantum by a dispatcher thread, in start-time fair queuing order: each
+ * transfer is a flow weighted by its priority class, so that concurrent transfers progress at the same pace, and small
+ * transfers get a larger share to complete quickly under contention (without starving the large ones).
+ * Shaped download bodies are never served through sendfile, as the container would then write them itself.
+ * When no limit is configured, streams and resources are returned as is.
+ */
+@Slf4j
+@Component
+public class TransferShaper {
+
+    private static final int QUANTUM = 64 * 1024;
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final Duration CLIENT_IDLE_TIMEOUT = Duration.ofMinutes(1);
+
+    private final long globalBytesPerSecond;
+
+    private final long clientBytesPerSecond;
+
+    private final long smallTransferSize;
+
+    private final int smallTransferWeight;
+
+    private final Cache<String, AtomicLong> clientReservations = Caffeine.newBuilder()
+            .expireAfterAccess(CLIENT_IDLE_TIMEOUT)
+            .build();
+
+    /**
+     * Quanta waiting for the global bandwidth, in service order. Guarded by queueLock, as are virtualTime and nextSequence.
+     */
+    private final PriorityQueue<Grant> pendingGrants = new PriorityQueue<>(Comparator.comparingDouble(Grant::startTag).thenComparingLong(Grant::sequence));
+
+    private final ReentrantLock queueLock = new ReentrantLock();
+
+    private final Condition grantPending = queueLock.newCondition();
+
+    private double virtualTime;
+
+    private long nextSequence;
+
+    private Thread dispatcherThread;
+
+    public TransferShaper(HashTransferProperties hashTransferProperties) {
+        this.globalBytesPerSecond = hashTransferProperties.getMaxNetworkBandwidth().toBytes();
+        this.clientBytesPerSecond = hashTransferProperties.getMaxClientBandwidth().toBytes();
+        this.smallTransferSize = hashTransferProperties.getSmallTransferSize().toBytes();
+        this.smallTransferWeight = Math.max(hashTransferProperties.getSmallTransferWeight(), 1);
+    }
+
+    @PostConstruct
+    public void startDispatcher() {
+        if (globalBytesPerSecond > 0) {
+            dispatcherThread = Thread.ofPlatform().daemon().name("transfer-shaper").start(this::Dispatch);
+        }
+    }
+
+    @PreDestroy
+    public void stopDispatcher() {
+        if (dispatcherThread != null) {
+            dispatcherThread.interrupt();
+        }
+    }
+
+    public boolean isEnabled() {
+        return globalBytesPerSecond > 0 || clientBytesPerSecond > 0;
+    }
+
+    /**
+     * Shape a transfer read from an InputStream (typically an upload body).
+     * @param inputStream The InputStream to shape.
+     * @param client The client of the transfer (its remote address).
+     * @param size The size of the transfer, or a negative value if it is unknown.
+     * @return The shaped InputStream.
+     */
+    public InputStream shape(InputStream inputStream, String client, long size) {
+        if (!isEnabled()) {
+            return inputStream;
+        }
+        ShapedTransfer transfer = new ShapedTransfer(client, size);
+        return new FilterInputStream(inputStream) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    transfer.consume(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte @NonNull [] bytes, int offset, int length) throws IOException {
+                int n = super.read(bytes, offset, Math.min(length, QUANTUM));
+                if (n > 0) {
+                    transfer.consume(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    /**
+     * Shape a transfer read from a Resource (typically a download body).
+     * A shaped resource does not expose its file, so that it is never served through sendfile.
+     * @param resource The Resource to shape.
+     * @param client The client of the transfer (its remote address).
+     * @return The shaped Resource.
+     */
+    public Resource shape(Resource resource, String client) throws IOException {
+        if (!isEnabled()) {
+            return resource;
+        }
+        long size = resource.contentLength();
+        return new AbstractResource() {
+            @Override
+            public @NonNull String getDescription() {
+                return resource.getDescription();
+            }
+
+            @Override
+            public String getFilename() {
+                return resource.getFilename();
+            }
+
+            @Override
+            public boolean exists() {
+                return resource.exists();
+            }
+
+            @Override
+            public long contentLength() {
+                return size;
+            }
+
+            @Override
+            public long lastModified() throws IOException {
+                return resource.lastModified();
+            }
+
+            @Override
+            public @NonNull InputStream getInputStream() throws IOException {
+                return shape(resource.getInputStream(), client, size);
+            }
+        };
+    }
+
+    /**
+     * Reserve the time a number of bytes take at a given rate, on a timeline that credits idle time up to a short burst.
+     * @return The time to wait until the reservation ends, in nanoseconds.
+     */
+    private static long Reserve(AtomicLong reservedUntilNanos, long bytes, long bytesPerSecond) {
+        long costNanos = bytes * NANOS_PER_SECOND / bytesPerSecond;
+        long now = System.nanoTime();
+        return reservedUntilNanos.accumulateAndGet(costNanos, (previous, cost) -> Math.max(previous, now - BURST_NANOS) + cost) - now;
+    }
+
+    private static void Sleep(long nanos) throws InterruptedException {
+        if (nanos > 0) {
+            Thread.sleep(Duration.ofNanos(nanos));
+        }
+    }
+
+    /**
+     * Hand out the global bandwidth: grant the pending quanta in fair queuing order, waiting after each one for the time its bytes take.
+     */
+    private void Dispatch() {
+        AtomicLong reservedUntilNanos = new AtomicLong(System.nanoTime());
+        try {
+            while (true) {
+                Grant grant;
+                queueLock.lock();
+                try {
+                    while (pendingGrants.isEmpty()) {
+                        grantPending.await();
+                    }
+                    grant = pendingGrants.poll();
+                    virtualTime = grant.startTag();
+                } finally {
+                    queueLock.unlock();
+                }
+                grant.granted().countDown();
+                Sleep(Reserve(reservedUntilNanos, grant.bytes(), globalBytesPerSecond));
+            }
+        } catch (InterruptedException _) {
+            log.debug("Transfer shaper dispatcher stopped");
+        }
+    }
+
+    /**
+     * A quantum waiting for the global bandwidth.
+     * @param startTag The virtual time at which the quantum starts, in the fair queuing order.
+     * @param sequence The arrival order, to break ties.
+     * @param bytes The number of bytes of the quantum.
+     * @param granted Released once the quantum is granted.
+     */
+    private record Grant(double startTag, long sequence, long bytes, CountDownLatch granted) {}
+
+    /**
+     * A shaped transfer, i.e. a flow of the fair queuing. Not thread-safe: a transfer is read by a single thread.
+     */
+    private final class ShapedTransfer {
+
+        private final AtomicLong clientReservedUntilNanos;
+
+        private final int weight;
+
+        /**
+         * Virtual time at which the last quantum of the flow finishes. Guarded by queueLock.
+         */
+        private double finishTag;
+
+        private int unaccountedBytes;
+
+        private ShapedTransfer(String client, long size) {
+            this.clientReservedUntilNanos = clientBytesPerSecond > 0 ? clientReservations.get(client, _ -> new AtomicLong(System.nanoTime())) : null;
+            this.weight = size >= 0 && size < smallTransferSize ? smallTransferWeight : 1;
+        }
+
+        private void consume(int byteCount) throws InterruptedIOException {
+            unaccountedBytes += byteCount;
+            if (unaccountedBytes < QUANTUM) {
+                return;
+            }
+            int bytes = unaccountedBytes;
+            unaccountedBytes = 0;
+            try {
+                if (clientReservedUntilNanos != null) {
+                    Sleep(Reserve(clientReservedUntilNanos, bytes, clientBytesPerSecond));
+                }
+                if (globalBytesPerSecond > 0) {
+                    AwaitGrant(bytes);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for network bandwidth");
+            }
+        }
+
+        private void AwaitGrant(int bytes) throws InterruptedException {
+            Grant grant;
+            queueLock.lock();
+            try {
+                double startTag = Math.max(virtualTime, finishTag);
+                finishTag = startTag + (double) bytes / weight;
+                grant = new Grant(startTag, nextSequence++, bytes, new CountDownLatch(1));
+                pendingGrants.add(grant);
+                grantPending.signal();
+            } finally {
+                queueLock.unlock();
+            }
+            grant.granted().await();
+        }
+    }
+}
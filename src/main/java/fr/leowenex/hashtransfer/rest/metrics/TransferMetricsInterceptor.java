@@ -0,0 +1,83 @@
+package fr.leowenex.hashtransfer.rest.metrics;
+
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import fr.leowenex.hashtransfer.rest.limit.LimitedTransfer;
+import fr.leowenex.hashtransfer.util.SendfileUtils;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.jspecify.annotations.NonNull;
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+/**
+ * Records the size, duration and throughput of the uploads and downloads (handlers annotated with {@link LimitedTransfer}),
+ * and keeps the active transfer gauges.
+ * <p>
+ * Registered after the transfer limits, so that only the transfers holding a slot are counted as active.
+ * The size of a body is taken from its Content-Length: bodies without one (chunked) are not recorded.
+ * Downloads handed to the container sendfile support are recorded without a duration, as they are sent after the
+ * request thread returns.
+ */
+@Component
+@RequiredArgsConstructor
+public class TransferMetricsInterceptor implements HandlerInterceptor {
+
+    private static final String TRANSFER_START_ATTRIBUTE = TransferMetricsInterceptor.class.getName() + ".transferStart";
+
+    private final HashTransferMetrics hashTransferMetrics;
+
+    @Override
+    public boolean preHandle(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler) {
+        String direction = GetDirection(handler);
+        if (direction != null) {
+            hashTransferMetrics.transferStarted(direction);
+            request.setAttribute(TRANSFER_START_ATTRIBUTE, System.nanoTime());
+        }
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(@NonNull HttpServletRequest request, @NonNull HttpServletResponse response, @NonNull Object handler, Exception ex) {
+        if (!(request.getAttribute(TRANSFER_START_ATTRIBUTE) instanceof Long transferStart)) {
+            return;
+        }
+        request.removeAttribute(TRANSFER_START_ATTRIBUTE);
+        long durationNanos = System.nanoTime() - transferStart;
+
+        String direction = GetDirection(handler);
+        hashTransferMetrics.transferEnded(direction);
+        if (ex != null || response.getStatus() >= 400) {
+            return;
+        }
+
+        long bytes;
+        if (HashTransferMetrics.UPLOAD_DIRECTION.equals(direction)) {
+            bytes = request.getContentLengthLong();
+        } else {
+            String contentLength = response.getHeader(HttpHeaders.CONTENT_LENGTH);
+            bytes = contentLength != null ? Long.parseLong(contentLength) : -1;
+        }
+        if (bytes < 0) {
+            return;
+        }
+        boolean sentWithSendfile = request.getAttribute(SendfileUtils.SENDFILE_FILENAME_ATTRIBUTE) != null;
+        hashTransferMetrics.recordTransfer(direction, bytes, sentWithSendfile ? -1 : durationNanos);
+    }
+
+    private static String GetDirection(Object handler) {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return null;
+        }
+        LimitedTransfer limitedTransfer = handlerMethod.getMethodAnnotation(LimitedTransfer.class);
+        if (limitedTransfer == null) {
+            return null;
+        }
+        return switch (limitedTransfer.value()) {
+            case UPLOAD -> HashTransferMetrics.UPLOAD_DIRECTION;
+            case DOWNLOAD -> HashTransferMetrics.DOWNLOAD_DIRECTION;
+        };
+    }
+}
@@ -0,0 +1,420 @@
+package fr.leowenex.hashtransfer.rest.reactive;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.dto.FileDownloadResponse;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.exception.DataAccessException;
+import fr.leowenex.hashtransfer.exception.DigestNotMatchingException;
+import fr.leowenex.hashtransfer.exception.InvalidFilePathException;
+import fr.leowenex.hashtransfer.exception.StorageQuotaExceededException;
+import fr.leowenex.hashtransfer.exception.UnreadableMetadataException;
+import fr.leowenex.hashtransfer.rest.exception.ErrorObject;
+import fr.leowenex.hashtransfer.service.FileService;
+import fr.leowenex.hashtransfer.service.LocalStorageFileUtils;
+import fr.leowenex.hashtransfer.service.StorageQuota;
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import fr.leowenex.hashtransfer.util.DownloadHeaderUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.multipart.FilePartEvent;
+import org.springframework.http.codec.multipart.FormPartEvent;
+import org.springframework.http.codec.multipart.PartEvent;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * Handlers of the reactive transfer engine, the non-blocking counterpart of FileTransferController on WebFlux/Netty.
+ * <p>
+ * Request bodies are written to a receive directory (in the upload session directory) through an AsynchronousFileChannel,
+ * one DataBuffer at a time as the client sends them, while their digests are updated. The received file is then imported
+ * into the storage (as is, like a completed upload session: it is not stored compressed). Downloads of stored files are written by Netty from the file itself (zero-copy, through
+ * ZeroCopyHttpOutputMessage), other contents (decompressed, cached in memory, or read under the disk bandwidth limit)
+ * are streamed. The storage calls themselves are blocking, and run on the bounded elastic scheduler.
+ * Memory use per connection is bounded by the backpressure: a slow client only holds its connection and a buffer.
+ * <p>
+ * Uploads reserve their Content-Length against the storage quotas before their body is read, as with the servlet engine.
+ * The transfer limits (concurrency slots and bandwidth shaping) and the transfer metrics are only applied by the servlet engine.
+ */
+@Slf4j
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveFileTransferHandler {
+
+    private static final String RECEIVED_FILE_NAME = "received.data";
+    private static final int DOWNLOAD_BUFFER_SIZE = 64 * 1024;
+
+    private final FileService fileService;
+
+    private final HashTransferProperties hashTransferProperties;
+
+    private final StorageQuota storageQuota;
+
+    /**
+     * Download a file, with the same conditional requests, ranges, content encodings and Content-Digest as the servlet engine.
+     * Ranges are only applied to the contents served from their file: the others are sent whole.
+     */
+    public Mono<@NonNull ServerResponse> downloadFile(ServerRequest request) {
+        String fileId = request.pathVariable("fileId");
+        boolean displayInBrowser = request.queryParam("dib").map(Boolean::parseBoolean).orElse(false);
+        HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+        List<String> acceptedContentEncodings = DownloadHeaderUtils.parseAcceptEncoding(requestHeaders.getFirst(HttpHeaders.ACCEPT_ENCODING));
+
+        return Blocking(() -> fileService.downloadFile(fileId, acceptedContentEncodings)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found")))
+                .flatMap(downloadResponse -> {
+                    String eTag = DownloadHeaderUtils.toETag(downloadResponse.fileData().sha256(), downloadResponse.contentEncoding());
+                    return request.checkNotModified(eTag)
+                            .switchIfEmpty(Mono.defer(() -> WriteDownload(request, downloadResponse, eTag, displayInBrowser)));
+                });
+    }
+
+    private Mono<@NonNull ServerResponse> WriteDownload(ServerRequest request, FileDownloadResponse downloadResponse, String eTag, boolean displayInBrowser) {
+        Resource fileResource = downloadResponse.fileResource();
+        FileData fileData = downloadResponse.fileData();
+        String contentEncoding = downloadResponse.contentEncoding();
+        HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+
+        String range = requestHeaders.getFirst(HttpHeaders.RANGE);
+        String ifRange = requestHeaders.getFirst(HttpHeaders.IF_RANGE);
+        // An outdated partial copy (If-Range) gets the whole file
+        boolean streamed = !fileResource.isFile() || (range != null && ifRange != null && !ifRange.equals(eTag));
+        boolean sendContentDigest = contentEncoding == null && (range == null || streamed);
+
+        ServerResponse.BodyBuilder responseBuilder = ServerResponse.ok().headers(headers -> {
+            ContentDisposition contentDisposition = displayInBrowser
+                    ? ContentDisposition.inline().filename(fileData.filename()).build()
+                    : ContentDisposition.attachment().filename(fileData.filename()).build();
+            headers.setContentDisposition(contentDisposition);
+            headers.setContentType(downloadResponse.mediaType());
+            headers.setETag(eTag);
+            headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+            if (fileData.contentEncoding() != null) {
+                headers.setVary(List.of(HttpHeaders.ACCEPT_ENCODING));
+            }
+            if (contentEncoding != null) {
+                headers.set(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+            }
+            if (sendContentDigest) {
+                headers.add(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER, DownloadHeaderUtils.toContentDigest(fileData, requestHeaders.getFirst(ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER)));
+            }
+        });
+
+        if (!streamed) {
+            // The Resource writer answers ranges (206, multipart/byteranges or 416), and hands the file to Netty for zero-copy
+            return responseBuilder.body(BodyInserters.fromResource(fileResource));
+        }
+
+        try {
+            responseBuilder.contentLength(fileResource.contentLength());
+        } catch (IOException e) {
+            return Mono.error(new DataAccessException("Could not read file: " + e.getMessage()));
+        }
+        Flux<DataBuffer> content = DataBufferUtils.readInputStream(fileResource::getInputStream, request.exchange().getResponse().bufferFactory(), DOWNLOAD_BUFFER_SIZE)
+                .subscribeOn(Schedulers.boundedElastic());
+        return responseBuilder.body(content, DataBuffer.class);
+    }
+
+    public Mono<@NonNull ServerResponse> getFileData(ServerRequest request) {
+        String fileId = request.pathVariable("fileId");
+        return Blocking(() -> fileService.queryFileData(fileId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "File not found")))
+                .flatMap(fileData -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileData));
+    }
+
+    public Mono<@NonNull ServerResponse> getTreeHash(ServerRequest request) {
+        String fileId = request.pathVariable("fileId");
+        return Blocking(() -> fileService.queryTreeHash(fileId)
+                        .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Tree hash not found")))
+                .flatMap(treeHash -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(treeHash));
+    }
+
+    public Mono<@NonNull ServerResponse> getFileDataBatch(ServerRequest request) {
+        return request.bodyToMono(new ParameterizedTypeReference<List<String>>() {})
+                .flatMap(fileIds -> {
+                    if (fileIds.size() > hashTransferProperties.getMaxBatchSize()) {
+                        return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Too many files in the batch (max " + hashTransferProperties.getMaxBatchSize() + ")"));
+                    }
+                    return Blocking(() -> fileService.queryFileData(fileIds));
+                })
+                .flatMap(fileDataById -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileDataById));
+    }
+
+    /**
+     * Upload a file from the raw request body, as PUT /api/file/{fileName} of the servlet engine.
+     */
+    public Mono<@NonNull ServerResponse> uploadFileStream(ServerRequest request) {
+        String fileName = request.pathVariable("fileName");
+        String contentType = request.queryParam("contentType").orElse(null);
+        HttpHeaders requestHeaders = request.headers().asHttpHeaders();
+
+        long maxUploadSize = hashTransferProperties.getMaxUploadSize().toBytes();
+        if (requestHeaders.getContentLength() > maxUploadSize) {
+            return Mono.error(new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size"));
+        }
+
+        Map<String, String> expectedDigests;
+        try {
+            expectedDigests = ContentDigestHeaderUtils.parseContentDigestHeader(requestHeaders.getFirst(ContentDigestHeaderUtils.CONTENT_DIGEST_HEADER));
+        } catch (IllegalArgumentException e) {
+            return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Invalid Content-Digest header: " + e.getMessage()));
+        }
+        List<String> wantedDigestAlgorithms = ContentDigestHeaderUtils.parseWantContentDigestHeader(requestHeaders.getFirst(ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER));
+
+        String owner = GetOwner(request);
+
+        // Known content is not read at all: with "Expect: 100-continue", the client does not even send the body
+        Mono<FileUploadResponse> uploadResponse = WithReservation(owner, requestHeaders.getContentLength(), reservation ->
+                Blocking(() -> fileService.uploadExistingFile(fileName, contentType, expectedDigests, wantedDigestAlgorithms, owner))
+                        .flatMap(existingFileResponse -> existingFileResponse.map(Mono::just).orElseGet(() -> Mono.usingWhen(
+                                CreateReceiveDirectory(),
+                                receiveDirectoryPath -> {
+                                    Path receivedFilePath = receiveDirectoryPath.resolve(RECEIVED_FILE_NAME);
+                                    return ReceiveFile(request.body(BodyExtractors.toDataBuffers()), receivedFilePath, ResolveDigestAlgorithms(expectedDigests.keySet(), wantedDigestAlgorithms), maxUploadSize, reservation)
+                                            .flatMap(computedDigests -> Blocking(() -> fileService.importFile(fileName, contentType, expectedDigests, computedDigests, receivedFilePath, owner)));
+                                },
+                                this::DeleteReceiveDirectory))));
+
+        return uploadResponse.flatMap(response -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response));
+    }
+
+    /**
+     * Upload a file from a multipart body, as POST /api/file of the servlet engine: a "file" part, and an optional
+     * "sha256" part with its expected SHA-256 (which may come after the file).
+     * The parts are read as a stream of events, so that the file is never spooled to a temp file by the multipart reader.
+     */
+    public Mono<@NonNull ServerResponse> uploadFile(ServerRequest request) {
+        long maxUploadSize = hashTransferProperties.getMaxUploadSize().toBytes();
+        List<String> wantedDigestAlgorithms = ContentDigestHeaderUtils.parseWantContentDigestHeader(request.headers().firstHeader(ContentDigestHeaderUtils.WANT_CONTENT_DIGEST_HEADER));
+        Set<String> digestAlgorithms = ResolveDigestAlgorithms(Set.of(), wantedDigestAlgorithms);
+        String owner = GetOwner(request);
+
+        Mono<FileUploadResponse> uploadResponse = WithReservation(owner, request.headers().contentLength().orElse(0), reservation -> Mono.usingWhen(
+                CreateReceiveDirectory(),
+                receiveDirectoryPath -> {
+                    Path receivedFilePath = receiveDirectoryPath.resolve(RECEIVED_FILE_NAME);
+                    Map<String, String> formFields = new ConcurrentHashMap<>();
+                    AtomicReference<ReceivedFile> receivedFile = new AtomicReference<>();
+
+                    return request.bodyToFlux(PartEvent.class)
+                            .windowUntil(PartEvent::isLast)
+                            .concatMap(partEvents -> partEvents.switchOnFirst((signal, events) -> {
+                                if (signal.get() instanceof FilePartEvent filePartEvent && "file".equals(filePartEvent.name()) && receivedFile.get() == null) {
+                                    String contentType = filePartEvent.headers().getContentType() != null ? filePartEvent.headers().getContentType().toString() : null;
+                                    return ReceiveFile(events.map(PartEvent::content), receivedFilePath, digestAlgorithms, maxUploadSize, reservation)
+                                            .doOnNext(computedDigests -> receivedFile.set(new ReceivedFile(filePartEvent.filename(), contentType, computedDigests)))
+                                            .then();
+                                }
+                                if (signal.get() instanceof FormPartEvent formPartEvent) {
+                                    formFields.put(formPartEvent.name(), formPartEvent.value());
+                                }
+                                // Other parts are ignored, but their content must still be consumed
+                                return events.doOnNext(event -> DataBufferUtils.release(event.content())).then();
+                            }))
+                            .then(Mono.defer(() -> {
+                                ReceivedFile file = receivedFile.get();
+                                if (file == null) {
+                                    return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "Required part 'file' is not present"));
+                                }
+                                if (ObjectUtils.isEmpty(file.fileName())) {
+                                    return Mono.error(new ResponseStatusException(HttpStatus.BAD_REQUEST, "File must have a filename"));
+                                }
+                                String sha256 = formFields.get("sha256");
+                                Map<String, String> expectedDigests = ObjectUtils.isEmpty(sha256) ? Map.of() : Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, sha256);
+                                return Blocking(() -> fileService.importFile(file.fileName(), file.contentType(), expectedDigests, file.computedDigests(), receivedFilePath, owner));
+                            }));
+                },
+                this::DeleteReceiveDirectory));
+
+        return uploadResponse.flatMap(response -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(response));
+    }
+
+    /**
+     * Write a body to a file through an AsynchronousFileChannel, updating its digests on the way.
+     * The body is read one buffer at a time, as fast as the file is written: it is never held in memory.
+     * @param content The body.
+     * @param receivedFilePath The path of the file to create.
+     * @param digestAlgorithms The algorithms of the digests to compute.
+     * @param maxUploadSize The maximum size of the body, past which the upload is rejected.
+     * @param reservation The reservation of the upload, extended if the body goes past it.
+     * @return The computed digests as lowercase hex strings, by algorithm, once the body is written.
+     */
+    private static Mono<Map<String, String>> ReceiveFile(Flux<DataBuffer> content, Path receivedFilePath, Set<String> digestAlgorithms, long maxUploadSize, StorageQuota.Reservation reservation) {
+        return Mono.defer(() -> {
+            Map<String, MessageDigest> messageDigests = ContentDigestHeaderUtils.createMessageDigests(digestAlgorithms);
+            AtomicLong receivedBytes = new AtomicLong();
+
+            Flux<DataBuffer> digestedContent = content.doOnNext(dataBuffer -> {
+                long received = receivedBytes.addAndGet(dataBuffer.readableByteCount());
+                if (received > maxUploadSize) {
+                    DataBufferUtils.release(dataBuffer);
+                    throw new ResponseStatusException(HttpStatus.CONTENT_TOO_LARGE, "File exceeds the maximum upload size");
+                }
+                try {
+                    reservation.cover(received);
+                } catch (StorageQuotaExceededException e) {
+                    DataBufferUtils.release(dataBuffer);
+                    throw e;
+                }
+                try (DataBuffer.ByteBufferIterator byteBuffers = dataBuffer.readableByteBuffers()) {
+                    byteBuffers.forEachRemaining(byteBuffer -> messageDigests.values().forEach(messageDigest -> messageDigest.update(byteBuffer.duplicate())));
+                }
+            });
+
+            return DataBufferUtils.write(digestedContent, receivedFilePath, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+                    .then(Mono.fromSupplier(() -> ContentDigestHeaderUtils.formatHexDigests(messageDigests)));
+        });
+    }
+
+    /**
+     * Get the digest algorithms to compute for an upload: SHA-256, the configured algorithms, and the ones expected or wanted by the client.
+     */
+    private Set<String> ResolveDigestAlgorithms(Collection<String> expectedDigestAlgorithms, Collection<String> wantedDigestAlgorithms) {
+        Set<String> digestAlgorithms = new TreeSet<>(hashTransferProperties.getContentDigestAlgorithms());
+        digestAlgorithms.add(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+        digestAlgorithms.addAll(expectedDigestAlgorithms);
+        digestAlgorithms.addAll(wantedDigestAlgorithms);
+        digestAlgorithms.removeIf(algorithm -> !ContentDigestHeaderUtils.isSupportedAlgorithm(algorithm));
+        return digestAlgorithms;
+    }
+
+    /**
+     * Run an upload under a reservation of its Content-Length against the storage quotas, released once it is done.
+     * The reservation is taken before the body is read, so that an upload that does not fit is rejected without receiving it.
+     * @param owner The client the upload is accounted to.
+     * @param contentLength The Content-Length of the request, or a negative value if it is unknown.
+     * @param upload The upload.
+     */
+    private <T> Mono<T> WithReservation(String owner, long contentLength, Function<StorageQuota.Reservation, Mono<T>> upload) {
+        return Mono.usingWhen(
+                Blocking(() -> storageQuota.reserve(owner, Math.max(contentLength, 0))),
+                upload,
+                reservation -> Mono.fromRunnable(reservation::close));
+    }
+
+    /**
+     * Get the client an upload is accounted to: its remote address, as with the servlet engine.
+     */
+    private static String GetOwner(ServerRequest request) {
+        return request.remoteAddress()
+                .map(address -> address.getAddress() != null ? address.getAddress().getHostAddress() : address.getHostString())
+                .orElse(null);
+    }
+
+    /**
+     * Create a receive directory in the upload session directory, so that the received file can be moved to the storage
+     * without copy. A directory left behind by a crash is purged with the expired upload sessions.
+     */
+    private Mono<Path> CreateReceiveDirectory() {
+        return Blocking(() -> {
+            Path sessionStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getUploadSessionDirectory());
+            try {
+                return Files.createDirectory(sessionStorageDirectoryPath.resolve(UUID.randomUUID().toString()));
+            } catch (IOException e) {
+                log.error("Error creating receive directory: {}", e.getMessage());
+                throw new DataAccessException("Could not create receive directory: " + e.getMessage());
+            }
+        });
+    }
+
+    private Mono<Void> DeleteReceiveDirectory(Path receiveDirectoryPath) {
+        return Mono.fromRunnable(() -> {
+            try {
+                FileUtils.deleteDirectory(receiveDirectoryPath.toFile());
+            } catch (IOException e) {
+                log.error("Error deleting receive directory: {}", receiveDirectoryPath, e);
+            }
+        }).subscribeOn(Schedulers.boundedElastic()).then();
+    }
+
+    /**
+     * Run a blocking storage call off the event loop.
+     */
+    private static <T> Mono<T> Blocking(Callable<T> callable) {
+        return Mono.fromCallable(callable).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    /**
+     * Map the errors of the handlers to an ErrorObject response, as HashTransferExceptionHandler does for the servlet engine.
+     * Other errors are left to the default error handling.
+     */
+    public Mono<@NonNull ServerResponse> handleError(Throwable throwable, ServerRequest request) {
+        HttpStatus status;
+        String error;
+        switch (throwable) {
+            case ResponseStatusException e -> {
+                status = HttpStatus.valueOf(e.getStatusCode().value());
+                error = e.getReason() != null ? e.getReason() : "Error";
+            }
+            case DataAccessException e -> {
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+                error = e.getMessage();
+            }
+            case DigestNotMatchingException e -> {
+                status = HttpStatus.EXPECTATION_FAILED;
+                error = e.getMessage();
+            }
+            case InvalidFilePathException e -> {
+                status = HttpStatus.BAD_REQUEST;
+                error = e.getMessage();
+            }
+            case StorageQuotaExceededException e -> {
+                status = HttpStatus.INSUFFICIENT_STORAGE;
+                error = e.getMessage();
+            }
+            case UnreadableMetadataException e -> {
+                status = HttpStatus.INTERNAL_SERVER_ERROR;
+                error = "Unreadable file metadata: " + e.getMessage();
+            }
+            default -> {
+                return Mono.error(throwable);
+            }
+        }
+        return ServerResponse.status(status).contentType(MediaType.APPLICATION_JSON).bodyValue(ErrorObject.of(status, error, request.path()));
+    }
+
+    /**
+     * The file part of a multipart upload, once received.
+     * @param fileName The original name of the file.
+     * @param contentType The MIME type of the file, or null.
+     * @param computedDigests The digests of the received content, by algorithm.
+     */
+    private record ReceivedFile(String fileName, String contentType, Map<String, String> computedDigests) {}
+}
@@ -0,0 +1,35 @@
+package fr.leowenex.hashtransfer.rest.reactive;
+
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.server.RequestPredicates;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+/**
+ * Routes of the reactive transfer engine, selected with "spring.main.web-application-type: reactive".
+ * The file transfers and queries of /api/file are served; the batch uploads, archives and upload sessions are only
+ * available with the servlet engine.
+ */
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveTransferRoutes {
+
+    @Bean
+    public RouterFunction<@NonNull ServerResponse> fileTransferRoutes(ReactiveFileTransferHandler handler) {
+        return RouterFunctions.route()
+                .path("/api/file", builder -> builder
+                        .GET("/{fileId}/download", handler::downloadFile)
+                        .GET("/{fileId}/treehash", handler::getTreeHash)
+                        .GET("/{fileId}", handler::getFileData)
+                        .POST("/_batch", RequestPredicates.contentType(MediaType.APPLICATION_JSON), handler::getFileDataBatch)
+                        .POST("", RequestPredicates.contentType(MediaType.MULTIPART_FORM_DATA), handler::uploadFile)
+                        .PUT("/{fileName}", RequestPredicates.contentType(MediaType.APPLICATION_OCTET_STREAM), handler::uploadFileStream))
+                .onError(_ -> true, handler::handleError)
+                .build();
+    }
+}
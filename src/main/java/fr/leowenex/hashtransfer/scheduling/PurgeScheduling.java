@@ -1,6 +1,7 @@
 package fr.leowenex.hashtransfer.scheduling;
 
 import fr.leowenex.hashtransfer.service.FileService;
+import fr.leowenex.hashtransfer.service.UploadSessionService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.scheduling.annotation.EnableScheduling;
@@ -15,8 +16,11 @@ public class PurgeScheduling {
 
     private final FileService fileService;
 
+    private final UploadSessionService uploadSessionService;
+
     @Scheduled(cron = "${hashtransfer.expiration-check-cron}")
     public void purgeExpiredFiles() {
         fileService.purgeExpiredFiles();
+        uploadSessionService.purgeExpiredSessions();
     }
 }
@@ -0,0 +1,40 @@
+package fr.leowenex.hashtransfer.scheduling;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.service.FileService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Readiness gate: the transfer paths are warmed up once the application is started, before it reports itself ready.
+ * <p>
+ * Application runners are called before the application is ready, so the readiness probe (/actuator/health/readiness)
+ * keeps answering OUT_OF_SERVICE until the warm-up is over, and a load balancer following it only sends traffic to a
+ * warm replica. The server itself already accepts requests during the warm-up.
+ * When no warm-up size is configured, the application is ready as soon as it is started.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StartupWarmUp implements ApplicationRunner {
+
+    private final FileService fileService;
+
+    private final HashTransferProperties hashTransferProperties;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        long warmUpSize = hashTransferProperties.getWarmUpSize().toBytes();
+        if (warmUpSize <= 0) {
+            return;
+        }
+        long start = System.nanoTime();
+        fileService.warmUp(warmUpSize);
+        log.info("Warmed up the transfer paths with {} bytes in {} ms", warmUpSize, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+}
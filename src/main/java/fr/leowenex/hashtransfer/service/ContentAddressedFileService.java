@@ -0,0 +1,200 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.exception.DataAccessException;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ObjectUtils;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Deduplicating variant of the local storage.
+ * <p>
+ * Each distinct content is stored once, as a blob named after its SHA-256 (and its encoding, if stored compressed) in a
+ * reserved blob directory.
+ * The file directories keep their usual layout, but their file is a hard link to the blob: the link count of a blob
+ * is its reference count, and a blob whose only remaining link is its own name is reclaimed by the purge.
+ * The blob directory must therefore be on the same filesystem as the file directories.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "hashtransfer", name = "storage-layout", havingValue = "content-addressed")
+public class ContentAddressedFileService extends LocalStorageFileService {
+
+    private static final String BLOB_DIRECTORY_NAME = RESERVED_DIRECTORY_PREFIX + "blobs";
+    private static final String LINK_COUNT_ATTRIBUTE = "unix:nlink";
+    private static final Pattern SHA256_PATTERN = Pattern.compile("[0-9a-f]{64}");
+
+    private Path blobStorageDirectoryPath;
+
+    public ContentAddressedFileService(HashTransferProperties hashTransferProperties, ObjectMapper objectMapper, FileMetadataIndex fileMetadataIndex, FileExpiryIndex fileExpiryIndex, DiskBandwidthLimiter diskBandwidthLimiter, TreeHasher treeHasher, StorageCompressor storageCompressor, StorageUsage storageUsage, HashTransferMetrics hashTransferMetrics, HotFileCache hotFileCache) {
+        super(hashTransferProperties, objectMapper, fileMetadataIndex, fileExpiryIndex, diskBandwidthLimiter, treeHasher, storageCompressor, storageUsage, hashTransferMetrics, hotFileCache);
+    }
+
+    @PostConstruct
+    public void initBlobStorage() {
+        if (!fileStorageDirectoryPath.getFileSystem().supportedFileAttributeViews().contains("unix")) {
+            throw new IllegalStateException("The content-addressed storage layout requires a filesystem exposing hard link counts");
+        }
+        blobStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(fileStorageDirectoryPath.resolve(BLOB_DIRECTORY_NAME).toString());
+        reclaimUnreferencedBlobs();
+    }
+
+    /**
+     * Get the path of the blob of a given content.
+     * @param sha256 The SHA-256 checksum of the content (lowercase hex).
+     * @param contentEncoding The encoding the content is stored with, or null if it is stored as is.
+     * @return The path to the blob.
+     */
+    private Path GetBlobPath(String sha256, String contentEncoding) {
+        String blobName = contentEncoding != null ? sha256 + "." + contentEncoding : sha256;
+        return blobStorageDirectoryPath.resolve(sha256.substring(0, 2)).resolve(blobName);
+    }
+
+    private static int GetLinkCount(Path path) throws IOException {
+        return (Integer) Files.getAttribute(path, LINK_COUNT_ATTRIBUTE);
+    }
+
+    /**
+     * Make a freshly stored file share the blob of its content.
+     * If no blob exists yet, the file itself becomes the blob. Otherwise, the file is replaced by a link to the existing blob.
+     * The file directory always holds a link to valid content, whatever the concurrent purges do.
+     */
+    @Override
+    protected void OnFileStored(Path uploadedFilePath, String sha256, String contentEncoding) {
+        Path blobPath = GetBlobPath(sha256, contentEncoding);
+        try {
+            Files.createDirectories(blobPath.getParent());
+            try {
+                Files.createLink(blobPath, uploadedFilePath);
+                log.debug("Stored new blob: sha256={}", sha256);
+                return;
+            } catch (FileAlreadyExistsException _) {
+                // Content already stored, deduplicated below
+            }
+
+            Path linkPath = uploadedFilePath.resolveSibling(uploadedFilePath.getFileName() + ".link");
+            try {
+                Files.createLink(linkPath, blobPath);
+            } catch (NoSuchFileException _) {
+                // The blob was reclaimed in the meantime, the file keeps its own copy
+                return;
+            }
+            Files.move(linkPath, uploadedFilePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            log.debug("Deduplicated uploaded file: sha256={}", sha256);
+        } catch (IOException e) {
+            log.error("Error while linking uploaded file to its blob: {}", e.getMessage());
+            throw new DataAccessException("Could not store uploaded file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Create a file from an existing blob, without receiving its content.
+     * Only SHA-256 is known for a blob: if other digests are expected, wanted or configured, the content must be uploaded.
+     * Only uncompressed blobs are linked, as the size of the content is not known for the others.
+     * Note that anyone knowing the SHA-256 of a stored content can get a download link for it.
+     * @param fileName The original name of the file.
+     * @param contentType The MIME type of the file.
+     * @param expectedDigests The digests of the file provided by caller, by algorithm.
+     * @param wantedDigestAlgorithms The algorithms of the digests to compute and store.
+     * @param owner The client the file is accounted to for the storage quotas, or null if it has none.
+     * @return An Optional containing the FileUploadResponse if the blob exists, or empty if the content must be uploaded.
+     */
+    @Override
+    public Optional<FileUploadResponse> uploadExistingFile(String fileName, String contentType, Map<String, String> expectedDigests, Collection<String> wantedDigestAlgorithms, String owner) {
+
+        String sha256 = expectedDigests.get(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+        if (ObjectUtils.isEmpty(sha256) || !SHA256_PATTERN.matcher(sha256).matches()) {
+            return Optional.empty();
+        }
+        if (!ResolveDigestAlgorithms(expectedDigests, wantedDigestAlgorithms).equals(Set.of(ContentDigestHeaderUtils.SHA256_ALGORITHM))) {
+            return Optional.empty();
+        }
+
+        Path blobPath = GetBlobPath(sha256, null);
+        if (!Files.exists(blobPath)) {
+            return Optional.empty();
+        }
+
+        log.debug("Creating file from existing blob: originalFilename={}, sha256={}", fileName, sha256);
+
+        CheckReservedFileName(fileName);
+
+        String fileId = UUID.randomUUID().toString();
+        Instant expiresAt = ComputeExpiration();
+        Path stagedFileDirectoryPath = CreateStagingDirectory(fileId);
+        try {
+            Path uploadedFilePath = LocalStorageFileUtils.GetUploadedFilePath(stagedFileDirectoryPath, fileName);
+            long size;
+            try {
+                Files.createLink(uploadedFilePath, blobPath);
+                size = Files.size(uploadedFilePath);
+            } catch (IOException e) {
+                // Typically, the blob was reclaimed in the meantime
+                log.debug("Could not link existing blob, falling back to a regular upload: {}", e.getMessage());
+                DiscardStagingDirectory(stagedFileDirectoryPath);
+                return Optional.empty();
+            }
+
+            FileData fileData = new FileData(contentType, fileName, sha256, Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, sha256), null, size, null, expiresAt, owner);
+            return Optional.of(WriteFileRecord(fileId, stagedFileDirectoryPath, fileData, ComputeTreeHash(uploadedFilePath)));
+        } catch (RuntimeException e) {
+            DiscardStagingDirectory(stagedFileDirectoryPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Reclaim the blob of a purged file if no other file references it.
+     */
+    @Override
+    protected void OnFileDeleted(String fileId, FileData fileData) {
+        if (fileData == null || !SHA256_PATTERN.matcher(fileData.sha256()).matches()) {
+            return;
+        }
+        ReclaimBlobIfUnreferenced(GetBlobPath(fileData.sha256(), fileData.contentEncoding()));
+    }
+
+    private static void ReclaimBlobIfUnreferenced(Path blobPath) {
+        try {
+            if (Files.exists(blobPath) && GetLinkCount(blobPath) == 1) {
+                log.debug("Reclaiming unreferenced blob: {}", blobPath);
+                Files.deleteIfExists(blobPath);
+            }
+        } catch (IOException e) {
+            log.error("Error while reclaiming blob: {}", blobPath, e);
+        }
+    }
+
+    /**
+     * Reclaim every unreferenced blob, e.g. left behind by a crash between a purge and its blob reclamation.
+     */
+    public void reclaimUnreferencedBlobs() {
+        try (Stream<Path> stream = Files.walk(blobStorageDirectoryPath, 2)) {
+            stream.filter(Files::isRegularFile).forEach(ContentAddressedFileService::ReclaimBlobIfUnreferenced);
+        } catch (IOException e) {
+            log.error("Error while reclaiming unreferenced blobs", e);
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.jspecify.annotations.NonNull;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Aggregate bandwidth limit shared by all the file contents read or written by the application.
+ * <p>
+ * Streams are throttled after each read: a read reserves the time its bytes take at the configured rate, on a timeline
+ * shared by all the streams, and waits until its reservation ends. Idle time is credited up to a short burst.
+ * When no limit is configured, streams and resources are returned as is.
+ */
+@Component
+public class DiskBandwidthLimiter {
+
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final long BURST_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final long bytesPerSecond;
+
+    private final AtomicLong reservedUntilNanos = new AtomicLong(System.nanoTime());
+
+    public DiskBandwidthLimiter(HashTransferProperties hashTransferProperties) {
+        this.bytesPerSecond = hashTransferProperties.getMaxDiskBandwidth().toBytes();
+    }
+
+    public boolean isEnabled() {
+        return bytesPerSecond > 0;
+    }
+
+    /**
+     * Wait until a number of bytes can be transferred within the bandwidth limit.
+     * @param byteCount The number of bytes transferred.
+     */
+    public void acquire(int byteCount) throws InterruptedIOException {
+        if (!isEnabled() || byteCount <= 0) {
+            return;
+        }
+        long costNanos = byteCount * NANOS_PER_SECOND / bytesPerSecond;
+        long now = System.nanoTime();
+        long reservedUntil = reservedUntilNanos.accumulateAndGet(costNanos, (previous, cost) -> Math.max(previous, now - BURST_NANOS) + cost);
+        long waitNanos = reservedUntil - now;
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(Duration.ofNanos(waitNanos));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for disk bandwidth");
+            }
+        }
+    }
+
+    /**
+     * Throttle an InputStream to the bandwidth limit.
+     * @param inputStream The InputStream to throttle.
+     * @return The throttled InputStream.
+     */
+    public InputStream limit(InputStream inputStream) {
+        if (!isEnabled()) {
+            return inputStream;
+        }
+        return new ProxyInputStream(inputStream) {
+            @Override
+            protected void afterRead(int n) throws IOException {
+                acquire(n);
+            }
+        };
+    }
+
+    /**
+     * Get a Resource for a stored file, throttled to the bandwidth limit.
+     * A throttled resource does not expose its file, so that it is never served through sendfile.
+     * @param filePath The path of the file.
+     * @return The Resource of the file.
+     */
+    public Resource limit(Path filePath) {
+        if (!isEnabled()) {
+            return new FileSystemResource(filePath);
+        }
+        return new FileSystemResource(filePath) {
+            @Override
+            public @NonNull InputStream getInputStream() throws IOException {
+                return limit(super.getInputStream());
+            }
+
+            @Override
+            public boolean isFile() {
+                return false;
+            }
+        };
+    }
+}
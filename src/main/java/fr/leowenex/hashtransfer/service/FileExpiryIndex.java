@@ -0,0 +1,51 @@
+package fr.leowenex.hashtransfer.service;
+
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Time-ordered index of the stored files expiration dates.
+ * A purge only polls the head of the index, so it never looks at files that are not expired yet.
+ */
+@Component
+public class FileExpiryIndex {
+
+    private record ExpiryEntry(Instant expiresAt, String fileId) {}
+
+    private final NavigableSet<ExpiryEntry> entries = new ConcurrentSkipListSet<>(
+            Comparator.comparing(ExpiryEntry::expiresAt).thenComparing(ExpiryEntry::fileId)
+    );
+
+    public void add(String fileId, Instant expiresAt) {
+        entries.add(new ExpiryEntry(expiresAt, fileId));
+    }
+
+    /**
+     * Remove and return the IDs of the files expired at a given instant, oldest first.
+     * @param now The current instant.
+     * @param maxEntries The maximum number of IDs to return.
+     * @return The IDs of expired files, at most maxEntries.
+     */
+    public List<String> pollExpired(Instant now, int maxEntries) {
+        List<String> expiredFileIds = new ArrayList<>();
+        for (ExpiryEntry entry : entries) {
+            if (expiredFileIds.size() >= maxEntries || entry.expiresAt().isAfter(now)) {
+                break;
+            }
+            if (entries.remove(entry)) {
+                expiredFileIds.add(entry.fileId());
+            }
+        }
+        return expiredFileIds;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
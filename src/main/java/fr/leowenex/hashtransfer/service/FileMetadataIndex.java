@@ -0,0 +1,71 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the stored files metadata, keyed by file ID.
+ * <p>
+ * In the default (unbounded) mode, the index holds every stored file: a miss means the file does not exist.
+ * When a maximum number of entries is configured, the index is an LRU cache: a miss must be resolved from disk by the caller.
+ */
+@Slf4j
+@Component
+public class FileMetadataIndex {
+
+    private final int maxEntries;
+
+    private final Map<String, FileData> entries;
+
+    public FileMetadataIndex(HashTransferProperties hashTransferProperties) {
+        this.maxEntries = hashTransferProperties.getMetadataIndexMaxEntries();
+        if (maxEntries > 0) {
+            this.entries = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, FileData> eldest) {
+                    return size() > maxEntries;
+                }
+            });
+        } else {
+            this.entries = new ConcurrentHashMap<>();
+        }
+        log.debug("Metadata index mode: {}", isComplete() ? "unbounded" : "LRU, max " + maxEntries + " entries");
+    }
+
+    /**
+     * Whether the index holds every stored file, i.e. whether a miss means that the file does not exist.
+     */
+    public boolean isComplete() {
+        return maxEntries <= 0;
+    }
+
+    /**
+     * Whether the index can take more entries without evicting any (always true for an unbounded index).
+     */
+    public boolean hasCapacity() {
+        return isComplete() || entries.size() < maxEntries;
+    }
+
+    public FileData get(String fileId) {
+        return entries.get(fileId);
+    }
+
+    public void put(String fileId, FileData fileData) {
+        entries.put(fileId, fileData);
+    }
+
+    public void remove(String fileId) {
+        entries.remove(fileId);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -3,14 +3,58 @@ package fr.leowenex.hashtransfer.service;
 import fr.leowenex.hashtransfer.dto.FileData;
 import fr.leowenex.hashtransfer.dto.FileDownloadResponse;
 import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.TreeHash;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface FileService {
 
-    Optional<FileDownloadResponse> downloadFile(String fileId);
+    Optional<FileDownloadResponse> downloadFile(String fileId, Collection<String> acceptedContentEncodings);
     Optional<FileData> queryFileData(String fileId);
-    FileUploadResponse uploadFile(String fileName, long fileSize, String contentType, String sha256, InputStream inputStream);
+    Optional<TreeHash> queryTreeHash(String fileId);
+    FileUploadResponse uploadFile(String fileName, long fileSize, String contentType, Map<String, String> expectedDigests, Collection<String> wantedDigestAlgorithms, InputStream inputStream, String owner);
+    FileUploadResponse importFile(String fileName, String contentType, Map<String, String> expectedDigests, Map<String, String> computedDigests, Path sourceFilePath, String owner);
     void purgeExpiredFiles();
+
+    /**
+     * Download a file, decompressed if it is stored compressed.
+     */
+    default Optional<FileDownloadResponse> downloadFile(String fileId) {
+        return downloadFile(fileId, List.of());
+    }
+
+    /**
+     * Query the metadata of several files at once.
+     * @param fileIds The IDs of the files to query.
+     * @return The metadata of the files by ID, in the order of the IDs, with a null value for the files that do not exist.
+     */
+    default Map<String, FileData> queryFileData(Collection<String> fileIds) {
+        Map<String, FileData> fileDataById = new LinkedHashMap<>();
+        for (String fileId : fileIds) {
+            fileDataById.put(fileId, queryFileData(fileId).orElse(null));
+        }
+        return fileDataById;
+    }
+
+    /**
+     * Create a file from content that is already stored, without receiving it again.
+     * Only supported by deduplicating implementations.
+     * @return An Optional containing the FileUploadResponse if content with the expected SHA-256 is stored, or empty if the content must be uploaded.
+     */
+    default Optional<FileUploadResponse> uploadExistingFile(String fileName, String contentType, Map<String, String> expectedDigests, Collection<String> wantedDigestAlgorithms, String owner) {
+        return Optional.empty();
+    }
+
+    /**
+     * Run the transfer paths on synthetic contents before the first transfers, without storing anything.
+     * @param size The total size of the synthetic contents.
+     */
+    default void warmUp(long size) {
+    }
 }
@@ -0,0 +1,181 @@
+package fr.leowenex.hashtransfer.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import fr.leowenex.hashtransfer.util.MediaTypeUtils;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Supplier;
+
+/**
+ * Size-bounded in-memory cache of the most downloaded files, in front of the storage.
+ * <p>
+ * The cache is managed by Caffeine, whose W-TinyLFU policy admits a file only if it is downloaded more often than the
+ * files it would evict, so that one-off downloads do not flush the hot files.
+ * Small files are copied to off-heap (direct) buffers, larger ones are memory-mapped. Each entry also holds the media
+ * type of its file, resolved once.
+ * Cached contents are served outside of the disk bandwidth limit. Entries must be invalidated when their file is deleted.
+ * When no cache size is configured, nothing is cached.
+ */
+@Slf4j
+@Component
+public class HotFileCache {
+
+    private final long maxFileSize;
+
+    private final long mappedThreshold;
+
+    private final Cache<String, HotFile> cache;
+
+    public HotFileCache(HashTransferProperties hashTransferProperties, HashTransferMetrics hashTransferMetrics) {
+        long cacheSize = hashTransferProperties.getHotFileCacheSize().toBytes();
+        // A buffer cannot hold more than 2 GB
+        this.maxFileSize = Math.min(Math.min(hashTransferProperties.getHotFileCacheMaxFileSize().toBytes(), cacheSize), Integer.MAX_VALUE);
+        this.mappedThreshold = hashTransferProperties.getHotFileCacheMappedThreshold().toBytes();
+        if (cacheSize > 0) {
+            this.cache = Caffeine.newBuilder()
+                    .maximumWeight(cacheSize)
+                    .weigher((String _, HotFile hotFile) -> hotFile.content().capacity())
+                    .recordStats()
+                    .build();
+            hashTransferMetrics.monitorHotFileCache(cache);
+        } else {
+            this.cache = null;
+        }
+    }
+
+    public boolean isEnabled() {
+        return cache != null;
+    }
+
+    /**
+     * Get a file from the cache, loading it on a miss unless it is too large (the cache policy may still evict it right away).
+     * @param fileId The ID of the file.
+     * @param filePathSupplier Supplies the path of the stored file on a miss, once it is available for reading.
+     * @param fileData The metadata of the file.
+     * @return The cached file, or null if it cannot be cached.
+     */
+    public HotFile get(String fileId, Supplier<Path> filePathSupplier, FileData fileData) {
+        if (!isEnabled()) {
+            return null;
+        }
+        return cache.get(fileId, _ -> LoadHotFile(filePathSupplier.get(), fileData));
+    }
+
+    private HotFile LoadHotFile(Path filePath, FileData fileData) {
+        try (FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            long size = fileChannel.size();
+            if (size > maxFileSize) {
+                return null;
+            }
+            ByteBuffer content;
+            if (size >= mappedThreshold) {
+                content = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            } else {
+                content = ByteBuffer.allocateDirect((int) size);
+                while (content.hasRemaining() && fileChannel.read(content) >= 0) {
+                    // Read until the buffer is full
+                }
+                content.flip();
+            }
+            log.debug("Loaded file in the hot file cache: file={}, size={}, mapped={}", filePath, size, size >= mappedThreshold);
+            return new HotFile(filePath, content.asReadOnlyBuffer(), size >= mappedThreshold, MediaTypeUtils.resolveMediaType(fileData));
+        } catch (IOException e) {
+            log.warn("Could not load file in the hot file cache, serving it from the storage: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public void invalidate(String fileId) {
+        if (isEnabled()) {
+            cache.invalidate(fileId);
+        }
+    }
+
+    /**
+     * A cached file.
+     * @param filePath The path of the stored file.
+     * @param content The stored content (compressed if the file is stored compressed).
+     * @param mapped Whether the content is memory-mapped from the stored file.
+     * @param mediaType The media type of the file.
+     */
+    public record HotFile(Path filePath, ByteBuffer content, boolean mapped, MediaType mediaType) {
+
+        /**
+         * Get a Resource reading the cached content.
+         * A mapped file keeps exposing its stored file, so that it can still be served through sendfile.
+         */
+        public Resource toResource() {
+            ByteBuffer resourceContent = content.duplicate();
+            return new FileSystemResource(filePath) {
+                @Override
+                public @NonNull InputStream getInputStream() {
+                    return new ByteBufferInputStream(resourceContent.duplicate());
+                }
+
+                @Override
+                public long contentLength() {
+                    return resourceContent.capacity();
+                }
+
+                @Override
+                public boolean isFile() {
+                    return mapped;
+                }
+            };
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte @NonNull [] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = Math.clamp(n, 0, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -1,58 +1,143 @@
 package fr.leowenex.hashtransfer.service;
 
+import fr.leowenex.hashtransfer.config.DurabilityPolicy;
 import fr.leowenex.hashtransfer.config.HashTransferProperties;
 import fr.leowenex.hashtransfer.dto.FileData;
 import fr.leowenex.hashtransfer.dto.FileDownloadResponse;
 import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.TreeHash;
 import fr.leowenex.hashtransfer.exception.DataAccessException;
 import fr.leowenex.hashtransfer.exception.DigestNotMatchingException;
+import fr.leowenex.hashtransfer.exception.FileContentMissingException;
 import fr.leowenex.hashtransfer.exception.InvalidFilePathException;
 import fr.leowenex.hashtransfer.exception.UnreadableMetadataException;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import fr.leowenex.hashtransfer.util.MediaTypeUtils;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.jspecify.annotations.NonNull;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import org.springframework.util.ObjectUtils;
 import tools.jackson.databind.ObjectMapper;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.DigestInputStream;
 import java.security.MessageDigest;
-import java.util.HexFormat;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
+@ConditionalOnProperty(prefix = "hashtransfer", name = "storage-layout", havingValue = "directory", matchIfMissing = true)
 public class LocalStorageFileService implements FileService {
 
-    private final HashTransferProperties hashTransferProperties;
+    /**
+     * Directories of the storage directory starting with this prefix are not file directories.
+     */
+    protected static final String RESERVED_DIRECTORY_PREFIX = ".";
+
+    /**
+     * Files are written to their own directory in the staging directory, then published by moving it to its place.
+     */
+    private static final String STAGING_DIRECTORY_NAME = RESERVED_DIRECTORY_PREFIX + "staging";
 
-    private final ObjectMapper objectMapper;
+    /**
+     * Suffix of the metadata file name for the file holding the tree hash chunk hashes.
+     */
+    private static final String TREE_HASH_FILE_SUFFIX = ".treehash";
+
+    /**
+     * Up to the first dash of a UUID, so that every shard level is named after hexadecimal characters.
+     */
+    private static final int MAX_SHARD_DEPTH = 4;
+
+    /**
+     * Size of the synthetic contents of the warm-up rounds.
+     */
+    private static final int WARM_UP_BLOCK_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Delay before retrying the purge of a file whose directory could not be deleted.
+     */
+    private static final Duration PURGE_RETRY_DELAY = Duration.ofMinutes(1);
+
+    protected final HashTransferProperties hashTransferProperties;
+
+    protected final ObjectMapper objectMapper;
+
+    protected final FileMetadataIndex fileMetadataIndex;
+
+    protected final FileExpiryIndex fileExpiryIndex;
+
+    protected final DiskBandwidthLimiter diskBandwidthLimiter;
+
+    protected final TreeHasher treeHasher;
+
+    protected final StorageCompressor storageCompressor;
+
+    protected final StorageUsage storageUsage;
+
+    protected final HashTransferMetrics hashTransferMetrics;
+
+    protected final HotFileCache hotFileCache;
+
+    protected Path fileStorageDirectoryPath;
+
+    private Path stagingDirectoryPath;
+
+    private ForkJoinPool purgePool;
 
     /**
      * Read file metadata from a given path.
      * @param fileMetadataFilePath The path to the metadata file.
      * @return The FileData object containing the metadata.
      */
-    private FileData ReadMetadataFromPath(Path fileMetadataFilePath) {
-        FileData fileData;
-        try {
-            fileData = objectMapper.readValue(Files.readString(fileMetadataFilePath), FileData.class);
-        } catch (IOException e) {
-            log.error("Error reading metadata file: {}", e.getMessage());
-            throw new UnreadableMetadataException(e.getMessage());
-        }
-        return fileData;
+    protected FileData ReadMetadataFromPath(Path fileMetadataFilePath) {
+        return hashTransferMetrics.timeMetadataRead(() -> {
+            try {
+                return objectMapper.readValue(Files.readString(fileMetadataFilePath), FileData.class);
+            } catch (IOException e) {
+                log.error("Error reading metadata file: {}", e.getMessage());
+                throw new UnreadableMetadataException(e.getMessage());
+            }
+        });
     }
 
     /**
@@ -71,70 +156,570 @@ public class LocalStorageFileService implements FileService {
     }
 
     /**
-     * Check the SHA-256 checksum of an uploaded file against the expected checksum.
-     * @param computedCheckSum The found SHA-256 checksum.
-     * @param expectedSha256CheckSum The expected SHA-256 checksum.
+     * Check the digests of an uploaded file against the expected digests.
+     * @param computedDigests The found digests, by algorithm.
+     * @param expectedDigests The expected digests, by algorithm.
      * @param fileName The name of the file (for logging purposes).
      */
-    private static void CheckSha256Checksum(String computedCheckSum, String expectedSha256CheckSum, String fileName) {
+    protected void CheckDigests(Map<String, String> computedDigests, Map<String, String> expectedDigests, String fileName) {
 
-        if (!ObjectUtils.isEmpty(expectedSha256CheckSum)){
-            if (computedCheckSum.equals(expectedSha256CheckSum)) {
-                log.debug("Uploaded file SHA-256 checksum matches the provided checksum for fileName={}", fileName);
+        expectedDigests.forEach((algorithm, expectedDigest) -> {
+            if (ObjectUtils.isEmpty(expectedDigest)) {
+                return;
+            }
+            if (expectedDigest.equals(computedDigests.get(algorithm))) {
+                log.debug("Uploaded file {} digest matches the provided digest for fileName={}", algorithm, fileName);
             } else {
-                log.error("Uploaded file SHA-256 checksum does not match the provided checksum for fileName={}", fileName);
-                throw new DigestNotMatchingException("Uploaded file SHA-256 checksum does not match the provided checksum");
+                log.error("Uploaded file {} digest does not match the provided digest for fileName={}", algorithm, fileName);
+                hashTransferMetrics.countDigestMismatch(algorithm);
+                throw new DigestNotMatchingException("Uploaded file " + algorithm + " digest does not match the provided digest");
             }
+        });
+    }
+
+    /**
+     * Get the digest algorithms to compute for an upload: SHA-256, the configured algorithms, and the ones expected or wanted by the client.
+     * @param expectedDigests The digests provided by the client, by algorithm.
+     * @param wantedDigestAlgorithms The algorithms wanted by the client.
+     * @return The supported algorithms to compute.
+     */
+    protected Set<String> ResolveDigestAlgorithms(Map<String, String> expectedDigests, Collection<String> wantedDigestAlgorithms) {
+        Set<String> digestAlgorithms = new TreeSet<>(hashTransferProperties.getContentDigestAlgorithms());
+        digestAlgorithms.add(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+        digestAlgorithms.addAll(expectedDigests.keySet());
+        digestAlgorithms.addAll(wantedDigestAlgorithms);
+        digestAlgorithms.removeIf(algorithm -> !ContentDigestHeaderUtils.isSupportedAlgorithm(algorithm));
+        return digestAlgorithms;
+    }
+
+    /**
+     * Chain DigestInputStreams, so that all the digests are updated in a single pass over the stream.
+     * @param inputStream The InputStream to digest.
+     * @param messageDigests The MessageDigests to update.
+     * @return The digesting InputStream.
+     */
+    private static InputStream ChainDigestInputStreams(InputStream inputStream, Collection<MessageDigest> messageDigests) {
+        InputStream digestInputStream = inputStream;
+        for (MessageDigest messageDigest : messageDigests) {
+            digestInputStream = new DigestInputStream(digestInputStream, messageDigest);
         }
+        return digestInputStream;
+    }
+
+    /**
+     * Check that a file name does not collide with the reserved metadata file names.
+     * @param fileName The name of the file.
+     */
+    protected void CheckReservedFileName(String fileName) {
+        if (fileName.equals(hashTransferProperties.getMetadataFileName()) || fileName.equals(hashTransferProperties.getMetadataFileName() + TREE_HASH_FILE_SUFFIX)) {
+            throw new InvalidFilePathException("This file name is reserved and cannot be used");
+        }
+    }
+
+    /**
+     * Get the directory path of a file in the configured storage layout.
+     * @param fileId The ID of the file.
+     * @return The path to the file directory.
+     */
+    protected Path GetFileDirectoryPath(String fileId) {
+        return LocalStorageFileUtils.GetFileDirectoryPath(fileStorageDirectoryPath, fileId, hashTransferProperties.getStorageShardDepth());
+    }
+
+    /**
+     * Compute the expiration date of a file uploaded now.
+     * @return The expiration date.
+     */
+    protected Instant ComputeExpiration() {
+        return Instant.now().plus(hashTransferProperties.getExpirationMinutes(), ChronoUnit.MINUTES);
+    }
+
+    /**
+     * Create the staging directory of a new file.
+     * The file is written there, and only appears in the storage once complete (see {@link #WriteFileRecord}).
+     * @param fileId The ID of the new file.
+     * @return The path to the created directory.
+     */
+    protected Path CreateStagingDirectory(String fileId) {
+        Path stagedFileDirectoryPath = stagingDirectoryPath.resolve(fileId);
+        try {
+            Files.createDirectory(stagedFileDirectoryPath);
+        } catch (IOException e) {
+            log.error("Error creating staging directory: {}", e.getMessage());
+            throw new DataAccessException("Could not create target file directory");
+        }
+        return stagedFileDirectoryPath;
+    }
+
+    /**
+     * Delete the staging directory of a failed upload, so that it costs neither disk space nor purge time.
+     * @param stagedFileDirectoryPath The path to the staging directory.
+     */
+    protected static void DiscardStagingDirectory(Path stagedFileDirectoryPath) {
+        log.debug("Discarding staging directory: {}", stagedFileDirectoryPath);
+        FileUtils.deleteQuietly(stagedFileDirectoryPath.toFile());
+    }
+
+    /**
+     * Sync a file or a directory to disk.
+     * @param path The path to sync.
+     */
+    private static void SyncPath(Path path) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+            fileChannel.force(true);
+        }
+    }
+
+    /**
+     * Get the on-disk size of a stored file, for the storage usage.
+     * @param fileDirectoryPath The path to the file directory.
+     * @param fileData The metadata of the file.
+     * @return The size of the file in bytes, or 0 if it cannot be read.
+     */
+    protected static long GetStoredFileSize(Path fileDirectoryPath, FileData fileData) {
+        try {
+            return Files.size(fileDirectoryPath.resolve(fileData.filename()).normalize());
+        } catch (IOException e) {
+            log.warn("Could not read the size of stored file: {}", e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Compute the tree hash of a stored file, if tree hashing is enabled.
+     * @param filePath The path of the stored file.
+     * @return The tree hash, or null if tree hashing is disabled.
+     */
+    protected TreeHash ComputeTreeHash(Path filePath) {
+        if (!treeHasher.isEnabled()) {
+            return null;
+        }
+        try {
+            return treeHasher.hashFile(filePath);
+        } catch (IOException e) {
+            log.error("Error computing tree hash: {}", e.getMessage());
+            throw new DataAccessException("Could not compute tree hash: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write the metadata of a staged file, then publish the file: its staging directory is moved to its place in the
+     * storage with an atomic rename, and the file is added to the indexes.
+     * A file directory in the storage is thus always complete. Files are synced to disk according to the durability policy.
+     * The chunk hashes of the tree hash are written to their own file, only the root is kept in the metadata.
+     * @param fileId The ID of the file.
+     * @param stagedFileDirectoryPath The path to the staging directory of the file.
+     * @param fileData The metadata of the file.
+     * @param treeHash The tree hash of the file, or null if tree hashing is disabled.
+     * @return A FileUploadResponse containing the file ID and status message.
+     */
+    protected FileUploadResponse WriteFileRecord(String fileId, Path stagedFileDirectoryPath, FileData fileData, TreeHash treeHash) {
+        if (treeHash != null) {
+            Path treeHashFilePath = stagedFileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName() + TREE_HASH_FILE_SUFFIX).normalize();
+            try {
+                Files.writeString(treeHashFilePath, objectMapper.writeValueAsString(treeHash));
+            } catch (IOException e) {
+                log.error("Error writing tree hash file: {}", e.getMessage());
+                throw new DataAccessException("Could not write tree hash file: " + e.getMessage());
+            }
+            fileData = fileData.withTreeHash(treeHash.withoutChunkHashes());
+        }
+
+        Path fileMetadataFilePath = stagedFileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize();
+        WriteFileMetadataToPath(fileMetadataFilePath, fileData);
+        OnFileStaged(fileId, stagedFileDirectoryPath, fileData);
+
+        DurabilityPolicy durabilityPolicy = hashTransferProperties.getDurabilityPolicy();
+        Path fileDirectoryPath = GetFileDirectoryPath(fileId);
+        try {
+            if (durabilityPolicy != DurabilityPolicy.NONE) {
+                try (Stream<Path> stream = Files.list(stagedFileDirectoryPath)) {
+                    for (Path stagedFilePath : stream.toList()) {
+                        SyncPath(stagedFilePath);
+                    }
+                }
+            }
+            if (durabilityPolicy == DurabilityPolicy.FULL) {
+                SyncPath(stagedFileDirectoryPath);
+            }
+            Files.createDirectories(fileDirectoryPath.getParent());
+            Files.move(stagedFileDirectoryPath, fileDirectoryPath, StandardCopyOption.ATOMIC_MOVE);
+            if (durabilityPolicy == DurabilityPolicy.FULL) {
+                SyncPath(fileDirectoryPath.getParent());
+            }
+        } catch (IOException e) {
+            log.error("Error publishing staged file: {}", e.getMessage());
+            throw new DataAccessException("Could not publish uploaded file: " + e.getMessage());
+        }
+
+        fileExpiryIndex.add(fileId, fileData.expiresAt());
+        fileMetadataIndex.put(fileId, fileData);
+        storageUsage.add(fileData.owner(), GetStoredFileSize(fileDirectoryPath, fileData));
+        OnFileDirectoryAvailable(fileId, fileDirectoryPath, fileData);
+
+        return new FileUploadResponse(fileId, fileData.filename(), "File uploaded successfully");
+    }
+
+    /**
+     * Hook called once the content of a file is stored and verified, before its metadata is written.
+     * @param uploadedFilePath The path of the stored file.
+     * @param sha256 The SHA-256 checksum of the file.
+     * @param contentEncoding The encoding the file is stored with, or null if it is stored as is.
+     */
+    protected void OnFileStored(Path uploadedFilePath, String sha256, String contentEncoding) {
+    }
+
+    /**
+     * Hook called once the staging directory of a file is complete (content and metadata), before it is published.
+     * @param fileId The ID of the file.
+     * @param stagedFileDirectoryPath The path to the staging directory of the file.
+     * @param fileData The metadata of the file.
+     */
+    protected void OnFileStaged(String fileId, Path stagedFileDirectoryPath, FileData fileData) {
+    }
+
+    /**
+     * Hook called once the directory of a file is in place in the storage: just published, or found at startup.
+     * @param fileId The ID of the file.
+     * @param fileDirectoryPath The path to the file directory.
+     * @param fileData The metadata of the file.
+     */
+    protected void OnFileDirectoryAvailable(String fileId, Path fileDirectoryPath, FileData fileData) {
+    }
+
+    /**
+     * Hook called before the content of a file is read from its directory.
+     * Throws a FileContentMissingException if the file turns out to be deleted, which makes the file missing for the caller.
+     * @param fileId The ID of the file.
+     * @param fileDirectoryPath The path to the file directory.
+     * @param fileData The metadata of the file.
+     */
+    protected void PrepareFileDirectory(String fileId, Path fileDirectoryPath, FileData fileData) {
+    }
+
+    /**
+     * Hook called once the directory of a file has been deleted.
+     * @param fileId The ID of the deleted file.
+     * @param fileData The metadata of the deleted file, or null if it was unknown (e.g. failed upload).
+     */
+    protected void OnFileDeleted(String fileId, FileData fileData) {
+    }
+
+    /**
+     * Load the metadata and expiry indexes by scanning the storage directory.
+     * The leftovers of the uploads interrupted by a crash (staging directories, and file directories without a metadata
+     * file written before uploads were staged) are deleted in parallel. Directories with an unreadable metadata file are
+     * only scheduled for expiration, from their modification date.
+     * File directories found outside of their place in the configured shard layout are moved there, so a store is migrated
+     * from a layout to another (e.g. from the flat layout) by restarting with a new shard depth. The migration is offline:
+     * the instance only starts serving once every file directory is moved.
+     * The storage directory is scanned in three passes, so that the moves never change a listing still being read: the
+     * file directories are all listed first, then moved (and the shard directories left empty removed), and only then indexed.
+     */
+    @PostConstruct
+    public void loadIndexes() {
+        long startTime = System.currentTimeMillis();
+
+        int shardDepth = hashTransferProperties.getStorageShardDepth();
+        if (shardDepth < 0 || shardDepth > MAX_SHARD_DEPTH) {
+            throw new IllegalStateException("The storage shard depth must be between 0 and " + MAX_SHARD_DEPTH);
+        }
+        for (String digestAlgorithm : hashTransferProperties.getContentDigestAlgorithms()) {
+            if (!ContentDigestHeaderUtils.isSupportedAlgorithm(digestAlgorithm)) {
+                throw new IllegalStateException("Unsupported content digest algorithm: " + digestAlgorithm);
+            }
+        }
+        fileStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory());
+        purgePool = new ForkJoinPool(hashTransferProperties.getPurgeParallelism());
+        stagingDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(fileStorageDirectoryPath.resolve(STAGING_DIRECTORY_NAME).toString());
+        RecoverStagingDirectory();
+
+        Queue<Path> fileDirectoryPaths = new ConcurrentLinkedQueue<>();
+        Queue<Path> shardDirectoryPaths = new ConcurrentLinkedQueue<>();
+        try (Stream<Path> stream = Files.list(fileStorageDirectoryPath)) {
+            stream.filter(Files::isDirectory)
+                    .filter(path -> !path.getFileName().toString().startsWith(RESERVED_DIRECTORY_PREFIX))
+                    .toList()
+                    .parallelStream()
+                    .forEach(path -> {
+                        if (LocalStorageFileUtils.IsShardDirectory(path)) {
+                            ListShardDirectory(path, fileDirectoryPaths, shardDirectoryPaths);
+                        } else {
+                            fileDirectoryPaths.add(path);
+                        }
+                    });
+        } catch (IOException e) {
+            log.error("Error while loading the metadata index", e);
+        }
+
+        List<Path> placedFileDirectoryPaths = fileDirectoryPaths.parallelStream()
+                .map(this::PlaceFileDirectory)
+                .filter(Objects::nonNull)
+                .toList();
+        DeleteEmptyShardDirectories(shardDirectoryPaths);
+        placedFileDirectoryPaths.parallelStream().forEach(this::LoadFileDirectory);
+
+        log.info("Loaded {} entries in the metadata index and {} entries in the expiry index ({} files, {} bytes stored) in {} ms",
+                fileMetadataIndex.size(), fileExpiryIndex.size(), storageUsage.getStoredFiles(), storageUsage.getStoredBytes(), System.currentTimeMillis() - startTime);
+    }
+
+    /**
+     * Delete the staging directories left behind by a crash, in parallel.
+     */
+    private void RecoverStagingDirectory() {
+        List<Path> stagedFileDirectoryPaths;
+        try (Stream<Path> stream = Files.list(stagingDirectoryPath)) {
+            stagedFileDirectoryPaths = stream.toList();
+        } catch (IOException e) {
+            log.error("Error while listing the staging directory", e);
+            return;
+        }
+        if (stagedFileDirectoryPaths.isEmpty()) {
+            return;
+        }
+        purgePool.submit(() -> stagedFileDirectoryPaths.parallelStream().forEach(LocalStorageFileService::DiscardStagingDirectory)).join();
+        log.info("Discarded {} interrupted uploads from the staging directory", stagedFileDirectoryPaths.size());
+    }
+
+    @PreDestroy
+    public void shutdownPurgePool() {
+        purgePool.shutdown();
+    }
+
+    /**
+     * List all the file directories of a shard directory, and its shard directories (the given one included).
+     * @param shardDirectoryPath The path to the shard directory.
+     * @param fileDirectoryPaths The queue the file directories are added to.
+     * @param shardDirectoryPaths The queue the shard directories are added to.
+     */
+    private static void ListShardDirectory(Path shardDirectoryPath, Queue<Path> fileDirectoryPaths, Queue<Path> shardDirectoryPaths) {
+        try {
+            Files.walkFileTree(shardDirectoryPath, new SimpleFileVisitor<>() {
+                @Override
+                public @NonNull FileVisitResult preVisitDirectory(@NonNull Path directoryPath, @NonNull BasicFileAttributes attributes) {
+                    if (LocalStorageFileUtils.IsShardDirectory(directoryPath)) {
+                        shardDirectoryPaths.add(directoryPath);
+                        return FileVisitResult.CONTINUE;
+                    }
+                    fileDirectoryPaths.add(directoryPath);
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+            });
+        } catch (IOException e) {
+            log.error("Error while listing shard directory: {}", shardDirectoryPath, e);
+        }
+    }
+
+    /**
+     * Move a file directory to its place in the shard layout if needed.
+     * @param fileDirectoryPath The path to the file directory.
+     * @return The path to the file directory in the shard layout, or null if it is not a file directory or could not be moved.
+     */
+    private Path PlaceFileDirectory(Path fileDirectoryPath) {
+        Path expectedFileDirectoryPath;
+        try {
+            expectedFileDirectoryPath = GetFileDirectoryPath(fileDirectoryPath.getFileName().toString());
+        } catch (InvalidFilePathException _) {
+            log.warn("Ignoring unexpected directory in storage directory: {}", fileDirectoryPath);
+            return null;
+        }
+        if (fileDirectoryPath.equals(expectedFileDirectoryPath)) {
+            return fileDirectoryPath;
+        }
+        try {
+            Files.createDirectories(expectedFileDirectoryPath.getParent());
+            Files.move(fileDirectoryPath, expectedFileDirectoryPath, StandardCopyOption.ATOMIC_MOVE);
+            log.debug("Moved file directory to the shard layout: {} -> {}", fileDirectoryPath, expectedFileDirectoryPath);
+        } catch (IOException e) {
+            log.error("Error while moving file directory to the shard layout: {}", fileDirectoryPath, e);
+            return null;
+        }
+        return expectedFileDirectoryPath;
+    }
+
+    /**
+     * Remove the shard directories left empty by the moves to the shard layout (e.g. after a layout change), deepest first.
+     * @param shardDirectoryPaths The shard directories listed before the moves.
+     */
+    private static void DeleteEmptyShardDirectories(Collection<Path> shardDirectoryPaths) {
+        shardDirectoryPaths.stream()
+                .sorted(Comparator.comparingInt(Path::getNameCount).reversed())
+                .forEach(shardDirectoryPath -> {
+                    try {
+                        Files.deleteIfExists(shardDirectoryPath);
+                    } catch (IOException _) {
+                        // Not empty
+                    }
+                });
+    }
+
+    /**
+     * Load a file directory, at its place in the shard layout, into the metadata and expiry indexes.
+     * @param fileDirectoryPath The path to the file directory.
+     */
+    private void LoadFileDirectory(Path fileDirectoryPath) {
+        String fileId = fileDirectoryPath.getFileName().toString();
+
+        Path metadataFilePath = fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName());
+        if (!Files.exists(metadataFilePath)) {
+            log.info("Deleting orphan file directory without metadata: {}", fileDirectoryPath);
+            FileUtils.deleteQuietly(fileDirectoryPath.toFile());
+            return;
+        }
+
+        FileData fileData = null;
+        try {
+            fileData = ReadMetadataFromPath(metadataFilePath);
+        } catch (UnreadableMetadataException _) {
+            // Already logged, the file stays unavailable until it expires
+        }
+
+        Instant expiresAt = fileData != null ? fileData.expiresAt() : null;
+        if (expiresAt == null) {
+            // Unreadable metadata, or metadata written before expiration dates were stored
+            try {
+                expiresAt = Files.getLastModifiedTime(fileDirectoryPath).toInstant().plus(hashTransferProperties.getExpirationMinutes(), ChronoUnit.MINUTES);
+            } catch (IOException e) {
+                log.error("Error while reading modification date of directory: {}", fileDirectoryPath, e);
+                return;
+            }
+            if (fileData != null) {
+                fileData = fileData.withExpiresAt(expiresAt);
+            }
+        }
+
+        fileExpiryIndex.add(fileId, expiresAt);
+        if (fileData != null) {
+            storageUsage.add(fileData.owner(), GetStoredFileSize(fileDirectoryPath, fileData));
+            if (fileMetadataIndex.hasCapacity()) {
+                fileMetadataIndex.put(fileId, fileData);
+            }
+            OnFileDirectoryAvailable(fileId, fileDirectoryPath, fileData);
+        }
+    }
+
+    /**
+     * Look up the metadata of a file, from the index or, on a miss, with {@link #LoadFileData}.
+     * @param fileId The ID of the file.
+     * @param fileDirectoryPath The path to the file directory.
+     * @return An Optional containing the file metadata if the file exists, or empty if not.
+     */
+    private Optional<FileData> LookupFileData(String fileId, Path fileDirectoryPath) {
+        FileData fileData = fileMetadataIndex.get(fileId);
+        if (fileData != null) {
+            return Optional.of(fileData);
+        }
+
+        Optional<FileData> loadedFileData = LoadFileData(fileId, fileDirectoryPath);
+        loadedFileData.ifPresent(data -> fileMetadataIndex.put(fileId, data));
+        return loadedFileData;
+    }
+
+    /**
+     * Look up the metadata of a file that is not expired yet.
+     * An expired file is missing even before it is purged, as another node sharing the store may already have purged it.
+     * @param fileId The ID of the file.
+     * @param fileDirectoryPath The path to the file directory.
+     * @return An Optional containing the file metadata if the file exists and is not expired, or empty if not.
+     */
+    private Optional<FileData> LookupLiveFileData(String fileId, Path fileDirectoryPath) {
+        Instant now = Instant.now();
+        return LookupFileData(fileId, fileDirectoryPath).filter(fileData -> fileData.expiresAt().isAfter(now));
+    }
+
+    /**
+     * Load the metadata of a file missing from the metadata index.
+     * A miss of a complete index means that the file does not exist, while in bounded index mode the metadata is read from disk.
+     * @param fileId The ID of the file.
+     * @param fileDirectoryPath The path to the file directory.
+     * @return An Optional containing the file metadata if the file exists, or empty if not.
+     */
+    protected Optional<FileData> LoadFileData(String fileId, Path fileDirectoryPath) {
+        if (fileMetadataIndex.isComplete() || !fileDirectoryPath.toFile().exists()) {
+            return Optional.empty();
+        }
+        return Optional.of(ReadMetadataFromPath(fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize()));
     }
 
     /**
      * Download a file by its ID.
+     * A file stored compressed is sent as is if its encoding is accepted, and decompressed on the fly otherwise.
      * @param fileId The ID of the file to download.
+     * @param acceptedContentEncodings The content encodings accepted by the client.
      * @return An Optional containing the FileDownloadResponse (File Metadata + File Resource) if the file exists, or empty if not.
      */
-    public Optional<FileDownloadResponse> downloadFile(String fileId) {
+    public Optional<FileDownloadResponse> downloadFile(String fileId, Collection<String> acceptedContentEncodings) {
 
         log.debug("Received file download request: fileId={}", fileId);
 
-        Path fileStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory());
-        Path fileDirectoryPath = LocalStorageFileUtils.GetFileDirectoryPath(fileStorageDirectoryPath, fileId);
-        if (!fileDirectoryPath.toFile().exists()) {
-            return Optional.empty();
-        }
-
-        Path metadataFilePath = fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize();
-        FileData fileData = ReadMetadataFromPath(metadataFilePath);
-        String filename = fileData.filename();
+        Path fileDirectoryPath = GetFileDirectoryPath(fileId);
 
-        Path targetFilePath = fileDirectoryPath.resolve(filename).normalize();
-        if (!targetFilePath.toFile().exists()) {
+        try {
+            return LookupLiveFileData(fileId, fileDirectoryPath).map(fileData -> {
+                Path targetFilePath = fileDirectoryPath.resolve(fileData.filename()).normalize();
+                HotFileCache.HotFile hotFile = hotFileCache.get(fileId, () -> {
+                    PrepareFileDirectory(fileId, fileDirectoryPath, fileData);
+                    return targetFilePath;
+                }, fileData);
+                if (hotFile == null) {
+                    PrepareFileDirectory(fileId, fileDirectoryPath, fileData);
+                }
+                Resource fileResource = hotFile != null ? hotFile.toResource() : diskBandwidthLimiter.limit(targetFilePath);
+                MediaType mediaType = hotFile != null ? hotFile.mediaType() : MediaTypeUtils.resolveMediaType(fileData);
+                String contentEncoding = fileData.contentEncoding();
+                if (contentEncoding != null && !acceptedContentEncodings.contains(contentEncoding)) {
+                    fileResource = storageCompressor.decompress(fileResource, fileData.size());
+                    contentEncoding = null;
+                }
+                return new FileDownloadResponse(fileData, fileResource, contentEncoding, mediaType);
+            });
+        } catch (FileContentMissingException e) {
+            log.debug("File content missing, the file was deleted: fileId={}, {}", fileId, e.getMessage());
             return Optional.empty();
         }
-
-        Resource fileResource = new FileSystemResource(targetFilePath);
-        return Optional.of(new FileDownloadResponse(fileData, fileResource));
     }
 
     /**
      * Query file metadata by its ID.
      * @param fileId The ID of the file to query.
-     * @return An Optional containing the file Metadata if the file exists, or empty if not.
+     * @return An Optional containing the file Metadata (without its owner) if the file exists, or empty if not.
      */
     public Optional<FileData> queryFileData(String fileId) {
 
         log.debug("Received file data query request: fileId={}", fileId);
 
-        Path fileStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory());
-        Path fileDirectoryPath = LocalStorageFileUtils.GetFileDirectoryPath(fileStorageDirectoryPath, fileId);
+        Path fileDirectoryPath = GetFileDirectoryPath(fileId);
 
-        if (!fileDirectoryPath.toFile().exists()) {
-            return Optional.empty();
-        }
+        return LookupLiveFileData(fileId, fileDirectoryPath).map(FileData::withoutOwner);
+    }
+
+    /**
+     * Query the tree hash of a file by its ID, with its chunk hashes.
+     * @param fileId The ID of the file to query.
+     * @return An Optional containing the tree hash if the file exists and has one, or empty if not.
+     */
+    public Optional<TreeHash> queryTreeHash(String fileId) {
 
-        Path metadataFilePath = fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize();
+        log.debug("Received tree hash query request: fileId={}", fileId);
 
-        return Optional.of(ReadMetadataFromPath(metadataFilePath));
+        Path fileDirectoryPath = GetFileDirectoryPath(fileId);
+
+        try {
+            return LookupLiveFileData(fileId, fileDirectoryPath)
+                    .filter(fileData -> fileData.treeHash() != null)
+                    .map(fileData -> {
+                        PrepareFileDirectory(fileId, fileDirectoryPath, fileData);
+                        Path treeHashFilePath = fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName() + TREE_HASH_FILE_SUFFIX).normalize();
+                        try {
+                            return objectMapper.readValue(Files.readString(treeHashFilePath), TreeHash.class);
+                        } catch (IOException e) {
+                            log.error("Error reading tree hash file: {}", e.getMessage());
+                            throw new UnreadableMetadataException(e.getMessage());
+                        }
+                    });
+        } catch (FileContentMissingException e) {
+            log.debug("File content missing, the file was deleted: fileId={}, {}", fileId, e.getMessage());
+            return Optional.empty();
+        }
     }
 
     /**
@@ -142,80 +727,261 @@ public class LocalStorageFileService implements FileService {
      * @param fileName The original name of the file.
      * @param fileSize The size of the file in bytes.
      * @param contentType The MIME type of the file.
-     * @param providedSha256 The SHA-256 checksum of the file provided by caller (optional).
+     * @param expectedDigests The digests of the file provided by caller, by algorithm (verified after upload).
+     * @param wantedDigestAlgorithms The algorithms of the digests to compute and store, in addition to the configured ones.
      * @param inputStream The InputStream of the file to upload (to be closed by the caller).
+     * @param owner The client the file is accounted to for the storage quotas, or null if it has none.
      * @return A FileUploadResponse containing the file ID and status message.
      */
-    public FileUploadResponse uploadFile(String fileName, long fileSize, String contentType, String providedSha256, InputStream inputStream) {
+    public FileUploadResponse uploadFile(String fileName, long fileSize, String contentType, Map<String, String> expectedDigests, Collection<String> wantedDigestAlgorithms, InputStream inputStream, String owner) {
 
         log.debug("Received file upload request: originalFilename={}, size={}, contentType={}", fileName, fileSize, contentType);
 
-        // Check for reserved file name
-        if (fileName.equals(hashTransferProperties.getMetadataFileName())) {
-            throw new InvalidFilePathException("This file name is reserved and cannot be used");
-        }
-
-        Path fileStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory());
+        CheckReservedFileName(fileName);
 
         String fileId = UUID.randomUUID().toString();
+        Instant expiresAt = ComputeExpiration();
+        Path stagedFileDirectoryPath = CreateStagingDirectory(fileId);
 
-        Path uploadedFileDirectoryPath = LocalStorageFileUtils.GetFileDirectoryPath(fileStorageDirectoryPath, fileId);
-        if (!uploadedFileDirectoryPath.toFile().exists()) {
-            if (!uploadedFileDirectoryPath.toFile().mkdirs()) {
-                throw new DataAccessException("Could not create target file directory");
+        try {
+            Path uploadedFilePath = LocalStorageFileUtils.GetUploadedFilePath(stagedFileDirectoryPath, fileName);
+            Map<String, MessageDigest> messageDigests = ContentDigestHeaderUtils.createMessageDigests(ResolveDigestAlgorithms(expectedDigests, wantedDigestAlgorithms));
+            Map<String, String> computedDigests;
+            StagedContent stagedContent;
+            // Reading the digesting stream takes the receive time plus the hash time
+            HashTransferMetrics.PhaseClock receiveClock = new HashTransferMetrics.PhaseClock();
+            HashTransferMetrics.PhaseClock readClock = new HashTransferMetrics.PhaseClock();
+            HashTransferMetrics.PhaseClock writeClock = new HashTransferMetrics.PhaseClock();
+            try (InputStream digestInputStream = readClock.time(ChainDigestInputStreams(receiveClock.time(diskBandwidthLimiter.limit(inputStream)), messageDigests.values()))) {
+                stagedContent = WriteStagedFile(uploadedFilePath, fileName, contentType, digestInputStream, writeClock);
+                computedDigests = ContentDigestHeaderUtils.formatHexDigests(messageDigests);
+                CheckDigests(computedDigests, expectedDigests, fileName);
+            } catch (IOException e) {
+                log.error("Error writing uploaded file: {}", e.getMessage());
+                throw new DataAccessException("Could not write uploaded file: " + e.getMessage());
             }
+
+            hashTransferMetrics.recordUploadPhases(receiveClock.getNanos(), readClock.getNanos() - receiveClock.getNanos(), writeClock.getNanos());
+
+            String computedSha256 = computedDigests.get(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+            OnFileStored(uploadedFilePath, computedSha256, stagedContent.contentEncoding());
+
+            return WriteFileRecord(fileId, stagedFileDirectoryPath, new FileData(contentType, fileName, computedSha256, computedDigests, null, stagedContent.size(), stagedContent.contentEncoding(), expiresAt, owner), stagedContent.treeHash());
+        } catch (RuntimeException e) {
+            DiscardStagingDirectory(stagedFileDirectoryPath);
+            throw e;
         }
+    }
 
-        Path uploadedFilePath = LocalStorageFileUtils.GetUploadedFilePath(uploadedFileDirectoryPath, fileName);
-        MessageDigest sha256Digest = DigestUtils.getSha256Digest();
-        String computedSha256;
-        try (DigestInputStream digestInputStream = new DigestInputStream(inputStream, sha256Digest); OutputStream outputStream = Files.newOutputStream(uploadedFilePath)) {
-            digestInputStream.transferTo(outputStream);
-            computedSha256 = HexFormat.of().formatHex(sha256Digest.digest());
-            CheckSha256Checksum(computedSha256, providedSha256, fileName);
+    /**
+     * Write an uploaded content to its staged file, compressed if its first bytes are compressible, and tree hashed on the way.
+     * @param uploadedFilePath The path of the staged file.
+     * @param fileName The original name of the file.
+     * @param contentType The MIME type of the file.
+     * @param digestInputStream The content, digested as it is read.
+     * @param writeClock The clock of the write phase.
+     * @return The staged content.
+     */
+    private StagedContent WriteStagedFile(Path uploadedFilePath, String fileName, String contentType, InputStream digestInputStream, HashTransferMetrics.PhaseClock writeClock) throws IOException {
+        TreeHashOutputStream treeHashOutputStream = treeHasher.isEnabled() ? treeHasher.newOutputStream() : null;
+        // The encoding is chosen from the first bytes, before anything is written
+        byte[] sample = digestInputStream.readNBytes(storageCompressor.getSampleSize());
+        String contentEncoding = storageCompressor.selectContentEncoding(fileName, contentType, sample);
+        long size;
+        OutputStream fileOutputStream = Files.newOutputStream(uploadedFilePath);
+        try (OutputStream outputStream = contentEncoding != null ? storageCompressor.compress(fileOutputStream) : fileOutputStream) {
+            // With tree hashing, the chunks are hashed in parallel as they are written (before compression)
+            OutputStream targetOutputStream = writeClock.time(treeHashOutputStream != null ? new TeeOutputStream(outputStream, treeHashOutputStream) : outputStream);
+            targetOutputStream.write(sample);
+            size = sample.length + IOUtils.copyLarge(digestInputStream, targetOutputStream, new byte[(int) hashTransferProperties.getUploadBufferSize().toBytes()]);
+        }
+        TreeHash treeHash = treeHashOutputStream != null ? treeHashOutputStream.finish() : null;
+        return new StagedContent(contentEncoding, size, treeHash);
+    }
+
+    /**
+     * A content written to its staged file.
+     * @param contentEncoding The encoding the content is stored with, or null if it is stored as is.
+     * @param size The size of the content (uncompressed).
+     * @param treeHash The tree hash of the content, or null if tree hashing is disabled.
+     */
+    private record StagedContent(String contentEncoding, long size, TreeHash treeHash) {}
+
+    /**
+     * Run the upload and download paths on synthetic contents (text and binary), so that their classes are loaded and
+     * their hot loops compiled before the first transfers.
+     * Each content goes through the digests, compression, tree hash and copy of an upload into a staging directory,
+     * is read back as a download would, and is discarded: nothing is stored, indexed nor counted.
+     * @param size The total size of the synthetic contents.
+     */
+    public void warmUp(long size) {
+        byte[] textBlock = new byte[WARM_UP_BLOCK_SIZE];
+        byte[] binaryBlock = new byte[WARM_UP_BLOCK_SIZE];
+        Random random = new Random(0);
+        for (int i = 0; i < WARM_UP_BLOCK_SIZE; i++) {
+            textBlock[i] = (byte) (i % 64 == 63 ? '\n' : 'a' + random.nextInt(8));
+        }
+        random.nextBytes(binaryBlock);
+
+        long rounds = Math.max(size / (2L * WARM_UP_BLOCK_SIZE), 1);
+        for (long round = 0; round < rounds; round++) {
+            WarmUpRound("warm-up.txt", MediaType.TEXT_PLAIN_VALUE, textBlock);
+            WarmUpRound("warm-up.bin", MediaType.APPLICATION_OCTET_STREAM_VALUE, binaryBlock);
+        }
+    }
+
+    private void WarmUpRound(String fileName, String contentType, byte[] content) {
+        Path stagedFileDirectoryPath = CreateStagingDirectory(UUID.randomUUID().toString());
+        try {
+            Path uploadedFilePath = LocalStorageFileUtils.GetUploadedFilePath(stagedFileDirectoryPath, fileName);
+            Map<String, MessageDigest> messageDigests = ContentDigestHeaderUtils.createMessageDigests(ResolveDigestAlgorithms(Map.of(), List.of()));
+            StagedContent stagedContent;
+            try (InputStream digestInputStream = ChainDigestInputStreams(new ByteArrayInputStream(content), messageDigests.values())) {
+                stagedContent = WriteStagedFile(uploadedFilePath, fileName, contentType, digestInputStream, new HashTransferMetrics.PhaseClock());
+            }
+            ContentDigestHeaderUtils.formatHexDigests(messageDigests);
+
+            Resource fileResource = new FileSystemResource(uploadedFilePath);
+            if (stagedContent.contentEncoding() != null) {
+                fileResource = storageCompressor.decompress(fileResource, stagedContent.size());
+            }
+            try (InputStream inputStream = fileResource.getInputStream()) {
+                inputStream.transferTo(OutputStream.nullOutputStream());
+            }
         } catch (IOException e) {
-            log.error("Error writing uploaded file: {}", e.getMessage());
-            throw new DataAccessException("Could not write uploaded file: " + e.getMessage());
+            log.warn("Error during warm-up: {}", e.getMessage());
+        } finally {
+            DiscardStagingDirectory(stagedFileDirectoryPath);
         }
+    }
 
-        Path fileMetadataFilePath = uploadedFileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize();
-        WriteFileMetadataToPath(fileMetadataFilePath, new FileData(contentType, fileName, computedSha256));
+    /**
+     * Import a file whose content has already been received and hashed elsewhere (e.g. by a resumable upload session).
+     * The source file is moved into the storage directory, no byte is copied when both are on the same filesystem.
+     * It is therefore stored as is, even if its content type is compressible.
+     * @param fileName The original name of the file.
+     * @param contentType The MIME type of the file.
+     * @param expectedDigests The digests of the file provided by caller, by algorithm.
+     * @param computedDigests The digests computed while the file was received, by algorithm (including SHA-256).
+     * @param sourceFilePath The path of the received file.
+     * @param owner The client the file is accounted to for the storage quotas, or null if it has none.
+     * @return A FileUploadResponse containing the file ID and status message.
+     */
+    public FileUploadResponse importFile(String fileName, String contentType, Map<String, String> expectedDigests, Map<String, String> computedDigests, Path sourceFilePath, String owner) {
+
+        log.debug("Received file import request: originalFilename={}, contentType={}, source={}", fileName, contentType, sourceFilePath);
+
+        CheckReservedFileName(fileName);
+        CheckDigests(computedDigests, expectedDigests, fileName);
+
+        String fileId = UUID.randomUUID().toString();
+        Instant expiresAt = ComputeExpiration();
+        Path stagedFileDirectoryPath = CreateStagingDirectory(fileId);
+
+        Path uploadedFilePath = null;
+        try {
+            uploadedFilePath = LocalStorageFileUtils.GetUploadedFilePath(stagedFileDirectoryPath, fileName);
+            long size;
+            try {
+                Files.move(sourceFilePath, uploadedFilePath);
+                size = Files.size(uploadedFilePath);
+            } catch (IOException e) {
+                log.error("Error moving imported file: {}", e.getMessage());
+                throw new DataAccessException("Could not move imported file: " + e.getMessage());
+            }
+
+            // The content is read again for the tree hash, but in parallel chunks
+            TreeHash treeHash = ComputeTreeHash(uploadedFilePath);
 
-        return new FileUploadResponse(fileId, fileName, "File uploaded successfully");
+            String computedSha256 = computedDigests.get(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+            OnFileStored(uploadedFilePath, computedSha256, null);
+
+            return WriteFileRecord(fileId, stagedFileDirectoryPath, new FileData(contentType, fileName, computedSha256, computedDigests, null, size, null, expiresAt, owner), treeHash);
+        } catch (RuntimeException e) {
+            if (uploadedFilePath != null) {
+                RestoreImportedFile(uploadedFilePath, sourceFilePath);
+            }
+            DiscardStagingDirectory(stagedFileDirectoryPath);
+            throw e;
+        }
+    }
+
+    /**
+     * Move an imported file back to its source after a failed import, so that the import can be retried.
+     * @param uploadedFilePath The path the file was moved to in its staging directory.
+     * @param sourceFilePath The path the file was imported from.
+     */
+    private static void RestoreImportedFile(Path uploadedFilePath, Path sourceFilePath) {
+        if (Files.notExists(uploadedFilePath) || Files.exists(sourceFilePath)) {
+            return;
+        }
+        try {
+            Files.move(uploadedFilePath, sourceFilePath);
+        } catch (IOException e) {
+            log.error("Error moving imported file back to its source: {}", sourceFilePath, e);
+        }
     }
 
     /**
      * Purge expired files from the storage directory.
-     * Files older than the configured expiration time will be deleted.
+     * Expired files are taken from the expiry index, and deleted in parallel batches.
      */
     public void purgeExpiredFiles() {
-        log.debug("Purging files older than {} minutes", hashTransferProperties.getExpirationMinutes());
-
-        Path fileStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory());
+        log.debug("Purging expired files");
+
+        long startTime = System.nanoTime();
+        Instant now = Instant.now();
+        int expiredFileCount = 0;
+        int purgedFileCount = 0;
+
+        List<String> expiredFileIds;
+        while (!(expiredFileIds = fileExpiryIndex.pollExpired(now, hashTransferProperties.getPurgeBatchSize())).isEmpty()) {
+            List<String> batchFileIds = expiredFileIds;
+            purgedFileCount += purgePool.submit(() -> batchFileIds.parallelStream().filter(this::DeleteFile).count()).join().intValue();
+            expiredFileCount += batchFileIds.size();
+        }
 
-        long currentTime = System.currentTimeMillis();
-        long expirationMillis = hashTransferProperties.getExpirationMinutes() * 60L * 1000L;
+        hashTransferMetrics.recordPurge(System.nanoTime() - startTime, expiredFileCount, purgedFileCount);
+        log.debug("Purged {} of {} expired files", purgedFileCount, expiredFileCount);
+    }
 
-        try(Stream<Path> stream = Files.walk(fileStorageDirectoryPath)) {
+    /**
+     * Delete a file directory and remove the file from the metadata index.
+     * A file whose directory could not be deleted stays indexed, and is put back in the expiry index to be retried
+     * after {@link #PURGE_RETRY_DELAY}.
+     * @param fileId The ID of the file to delete.
+     * @return true if the directory was deleted, false otherwise.
+     */
+    protected boolean DeleteFile(String fileId) {
+        Path fileDirectoryPath = GetFileDirectoryPath(fileId);
+        log.debug("Purging expired file directory: {}", fileDirectoryPath);
 
-            stream.filter(Files::isDirectory)
-                    .filter(path -> !path.equals(fileStorageDirectoryPath))
-                    .forEach(path -> {
-                        try {
-                            long lastModifiedTime = Files.getLastModifiedTime(path).toMillis();
+        FileData fileData;
+        try {
+            fileData = LookupFileData(fileId, fileDirectoryPath).orElse(null);
+        } catch (UnreadableMetadataException _) {
+            fileData = null;
+        }
 
-                            if (currentTime - lastModifiedTime > expirationMillis) {
-                                log.debug("Purging expired file directory: {}", path);
-                                FileUtils.deleteDirectory(path.toFile());
-                            }
-                        } catch (IOException e) {
-                            log.error("Error while checking expiration for directory: {}", path, e);
-                        }
-                    });
+        // The directory may be missing, e.g. for a file evicted from the local cache of an object store
+        boolean stored = fileData != null && Files.isDirectory(fileDirectoryPath);
+        long storedFileSize = stored ? GetStoredFileSize(fileDirectoryPath, fileData) : 0;
 
+        hotFileCache.invalidate(fileId);
+        try {
+            FileUtils.deleteDirectory(fileDirectoryPath.toFile());
         } catch (IOException e) {
-            log.error("Error while purging expired files", e);
+            log.error("Error while deleting expired directory, retrying in {}: {}", PURGE_RETRY_DELAY, fileDirectoryPath, e);
+            fileExpiryIndex.add(fileId, Instant.now().plus(PURGE_RETRY_DELAY));
+            return false;
+        }
+        // Only now, as a lookup would otherwise load the metadata back from the remaining directory
+        fileMetadataIndex.remove(fileId);
+        if (stored) {
+            storageUsage.remove(fileData.owner(), storedFileSize);
         }
+        OnFileDeleted(fileId, fileData);
+        return true;
     }
 
 }
@@ -8,11 +8,15 @@ import lombok.extern.slf4j.Slf4j;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.regex.Pattern;
 
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class LocalStorageFileUtils {
 
+    private static final int SHARD_NAME_LENGTH = 2;
+    private static final Pattern SHARD_NAME_PATTERN = Pattern.compile("[0-9a-f]{" + SHARD_NAME_LENGTH + "}");
+
     /**
      * Get the absolute normalized path of the file storage directory.
      * If the directory does not exist, it is created.
@@ -38,13 +42,42 @@ public class LocalStorageFileUtils {
      * @return the path to the file directory
      */
     public static Path GetFileDirectoryPath(Path fileStorageDirectoryPath, String fileId) {
-        Path fileDirectoryPath = fileStorageDirectoryPath.resolve(fileId).normalize();
-        if (!fileDirectoryPath.startsWith(fileStorageDirectoryPath)) {
+        return GetFileDirectoryPath(fileStorageDirectoryPath, fileId, 0);
+    }
+
+    /**
+     * Get file directory path for a given file id, in a sharded layout.
+     * Each shard level is named after the next two characters of the file id, e.g. "ab/cd/abcd1234-..." for a depth of 2.
+     * Performs path traversal validation.
+     * @param fileStorageDirectoryPath the path to the file storage directory
+     * @param fileId the file id
+     * @param shardDepth the number of shard levels (0 for a flat layout)
+     * @return the path to the file directory
+     */
+    public static Path GetFileDirectoryPath(Path fileStorageDirectoryPath, String fileId, int shardDepth) {
+        if (fileId.length() < SHARD_NAME_LENGTH * shardDepth) {
+            throw new InvalidFilePathException("File id is too short");
+        }
+        Path fileDirectoryPath = fileStorageDirectoryPath;
+        for (int level = 0; level < shardDepth; level++) {
+            fileDirectoryPath = fileDirectoryPath.resolve(fileId.substring(level * SHARD_NAME_LENGTH, (level + 1) * SHARD_NAME_LENGTH));
+        }
+        fileDirectoryPath = fileDirectoryPath.resolve(fileId).normalize();
+        if (!fileDirectoryPath.startsWith(fileStorageDirectoryPath) || fileDirectoryPath.getNameCount() != fileStorageDirectoryPath.getNameCount() + shardDepth + 1) {
             throw new InvalidFilePathException("File id cannot contain path traversal sequences");
         }
         return fileDirectoryPath;
     }
 
+    /**
+     * Whether a directory of the storage directory is a shard directory (as opposed to a file directory).
+     * @param directoryPath the path to the directory
+     * @return true if the directory is a shard directory
+     */
+    public static boolean IsShardDirectory(Path directoryPath) {
+        return SHARD_NAME_PATTERN.matcher(directoryPath.getFileName().toString()).matches();
+    }
+
     /**
      * Get the absolute normalized path of an uploaded file.
      * Performs path traversal validation.
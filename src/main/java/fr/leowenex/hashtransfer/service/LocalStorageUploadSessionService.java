@@ -0,0 +1,646 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.ByteRange;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.UploadSessionData;
+import fr.leowenex.hashtransfer.dto.UploadSessionRequest;
+import fr.leowenex.hashtransfer.exception.DataAccessException;
+import fr.leowenex.hashtransfer.exception.InvalidFilePathException;
+import fr.leowenex.hashtransfer.exception.UnreadableMetadataException;
+import fr.leowenex.hashtransfer.exception.UploadSessionStateException;
+import fr.leowenex.hashtransfer.util.ContentDigestHeaderUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.util.ObjectUtils;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LocalStorageUploadSessionService implements UploadSessionService {
+
+    private static final String SESSION_FILE_NAME = "session.json";
+    private static final String SESSION_DATA_FILE_NAME = "data";
+    private static final int DIGEST_REBUILD_BUFFER_SIZE = 64 * 1024;
+
+    private final HashTransferProperties hashTransferProperties;
+
+    private final ObjectMapper objectMapper;
+
+    private final FileService fileService;
+
+    private final DiskBandwidthLimiter diskBandwidthLimiter;
+
+    private final StorageQuota storageQuota;
+
+    /**
+     * Live state of the upload sessions, keyed by upload ID.
+     * The running digest only lives in memory: after a restart, it is rebuilt once from the received bytes.
+     * Parallel chunks share the read lock of the session (their range bookkeeping is synchronized on the state), the
+     * other operations take its write lock.
+     * Each live session holds a reservation of its declared size against the storage quotas, released when it is deleted.
+     */
+    private final Map<String, UploadSessionState> sessionStates = new ConcurrentHashMap<>();
+
+    private static final class UploadSessionState {
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+        private final StorageQuota.Reservation reservation;
+        private UploadSessionData sessionData;
+        private Map<String, MessageDigest> messageDigests;
+
+        private UploadSessionState(UploadSessionData sessionData, StorageQuota.Reservation reservation) {
+            this.sessionData = sessionData;
+            this.reservation = reservation;
+        }
+    }
+
+    /**
+     * Get the directory of an upload session.
+     * Performs path traversal validation.
+     * @param uploadId The ID of the upload session.
+     * @return The path to the session directory.
+     */
+    private Path GetSessionDirectoryPath(String uploadId) {
+        Path sessionStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getUploadSessionDirectory());
+        Path sessionDirectoryPath = sessionStorageDirectoryPath.resolve(uploadId).normalize();
+        if (!sessionDirectoryPath.startsWith(sessionStorageDirectoryPath) || sessionDirectoryPath.equals(sessionStorageDirectoryPath)) {
+            throw new InvalidFilePathException("Upload id cannot contain path traversal sequences");
+        }
+        return sessionDirectoryPath;
+    }
+
+    /**
+     * Read upload session data from its session directory.
+     * @param sessionDirectoryPath The path to the session directory.
+     * @return The UploadSessionData object.
+     */
+    private UploadSessionData ReadSessionData(Path sessionDirectoryPath) {
+        try {
+            return objectMapper.readValue(Files.readString(sessionDirectoryPath.resolve(SESSION_FILE_NAME)), UploadSessionData.class);
+        } catch (IOException e) {
+            log.error("Error reading upload session file: {}", e.getMessage());
+            throw new UnreadableMetadataException(e.getMessage());
+        }
+    }
+
+    /**
+     * Write upload session data to its session directory.
+     * @param sessionDirectoryPath The path to the session directory.
+     * @param sessionData The UploadSessionData object to write.
+     */
+    private void WriteSessionData(Path sessionDirectoryPath, UploadSessionData sessionData) {
+        String sessionJson = objectMapper.writeValueAsString(sessionData);
+        try {
+            Files.writeString(sessionDirectoryPath.resolve(SESSION_FILE_NAME), sessionJson);
+        } catch (IOException e) {
+            log.error("Error writing upload session file: {}", e.getMessage());
+            throw new DataAccessException("Could not write upload session file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Get the live state of an upload session, loading it from disk if needed.
+     * A session loaded from disk was admitted before a restart: its reservation is restored without checking the quotas.
+     * @param uploadId The ID of the upload session.
+     * @return An Optional containing the session state if the session exists, or empty if not.
+     */
+    private Optional<UploadSessionState> GetSessionState(String uploadId) {
+        Path sessionDirectoryPath = GetSessionDirectoryPath(uploadId);
+        return Optional.ofNullable(sessionStates.computeIfAbsent(uploadId, _ -> {
+            if (!sessionDirectoryPath.resolve(SESSION_FILE_NAME).toFile().exists()) {
+                return null;
+            }
+            UploadSessionData sessionData = ReadSessionData(sessionDirectoryPath);
+            return new UploadSessionState(sessionData, storageQuota.restore(sessionData.owner(), sessionData.fileSize()));
+        }));
+    }
+
+    /**
+     * Lock a session for exclusive use. Only one request may write to a given session at a time.
+     * @param sessionState The state of the session to lock.
+     */
+    private static void LockSession(UploadSessionState sessionState) {
+        if (!sessionState.lock.writeLock().tryLock()) {
+            throw new UploadSessionStateException("Another request is already writing to this upload session");
+        }
+    }
+
+    /**
+     * Lock a session for a parallel chunk. Parallel chunks may be written at the same time, but not while the session
+     * is locked for exclusive use.
+     * @param sessionState The state of the session to lock.
+     */
+    private static void LockSessionShared(UploadSessionState sessionState) {
+        if (!sessionState.lock.readLock().tryLock()) {
+            throw new UploadSessionStateException("Another request is already writing to this upload session");
+        }
+    }
+
+    /**
+     * Create the running digests of a session: SHA-256 and the configured content digest algorithms.
+     * @return The MessageDigests by algorithm.
+     */
+    private Map<String, MessageDigest> CreateSessionDigests() {
+        Set<String> digestAlgorithms = new TreeSet<>(hashTransferProperties.getContentDigestAlgorithms());
+        digestAlgorithms.add(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+        return ContentDigestHeaderUtils.createMessageDigests(digestAlgorithms);
+    }
+
+    /**
+     * Get the running digests of a session, rebuilding them from the received bytes after a restart.
+     * Bytes past the committed offset (left by an interrupted write) are discarded.
+     * Must be called with the session write lock held, and no range received past the committed offset.
+     * @param sessionState The state of the session.
+     * @param dataFilePath The path to the session data file.
+     * @return The digests of all the committed bytes, by algorithm.
+     */
+    private Map<String, MessageDigest> GetSessionDigests(UploadSessionState sessionState, Path dataFilePath) throws IOException {
+        if (sessionState.messageDigests == null) {
+            long offset = sessionState.sessionData.offset();
+            log.debug("Rebuilding digests of upload session: uploadId={}, offset={}", sessionState.sessionData.uploadId(), offset);
+            Map<String, MessageDigest> messageDigests = CreateSessionDigests();
+            try (FileChannel channel = FileChannel.open(dataFilePath, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                channel.truncate(offset);
+                ByteBuffer buffer = ByteBuffer.allocate(DIGEST_REBUILD_BUFFER_SIZE);
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    for (MessageDigest messageDigest : messageDigests.values()) {
+                        messageDigest.update(buffer.duplicate());
+                    }
+                    buffer.clear();
+                }
+            }
+            sessionState.messageDigests = messageDigests;
+        }
+        return sessionState.messageDigests;
+    }
+
+    /**
+     * Create a new upload session, reserving the declared file size against the storage quotas.
+     * @param uploadSessionRequest The description of the file to upload.
+     * @param owner The client the session and its file are accounted to for the storage quotas.
+     * @return The UploadSessionData of the created session, with an offset of 0.
+     */
+    public UploadSessionData createSession(UploadSessionRequest uploadSessionRequest, String owner) {
+
+        log.debug("Received upload session creation request: {}", uploadSessionRequest);
+
+        if (ObjectUtils.isEmpty(uploadSessionRequest.filename())) {
+            throw new InvalidFilePathException("File must have a filename");
+        }
+        if (uploadSessionRequest.filename().equals(hashTransferProperties.getMetadataFileName())) {
+            throw new InvalidFilePathException("This file name is reserved and cannot be used");
+        }
+        if (uploadSessionRequest.fileSize() < 0 || uploadSessionRequest.fileSize() > hashTransferProperties.getMaxUploadSize().toBytes()) {
+            throw new IllegalArgumentException("File size must be between 0 and the maximum upload size");
+        }
+
+        String uploadId = UUID.randomUUID().toString();
+        Path sessionDirectoryPath = GetSessionDirectoryPath(uploadId);
+        // Rejected now rather than at completion, once the whole file is uploaded
+        LocalStorageFileUtils.GetUploadedFilePath(sessionDirectoryPath, uploadSessionRequest.filename());
+
+        StorageQuota.Reservation reservation = storageQuota.reserve(owner, uploadSessionRequest.fileSize());
+        try {
+            if (!sessionDirectoryPath.toFile().mkdirs()) {
+                throw new DataAccessException("Could not create upload session directory");
+            }
+
+            UploadSessionData sessionData = new UploadSessionData(
+                    uploadId,
+                    uploadSessionRequest.filename(),
+                    uploadSessionRequest.fileSize(),
+                    uploadSessionRequest.contentType(),
+                    uploadSessionRequest.sha256(),
+                    0L,
+                    null,
+                    owner
+            );
+            WriteSessionData(sessionDirectoryPath, sessionData);
+
+            UploadSessionState sessionState = new UploadSessionState(sessionData, reservation);
+            sessionState.messageDigests = CreateSessionDigests();
+            sessionStates.put(uploadId, sessionState);
+
+            return sessionData.withoutOwner();
+        } catch (RuntimeException e) {
+            reservation.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Query the state of an upload session.
+     * @param uploadId The ID of the upload session.
+     * @return An Optional containing the UploadSessionData (with the committed offset) if the session exists, or empty if not.
+     */
+    public Optional<UploadSessionData> querySession(String uploadId) {
+        log.debug("Received upload session query request: uploadId={}", uploadId);
+        return GetSessionState(uploadId).map(sessionState -> sessionState.sessionData.withoutOwner());
+    }
+
+    /**
+     * Append a chunk to an upload session.
+     * The chunk must start at the committed offset. The bytes received before an interrupted transfer are kept,
+     * so the client can resume from the new committed offset.
+     * @param uploadId The ID of the upload session.
+     * @param offset The offset of the first byte of the chunk.
+     * @param inputStream The InputStream of the chunk (to be closed by the caller).
+     * @return An Optional containing the updated UploadSessionData if the session exists, or empty if not.
+     */
+    public Optional<UploadSessionData> appendChunk(String uploadId, long offset, InputStream inputStream) {
+
+        log.debug("Received upload chunk: uploadId={}, offset={}", uploadId, offset);
+
+        Optional<UploadSessionState> optionalSessionState = GetSessionState(uploadId);
+        if (optionalSessionState.isEmpty()) {
+            return Optional.empty();
+        }
+        UploadSessionState sessionState = optionalSessionState.get();
+
+        LockSession(sessionState);
+        try {
+            UploadSessionData sessionData = sessionState.sessionData;
+            if (offset != sessionData.offset()) {
+                throw new UploadSessionStateException("Chunk offset does not match the committed offset " + sessionData.offset());
+            }
+            if (sessionData.hasReceivedRanges()) {
+                throw new UploadSessionStateException("Upload session has received parallel chunks past the committed offset");
+            }
+
+            Path sessionDirectoryPath = GetSessionDirectoryPath(uploadId);
+            Path dataFilePath = sessionDirectoryPath.resolve(SESSION_DATA_FILE_NAME);
+
+            long committedOffset = offset;
+            try (FileChannel channel = FileChannel.open(dataFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                Collection<MessageDigest> messageDigests = GetSessionDigests(sessionState, dataFilePath).values();
+                channel.truncate(offset);
+                channel.position(offset);
+
+                InputStream limitedInputStream = diskBandwidthLimiter.limit(inputStream);
+                byte[] buffer = new byte[(int) hashTransferProperties.getUploadBufferSize().toBytes()];
+                while (true) {
+                    int read;
+                    try {
+                        read = limitedInputStream.read(buffer);
+                    } catch (IOException e) {
+                        log.warn("Upload chunk interrupted: uploadId={}, receivedUpTo={}, error={}", uploadId, committedOffset, e.getMessage());
+                        break;
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                    if (committedOffset + read > sessionData.fileSize()) {
+                        throw new UploadSessionStateException("Chunk goes past the declared file size");
+                    }
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        channel.write(byteBuffer);
+                    }
+                    for (MessageDigest messageDigest : messageDigests) {
+                        messageDigest.update(buffer, 0, read);
+                    }
+                    committedOffset += read;
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Error writing upload chunk: {}", e.getMessage());
+                throw new DataAccessException("Could not write upload chunk: " + e.getMessage());
+            } finally {
+                if (committedOffset != sessionData.offset()) {
+                    sessionState.sessionData = sessionData.withOffset(committedOffset);
+                    WriteSessionData(sessionDirectoryPath, sessionState.sessionData);
+                }
+            }
+
+            return Optional.of(sessionState.sessionData.withoutOwner());
+        } finally {
+            sessionState.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Write a chunk at any offset of an upload session, in parallel with the other chunks of the session.
+     * The chunk is only recorded once all its bytes are received: an interrupted chunk must be sent again as a whole.
+     * Chunks may overlap the bytes already received, which are then overwritten (e.g. a chunk sent again after a lost
+     * response). As the bytes do not arrive in order, the digests of the session are rebuilt from the received bytes
+     * at completion.
+     * @param uploadId The ID of the upload session.
+     * @param offset The offset of the first byte of the chunk.
+     * @param length The length of the chunk.
+     * @param inputStream The InputStream of the chunk (to be closed by the caller).
+     * @return An Optional containing the updated UploadSessionData if the session exists, or empty if not.
+     */
+    public Optional<UploadSessionData> writeChunk(String uploadId, long offset, long length, InputStream inputStream) {
+
+        log.debug("Received parallel upload chunk: uploadId={}, offset={}, length={}", uploadId, offset, length);
+
+        Optional<UploadSessionState> optionalSessionState = GetSessionState(uploadId);
+        if (optionalSessionState.isEmpty()) {
+            return Optional.empty();
+        }
+        UploadSessionState sessionState = optionalSessionState.get();
+
+        LockSessionShared(sessionState);
+        try {
+            long fileSize = sessionState.sessionData.fileSize();
+            if (offset < 0 || length <= 0 || offset + length > fileSize) {
+                throw new UploadSessionStateException("Chunk must be within the declared file size of " + fileSize + " bytes");
+            }
+
+            Path sessionDirectoryPath = GetSessionDirectoryPath(uploadId);
+            Path dataFilePath = sessionDirectoryPath.resolve(SESSION_DATA_FILE_NAME);
+
+            // The chunk may overwrite committed bytes: the running digests are dropped, to be rebuilt at completion
+            synchronized (sessionState) {
+                sessionState.messageDigests = null;
+            }
+
+            long position = offset;
+            try (FileChannel channel = FileChannel.open(dataFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                InputStream limitedInputStream = diskBandwidthLimiter.limit(inputStream);
+                byte[] buffer = new byte[(int) hashTransferProperties.getUploadBufferSize().toBytes()];
+                while (true) {
+                    int read;
+                    try {
+                        read = limitedInputStream.read(buffer);
+                    } catch (IOException e) {
+                        log.warn("Parallel upload chunk interrupted: uploadId={}, offset={}, receivedUpTo={}, error={}", uploadId, offset, position, e.getMessage());
+                        break;
+                    }
+                    if (read == -1) {
+                        break;
+                    }
+                    if (position + read > offset + length) {
+                        throw new UploadSessionStateException("Chunk is longer than its declared length");
+                    }
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                    while (byteBuffer.hasRemaining()) {
+                        position += channel.write(byteBuffer, position);
+                    }
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                log.error("Error writing parallel upload chunk: {}", e.getMessage());
+                throw new DataAccessException("Could not write upload chunk: " + e.getMessage());
+            }
+
+            synchronized (sessionState) {
+                if (position == offset + length) {
+                    RecordReceivedRange(sessionState, new ByteRange(offset, position));
+                    WriteSessionData(sessionDirectoryPath, sessionState.sessionData);
+                }
+                return Optional.of(sessionState.sessionData.withoutOwner());
+            }
+        } finally {
+            sessionState.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Record a range received by a parallel chunk: it is merged with the committed bytes and the other received ranges,
+     * and the committed offset moves forward when the bytes following it are received.
+     * Must be called while synchronized on the session state.
+     * @param sessionState The state of the session.
+     * @param receivedRange The received range.
+     */
+    private static void RecordReceivedRange(UploadSessionState sessionState, ByteRange receivedRange) {
+        UploadSessionData sessionData = sessionState.sessionData;
+
+        List<ByteRange> ranges = new ArrayList<>();
+        if (sessionData.offset() > 0) {
+            ranges.add(new ByteRange(0, sessionData.offset()));
+        }
+        if (sessionData.hasReceivedRanges()) {
+            ranges.addAll(sessionData.receivedRanges());
+        }
+        ranges.add(receivedRange);
+        ranges.sort(Comparator.comparingLong(ByteRange::start));
+
+        List<ByteRange> mergedRanges = new ArrayList<>();
+        for (ByteRange range : ranges) {
+            ByteRange lastRange = mergedRanges.isEmpty() ? null : mergedRanges.getLast();
+            if (lastRange != null && range.start() <= lastRange.end()) {
+                mergedRanges.set(mergedRanges.size() - 1, new ByteRange(lastRange.start(), Math.max(lastRange.end(), range.end())));
+            } else {
+                mergedRanges.add(range);
+            }
+        }
+
+        long offset = 0;
+        if (mergedRanges.getFirst().start() == 0) {
+            offset = mergedRanges.removeFirst().end();
+        }
+        sessionState.sessionData = sessionData.withReceivedRanges(offset, mergedRanges.isEmpty() ? null : mergedRanges);
+    }
+
+    /**
+     * Complete an upload session. All the declared bytes must have been received.
+     * The received file is handed over to the FileService with its digests, which are not recomputed (they are only
+     * computed there, from the received bytes, for a session that received parallel chunks).
+     * The digests can be checked against the ones provided at completion, in addition to the SHA-256 provided at creation.
+     * A failed completion leaves the received bytes in the session, so that the completion can be retried.
+     * @param uploadId The ID of the upload session.
+     * @param expectedDigests The digests provided by the client at completion, by algorithm (SHA-256 or one of the configured algorithms).
+     * @return An Optional containing the FileUploadResponse if the session exists, or empty if not.
+     */
+    public Optional<FileUploadResponse> completeSession(String uploadId, Map<String, String> expectedDigests) {
+
+        log.debug("Received upload session completion request: uploadId={}", uploadId);
+
+        Optional<UploadSessionState> optionalSessionState = GetSessionState(uploadId);
+        if (optionalSessionState.isEmpty()) {
+            return Optional.empty();
+        }
+        UploadSessionState sessionState = optionalSessionState.get();
+
+        LockSession(sessionState);
+        try {
+            UploadSessionData sessionData = sessionState.sessionData;
+            if (sessionData.offset() != sessionData.fileSize()) {
+                throw new UploadSessionStateException("Upload session is incomplete: " + sessionData.offset() + " of " + sessionData.fileSize() + " bytes received");
+            }
+
+            Path sessionDirectoryPath = GetSessionDirectoryPath(uploadId);
+            Path dataFilePath = sessionDirectoryPath.resolve(SESSION_DATA_FILE_NAME);
+
+            FileUploadResponse uploadResponse;
+            try {
+                Map<String, String> computedDigests;
+                try {
+                    if (Files.notExists(dataFilePath)) {
+                        // The received bytes are lost, the session can never be completed
+                        if (sessionData.offset() > 0) {
+                            DeleteSession(uploadId, sessionDirectoryPath);
+                            throw new DataAccessException("The received bytes of the upload session are missing, the session is discarded");
+                        }
+                        // An empty file receives no chunk
+                        Files.createFile(dataFilePath);
+                    }
+                    Map<String, MessageDigest> messageDigests = new TreeMap<>();
+                    for (Map.Entry<String, MessageDigest> messageDigest : GetSessionDigests(sessionState, dataFilePath).entrySet()) {
+                        messageDigests.put(messageDigest.getKey(), (MessageDigest) messageDigest.getValue().clone());
+                    }
+                    computedDigests = ContentDigestHeaderUtils.formatHexDigests(messageDigests);
+                } catch (IOException | CloneNotSupportedException e) {
+                    log.error("Error computing upload session digest: {}", e.getMessage());
+                    throw new DataAccessException("Could not compute upload session digest: " + e.getMessage());
+                }
+
+                for (String algorithm : expectedDigests.keySet()) {
+                    if (!computedDigests.containsKey(algorithm)) {
+                        throw new UploadSessionStateException("Digest algorithm not computed by upload sessions: " + algorithm);
+                    }
+                }
+                if (!ObjectUtils.isEmpty(sessionData.sha256())) {
+                    String expectedSha256 = expectedDigests.get(ContentDigestHeaderUtils.SHA256_ALGORITHM);
+                    if (expectedSha256 != null && !expectedSha256.equalsIgnoreCase(sessionData.sha256())) {
+                        throw new UploadSessionStateException("SHA-256 digest does not match the one provided at session creation");
+                    }
+                    expectedDigests = new HashMap<>(expectedDigests);
+                    expectedDigests.putIfAbsent(ContentDigestHeaderUtils.SHA256_ALGORITHM, sessionData.sha256());
+                }
+
+                uploadResponse = fileService.importFile(
+                        sessionData.filename(),
+                        sessionData.contentType(),
+                        expectedDigests,
+                        computedDigests,
+                        dataFilePath,
+                        sessionData.owner()
+                );
+            } catch (RuntimeException e) {
+                // The digests are rebuilt from the received bytes at the next attempt
+                sessionState.messageDigests = null;
+                throw e;
+            }
+
+            DeleteSession(uploadId, sessionDirectoryPath);
+            return Optional.of(uploadResponse);
+        } finally {
+            sessionState.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Abort an upload session and delete the received bytes.
+     * @param uploadId The ID of the upload session.
+     * @return true if the session existed, false if not.
+     */
+    public boolean abortSession(String uploadId) {
+
+        log.debug("Received upload session abort request: uploadId={}", uploadId);
+
+        Optional<UploadSessionState> optionalSessionState = GetSessionState(uploadId);
+        if (optionalSessionState.isEmpty()) {
+            return false;
+        }
+        UploadSessionState sessionState = optionalSessionState.get();
+
+        LockSession(sessionState);
+        try {
+            DeleteSession(uploadId, GetSessionDirectoryPath(uploadId));
+        } finally {
+            sessionState.lock.writeLock().unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Delete an upload session from disk and memory, and release its reservation.
+     * The session file is deleted first, so that a concurrent request can no longer load the session (and restore its
+     * reservation) once it is removed from memory. A session whose file could not be deleted is kept, to be purged later.
+     * @param uploadId The ID of the upload session.
+     * @param sessionDirectoryPath The path to the session directory.
+     */
+    private void DeleteSession(String uploadId, Path sessionDirectoryPath) {
+        try {
+            Files.deleteIfExists(sessionDirectoryPath.resolve(SESSION_FILE_NAME));
+        } catch (IOException e) {
+            log.error("Error deleting upload session file: {}", sessionDirectoryPath, e);
+            return;
+        }
+        UploadSessionState sessionState = sessionStates.remove(uploadId);
+        if (sessionState != null) {
+            sessionState.reservation.close();
+        }
+        try {
+            FileUtils.deleteDirectory(sessionDirectoryPath.toFile());
+        } catch (IOException e) {
+            log.error("Error deleting upload session directory: {}", sessionDirectoryPath, e);
+        }
+    }
+
+    /**
+     * Purge the upload sessions that did not receive any chunk for longer than the configured expiration time.
+     */
+    public void purgeExpiredSessions() {
+        log.debug("Purging upload sessions inactive for more than {} minutes", hashTransferProperties.getExpirationMinutes());
+
+        Path sessionStorageDirectoryPath = LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getUploadSessionDirectory());
+
+        long currentTime = System.currentTimeMillis();
+        long expirationMillis = hashTransferProperties.getExpirationMinutes() * 60L * 1000L;
+
+        try (Stream<Path> stream = Files.list(sessionStorageDirectoryPath)) {
+
+            stream.filter(Files::isDirectory)
+                    .forEach(path -> {
+                        try {
+                            Path sessionFilePath = path.resolve(SESSION_FILE_NAME);
+                            Path lastActivityPath = Files.exists(sessionFilePath) ? sessionFilePath : path;
+                            long lastModifiedTime = Files.getLastModifiedTime(lastActivityPath).toMillis();
+
+                            if (currentTime - lastModifiedTime > expirationMillis) {
+                                String uploadId = path.getFileName().toString();
+                                UploadSessionState sessionState = sessionStates.get(uploadId);
+                                if (sessionState != null && !sessionState.lock.writeLock().tryLock()) {
+                                    // A chunk is being received right now
+                                    return;
+                                }
+                                try {
+                                    log.debug("Purging expired upload session directory: {}", path);
+                                    DeleteSession(uploadId, path);
+                                } finally {
+                                    if (sessionState != null) {
+                                        sessionState.lock.writeLock().unlock();
+                                    }
+                                }
+                            }
+                        } catch (IOException e) {
+                            log.error("Error while checking expiration for upload session directory: {}", path, e);
+                        }
+                    });
+
+        } catch (IOException e) {
+            log.error("Error while purging expired upload sessions", e);
+        }
+    }
+
+}
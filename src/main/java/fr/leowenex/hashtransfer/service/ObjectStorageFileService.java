@@ -0,0 +1,338 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.exception.DataAccessException;
+import fr.leowenex.hashtransfer.exception.FileContentMissingException;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Variant of the local storage backed by a shared object store, so that several nodes can serve the same files
+ * behind a load balancer.
+ * <p>
+ * Files are staged and verified locally as usual, then stored in the object store under "files/&lt;fileId&gt;/" before being
+ * published. The storage directory is a local cache of the hot files: files uploaded by other nodes are fetched on
+ * their first download, and the least recently used files are evicted once the cache is over its size.
+ * <p>
+ * Each file has an expiry marker "expiry/&lt;expiration epoch second&gt;/&lt;fileId&gt;", listed in expiration order by the purge,
+ * so that every node can purge the expired files of the whole store without reading their metadata.
+ * Resumable upload sessions stay local to a node: the load balancer must keep a session on the node that created it.
+ * The storage usage, and so the storage quotas, only count the files of the local cache.
+ */
+@Slf4j
+@Service
+@ConditionalOnProperty(prefix = "hashtransfer", name = "storage-layout", havingValue = "object-store")
+public class ObjectStorageFileService extends LocalStorageFileService {
+
+    private static final String FILE_KEY_PREFIX = "files/";
+    private static final String EXPIRY_KEY_PREFIX = "expiry/";
+    private static final int EXPIRY_KEY_EPOCH_LENGTH = 20;
+
+    private final StorageBackend storageBackend;
+
+    private final long cacheMaxBytes;
+
+    /**
+     * Owner and on-disk size of the cached files, least recently used first. Guarded by itself, as is cachedBytes.
+     */
+    private final LinkedHashMap<String, CachedFile> cachedFiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long cachedBytes;
+
+    private record CachedFile(String owner, long size) {}
+
+    /**
+     * Locks of the files being fetched from the object store, so that concurrent downloads fetch a file once.
+     */
+    private final Map<String, ReentrantLock> fetchLocks = new ConcurrentHashMap<>();
+
+    public ObjectStorageFileService(HashTransferProperties hashTransferProperties, ObjectMapper objectMapper, FileMetadataIndex fileMetadataIndex, FileExpiryIndex fileExpiryIndex, DiskBandwidthLimiter diskBandwidthLimiter, TreeHasher treeHasher, StorageCompressor storageCompressor, StorageUsage storageUsage, HashTransferMetrics hashTransferMetrics, HotFileCache hotFileCache, StorageBackend storageBackend) {
+        super(hashTransferProperties, objectMapper, fileMetadataIndex, fileExpiryIndex, diskBandwidthLimiter, treeHasher, storageCompressor, storageUsage, hashTransferMetrics, hotFileCache);
+        this.storageBackend = storageBackend;
+        this.cacheMaxBytes = hashTransferProperties.getObjectStoreCacheSize().toBytes();
+    }
+
+    private static String GetFileKeyPrefix(String fileId) {
+        return FILE_KEY_PREFIX + fileId + "/";
+    }
+
+    private static String GetExpiryKey(String fileId, Instant expiresAt) {
+        return EXPIRY_KEY_PREFIX + String.format("%0" + EXPIRY_KEY_EPOCH_LENGTH + "d", expiresAt.getEpochSecond()) + "/" + fileId;
+    }
+
+    private List<String> ListFileKeys(String fileId) throws IOException {
+        List<String> keys = new ArrayList<>();
+        storageBackend.list(GetFileKeyPrefix(fileId), keys::add);
+        return keys;
+    }
+
+    /**
+     * Store a staged file in the object store.
+     * The expiry marker is written first, so that even a partially stored file gets purged, and the metadata last, as
+     * a file only exists for the other nodes once its metadata is stored.
+     */
+    @Override
+    protected void OnFileStaged(String fileId, Path stagedFileDirectoryPath, FileData fileData) {
+        String fileKeyPrefix = GetFileKeyPrefix(fileId);
+        Path metadataFilePath = stagedFileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName());
+        try {
+            storageBackend.putBytes(GetExpiryKey(fileId, fileData.expiresAt()), new byte[0]);
+            try (Stream<Path> stream = Files.list(stagedFileDirectoryPath)) {
+                for (Path stagedFilePath : stream.filter(path -> !path.equals(metadataFilePath)).toList()) {
+                    storageBackend.putFile(fileKeyPrefix + stagedFilePath.getFileName(), stagedFilePath);
+                }
+            }
+            storageBackend.putFile(fileKeyPrefix + metadataFilePath.getFileName(), metadataFilePath);
+        } catch (IOException e) {
+            log.error("Error storing file in the object store: {}", e.getMessage());
+            throw new DataAccessException("Could not store uploaded file: " + e.getMessage());
+        }
+        log.debug("Stored file in the object store: fileId={}", fileId);
+    }
+
+    /**
+     * Load the metadata of a file missing from the metadata index, from the local cache or from the object store.
+     * The metadata of a file only found in the object store is added to the expiry index, so that it is dropped once
+     * the file expires, even if another node purges the file.
+     */
+    @Override
+    protected Optional<FileData> LoadFileData(String fileId, Path fileDirectoryPath) {
+        if (fileDirectoryPath.toFile().exists()) {
+            return Optional.of(ReadMetadataFromPath(fileDirectoryPath.resolve(hashTransferProperties.getMetadataFileName()).normalize()));
+        }
+        try {
+            Optional<FileData> fileData = storageBackend.getBytes(GetFileKeyPrefix(fileId) + hashTransferProperties.getMetadataFileName())
+                    .map(metadata -> objectMapper.readValue(metadata, FileData.class));
+            fileData.ifPresent(data -> fileExpiryIndex.add(fileId, data.expiresAt()));
+            return fileData;
+        } catch (IOException e) {
+            log.error("Error reading metadata from the object store: {}", e.getMessage());
+            throw new DataAccessException("Could not read file metadata: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Make sure that a file is in the local cache before it is read, fetching it from the object store if needed.
+     */
+    @Override
+    protected void PrepareFileDirectory(String fileId, Path fileDirectoryPath, FileData fileData) {
+        synchronized (cachedFiles) {
+            if (cachedFiles.get(fileId) != null) {
+                return;
+            }
+        }
+
+        ReentrantLock fetchLock = fetchLocks.computeIfAbsent(fileId, _ -> new ReentrantLock());
+        fetchLock.lock();
+        try {
+            if (!fileDirectoryPath.resolve(fileData.filename()).toFile().exists()) {
+                FetchFileDirectory(fileId, fileDirectoryPath, fileData);
+            } else {
+                // Evicted but not deleted yet: kept in the cache, the eviction is cancelled
+                OnFileDirectoryAvailable(fileId, fileDirectoryPath, fileData);
+            }
+        } finally {
+            fetchLock.unlock();
+            fetchLocks.remove(fileId, fetchLock);
+        }
+    }
+
+    /**
+     * Fetch the objects of a file into the local cache.
+     * They are downloaded to a staging directory, published in the cache once all of them are there.
+     * A file whose objects are missing was deleted by another node: it is dropped from the metadata index.
+     */
+    private void FetchFileDirectory(String fileId, Path fileDirectoryPath, FileData fileData) {
+        log.debug("Fetching file from the object store: fileId={}", fileId);
+
+        String fileKeyPrefix = GetFileKeyPrefix(fileId);
+        Path stagedFileDirectoryPath = CreateStagingDirectory(fileId);
+        try {
+            List<String> fileKeys = ListFileKeys(fileId);
+            if (!fileKeys.contains(fileKeyPrefix + fileData.filename())) {
+                fileMetadataIndex.remove(fileId);
+                throw new FileContentMissingException("The content of the file is missing from the object store");
+            }
+            for (String fileKey : fileKeys) {
+                Path stagedFilePath = LocalStorageFileUtils.GetUploadedFilePath(stagedFileDirectoryPath, fileKey.substring(fileKeyPrefix.length()));
+                if (!storageBackend.getFile(fileKey, stagedFilePath)) {
+                    fileMetadataIndex.remove(fileId);
+                    throw new FileContentMissingException("The file was deleted from the object store while being fetched");
+                }
+            }
+            Files.createDirectories(fileDirectoryPath.getParent());
+            Files.move(stagedFileDirectoryPath, fileDirectoryPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            DiscardStagingDirectory(stagedFileDirectoryPath);
+            log.error("Error fetching file from the object store: {}", e.getMessage());
+            throw new DataAccessException("Could not fetch file: " + e.getMessage());
+        } catch (RuntimeException e) {
+            DiscardStagingDirectory(stagedFileDirectoryPath);
+            throw e;
+        }
+
+        fileExpiryIndex.add(fileId, fileData.expiresAt());
+        storageUsage.add(fileData.owner(), GetStoredFileSize(fileDirectoryPath, fileData));
+        OnFileDirectoryAvailable(fileId, fileDirectoryPath, fileData);
+    }
+
+    /**
+     * Add a file to the local cache, and evict the least recently used files if the cache is over its size.
+     */
+    @Override
+    protected void OnFileDirectoryAvailable(String fileId, Path fileDirectoryPath, FileData fileData) {
+        long fileSize = GetStoredFileSize(fileDirectoryPath, fileData);
+
+        Map<String, CachedFile> evictedFiles = new LinkedHashMap<>();
+        synchronized (cachedFiles) {
+            CachedFile previousFile = cachedFiles.put(fileId, new CachedFile(fileData.owner(), fileSize));
+            cachedBytes += fileSize - (previousFile != null ? previousFile.size() : 0);
+            Iterator<Map.Entry<String, CachedFile>> iterator = cachedFiles.entrySet().iterator();
+            while (cachedBytes > cacheMaxBytes && iterator.hasNext()) {
+                Map.Entry<String, CachedFile> eldest = iterator.next();
+                if (eldest.getKey().equals(fileId)) {
+                    continue;
+                }
+                iterator.remove();
+                cachedBytes -= eldest.getValue().size();
+                evictedFiles.put(eldest.getKey(), eldest.getValue());
+            }
+        }
+
+        evictedFiles.forEach(this::EvictFile);
+    }
+
+    /**
+     * Delete an evicted file from the local cache, under its fetch lock so that it is not fetched or read again meanwhile.
+     * A file whose lock is held (it is being fetched or read again) or that could not be deleted stays in the cache, to be evicted later.
+     * The lock is only tried, as the eviction may run under the fetch lock of another file.
+     */
+    private void EvictFile(String fileId, CachedFile cachedFile) {
+        ReentrantLock fetchLock = fetchLocks.computeIfAbsent(fileId, _ -> new ReentrantLock());
+        if (!fetchLock.tryLock()) {
+            KeepCachedFile(fileId, cachedFile);
+            return;
+        }
+        try {
+            synchronized (cachedFiles) {
+                if (cachedFiles.containsKey(fileId)) {
+                    // Read again since it was evicted
+                    return;
+                }
+            }
+            log.debug("Evicting file from the local cache: fileId={}", fileId);
+            hotFileCache.invalidate(fileId);
+            try {
+                FileUtils.deleteDirectory(GetFileDirectoryPath(fileId).toFile());
+            } catch (IOException e) {
+                log.error("Error evicting file from the local cache: fileId={}", fileId, e);
+                KeepCachedFile(fileId, cachedFile);
+                return;
+            }
+            storageUsage.remove(cachedFile.owner(), cachedFile.size());
+        } finally {
+            fetchLock.unlock();
+            fetchLocks.remove(fileId, fetchLock);
+        }
+    }
+
+    private void KeepCachedFile(String fileId, CachedFile cachedFile) {
+        synchronized (cachedFiles) {
+            if (cachedFiles.putIfAbsent(fileId, cachedFile) == null) {
+                cachedBytes += cachedFile.size();
+            }
+        }
+    }
+
+    /**
+     * Delete the objects of a purged file from the object store.
+     */
+    @Override
+    protected void OnFileDeleted(String fileId, FileData fileData) {
+        synchronized (cachedFiles) {
+            CachedFile cachedFile = cachedFiles.remove(fileId);
+            if (cachedFile != null) {
+                cachedBytes -= cachedFile.size();
+            }
+        }
+        try {
+            List<String> keys = ListFileKeys(fileId);
+            if (fileData != null) {
+                keys.add(GetExpiryKey(fileId, fileData.expiresAt()));
+            }
+            storageBackend.delete(keys);
+        } catch (IOException e) {
+            log.error("Error deleting file from the object store: fileId={}", fileId, e);
+        }
+    }
+
+    /**
+     * Purge the expired files of the local cache, then the expired files of the whole object store, found from their
+     * expiry markers (including the files uploaded by other nodes).
+     */
+    @Override
+    public void purgeExpiredFiles() {
+        super.purgeExpiredFiles();
+
+        long now = Instant.now().getEpochSecond();
+        List<String> expiryKeys = new ArrayList<>();
+        try {
+            storageBackend.list(EXPIRY_KEY_PREFIX, key -> {
+                long expiresAt = Long.parseLong(key.substring(EXPIRY_KEY_PREFIX.length(), EXPIRY_KEY_PREFIX.length() + EXPIRY_KEY_EPOCH_LENGTH));
+                if (expiresAt > now) {
+                    return false;
+                }
+                expiryKeys.add(key);
+                return true;
+            });
+        } catch (IOException e) {
+            log.error("Error listing expired files of the object store", e);
+            return;
+        }
+
+        List<String> expiredKeys = new ArrayList<>();
+        for (String expiryKey : expiryKeys) {
+            String fileId = expiryKey.substring(expiryKey.lastIndexOf('/') + 1);
+            try {
+                if (GetFileDirectoryPath(fileId).toFile().exists()) {
+                    if (!DeleteFile(fileId)) {
+                        // Retried with the next purge, along with the local cache
+                        continue;
+                    }
+                } else {
+                    fileMetadataIndex.remove(fileId);
+                    expiredKeys.addAll(ListFileKeys(fileId));
+                }
+                expiredKeys.add(expiryKey);
+            } catch (RuntimeException | IOException e) {
+                log.error("Error purging file from the object store: fileId={}", fileId, e);
+            }
+        }
+        try {
+            storageBackend.delete(expiredKeys);
+        } catch (IOException e) {
+            log.error("Error deleting expired files from the object store", e);
+        }
+        log.debug("Purged {} expired files from the object store", expiryKeys.size());
+    }
+}
@@ -0,0 +1,295 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.ObjectUtils;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.checksums.RequestChecksumCalculation;
+import software.amazon.awssdk.core.checksums.ResponseChecksumValidation;
+import software.amazon.awssdk.core.exception.SdkException;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.http.apache5.Apache5HttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.model.CompletedMultipartUpload;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+/**
+ * Storage backend on an S3-compatible object store (AWS S3, MinIO, Ceph, ...).
+ * <p>
+ * Files larger than the part size are uploaded with a multipart upload, and downloaded with ranged GETs, their parts
+ * being transferred in parallel on a pool shared by all the transfers.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(prefix = "hashtransfer", name = "storage-layout", havingValue = "object-store")
+public class S3StorageBackend implements StorageBackend {
+
+    /**
+     * Maximum number of keys of a DeleteObjects request.
+     */
+    private static final int MAX_DELETE_BATCH_SIZE = 1000;
+
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+    private final S3Client s3Client;
+
+    private final String bucket;
+
+    private final long partSize;
+
+    private final ExecutorService transferExecutor;
+
+    public S3StorageBackend(HashTransferProperties hashTransferProperties) {
+        int parallelism = hashTransferProperties.getObjectStoreParallelism();
+        S3ClientBuilder s3ClientBuilder = S3Client.builder()
+                .region(Region.of(hashTransferProperties.getObjectStoreRegion()))
+                .forcePathStyle(hashTransferProperties.isObjectStorePathStyleAccess())
+                // S3-compatible stores do not all support the flexible checksums of the recent SDKs
+                .requestChecksumCalculation(RequestChecksumCalculation.WHEN_REQUIRED)
+                .responseChecksumValidation(ResponseChecksumValidation.WHEN_REQUIRED)
+                .httpClientBuilder(Apache5HttpClient.builder().maxConnections(parallelism * 4));
+        if (!ObjectUtils.isEmpty(hashTransferProperties.getObjectStoreEndpoint())) {
+            s3ClientBuilder.endpointOverride(URI.create(hashTransferProperties.getObjectStoreEndpoint()));
+        }
+        if (!ObjectUtils.isEmpty(hashTransferProperties.getObjectStoreAccessKey())) {
+            s3ClientBuilder.credentialsProvider(StaticCredentialsProvider.create(
+                    AwsBasicCredentials.create(hashTransferProperties.getObjectStoreAccessKey(), hashTransferProperties.getObjectStoreSecretKey())));
+        } else {
+            s3ClientBuilder.credentialsProvider(DefaultCredentialsProvider.builder().build());
+        }
+        this.s3Client = s3ClientBuilder.build();
+        this.bucket = hashTransferProperties.getObjectStoreBucket();
+        this.partSize = hashTransferProperties.getObjectStorePartSize().toBytes();
+        this.transferExecutor = Executors.newFixedThreadPool(parallelism);
+    }
+
+    @PostConstruct
+    public void checkBucket() {
+        try {
+            s3Client.headBucket(request -> request.bucket(bucket));
+        } catch (SdkException e) {
+            throw new IllegalStateException("The object store bucket " + bucket + " is not accessible", e);
+        }
+        log.info("Using object store bucket {}", bucket);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        transferExecutor.shutdownNow();
+        s3Client.close();
+    }
+
+    @Override
+    public void putFile(String key, Path sourceFilePath) throws IOException {
+        long size = Files.size(sourceFilePath);
+        try {
+            if (size <= partSize) {
+                s3Client.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromFile(sourceFilePath));
+            } else {
+                PutMultipartFile(key, sourceFilePath, size);
+            }
+        } catch (SdkException e) {
+            throw new IOException("Could not store object " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void PutMultipartFile(String key, Path sourceFilePath, long size) throws IOException {
+        String uploadId = s3Client.createMultipartUpload(request -> request.bucket(bucket).key(key)).uploadId();
+        log.debug("Started multipart upload: key={}, size={}, uploadId={}", key, size, uploadId);
+        try {
+            List<Callable<CompletedPart>> partUploads = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partSize) {
+                int partNumber = (int) (offset / partSize) + 1;
+                long partOffset = offset;
+                long partLength = Math.min(partSize, size - offset);
+                partUploads.add(() -> {
+                    RequestBody requestBody = RequestBody.fromContentProvider(() -> OpenFileSlice(sourceFilePath, partOffset, partLength), partLength, "application/octet-stream");
+                    String eTag = s3Client.uploadPart(request -> request.bucket(bucket).key(key).uploadId(uploadId).partNumber(partNumber).contentLength(partLength), requestBody).eTag();
+                    return CompletedPart.builder().partNumber(partNumber).eTag(eTag).build();
+                });
+            }
+            List<CompletedPart> completedParts = RunInParallel(partUploads);
+            s3Client.completeMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId)
+                    .multipartUpload(CompletedMultipartUpload.builder().parts(completedParts).build()));
+        } catch (IOException | RuntimeException e) {
+            log.debug("Aborting multipart upload: key={}, uploadId={}", key, uploadId);
+            try {
+                s3Client.abortMultipartUpload(request -> request.bucket(bucket).key(key).uploadId(uploadId));
+            } catch (SdkException abortException) {
+                e.addSuppressed(abortException);
+            }
+            throw e;
+        }
+    }
+
+    private static InputStream OpenFileSlice(Path filePath, long offset, long length) {
+        try {
+            FileChannel fileChannel = FileChannel.open(filePath, StandardOpenOption.READ).position(offset);
+            return BoundedInputStream.builder().setInputStream(Channels.newInputStream(fileChannel)).setMaxCount(length).get();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void putBytes(String key, byte[] content) throws IOException {
+        try {
+            s3Client.putObject(request -> request.bucket(bucket).key(key), RequestBody.fromBytes(content));
+        } catch (SdkException e) {
+            throw new IOException("Could not store object " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public boolean getFile(String key, Path targetFilePath) throws IOException {
+        try {
+            long size;
+            try {
+                size = s3Client.headObject(request -> request.bucket(bucket).key(key)).contentLength();
+            } catch (NoSuchKeyException _) {
+                return false;
+            }
+            if (size <= partSize) {
+                try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request -> request.bucket(bucket).key(key))) {
+                    Files.copy(inputStream, targetFilePath, StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                GetRangedFile(key, targetFilePath, size);
+            }
+            return true;
+        } catch (SdkException e) {
+            throw new IOException("Could not read object " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    private void GetRangedFile(String key, Path targetFilePath, long size) throws IOException {
+        log.debug("Downloading object with ranged GETs: key={}, size={}", key, size);
+        try (FileChannel fileChannel = FileChannel.open(targetFilePath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            List<Callable<Void>> rangeDownloads = new ArrayList<>();
+            for (long offset = 0; offset < size; offset += partSize) {
+                long rangeStart = offset;
+                long rangeEnd = Math.min(offset + partSize, size) - 1;
+                rangeDownloads.add(() -> {
+                    try (ResponseInputStream<GetObjectResponse> inputStream = s3Client.getObject(request -> request.bucket(bucket).key(key).range("bytes=" + rangeStart + "-" + rangeEnd))) {
+                        byte[] buffer = new byte[COPY_BUFFER_SIZE];
+                        long position = rangeStart;
+                        int read;
+                        while ((read = inputStream.read(buffer)) != -1) {
+                            ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, read);
+                            while (byteBuffer.hasRemaining()) {
+                                position += fileChannel.write(byteBuffer, position);
+                            }
+                        }
+                        if (position != rangeEnd + 1) {
+                            throw new IOException("Truncated range of object " + key + ": " + rangeStart + "-" + rangeEnd);
+                        }
+                    }
+                    return null;
+                });
+            }
+            RunInParallel(rangeDownloads);
+        }
+    }
+
+    /**
+     * Run tasks on the transfer pool and wait for all of them.
+     * @return The results of the tasks, in order.
+     */
+    private <T> List<T> RunInParallel(List<Callable<T>> tasks) throws IOException {
+        List<Future<T>> futures = tasks.stream().map(transferExecutor::submit).toList();
+        List<T> results = new ArrayList<>();
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted object transfer", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            futures.forEach(future -> future.cancel(true));
+        }
+        return results;
+    }
+
+    @Override
+    public Optional<byte[]> getBytes(String key) throws IOException {
+        try {
+            return Optional.of(s3Client.getObjectAsBytes(request -> request.bucket(bucket).key(key)).asByteArray());
+        } catch (NoSuchKeyException _) {
+            return Optional.empty();
+        } catch (SdkException e) {
+            throw new IOException("Could not read object " + key + ": " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void delete(Collection<String> keys) throws IOException {
+        List<ObjectIdentifier> objectIdentifiers = keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList();
+        try {
+            for (int i = 0; i < objectIdentifiers.size(); i += MAX_DELETE_BATCH_SIZE) {
+                List<ObjectIdentifier> batch = objectIdentifiers.subList(i, Math.min(i + MAX_DELETE_BATCH_SIZE, objectIdentifiers.size()));
+                s3Client.deleteObjects(request -> request.bucket(bucket).delete(Delete.builder().objects(batch).quiet(true).build()));
+            }
+        } catch (SdkException e) {
+            throw new IOException("Could not delete objects: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void list(String prefix, Predicate<String> keyConsumer) throws IOException {
+        try {
+            for (S3Object s3Object : s3Client.listObjectsV2Paginator(request -> request.bucket(bucket).prefix(prefix)).contents()) {
+                if (!keyConsumer.test(s3Object.key())) {
+                    return;
+                }
+            }
+        } catch (SdkException e) {
+            throw new IOException("Could not list objects: " + e.getMessage(), e);
+        }
+    }
+}
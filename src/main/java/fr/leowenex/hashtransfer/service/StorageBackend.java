@@ -0,0 +1,56 @@
+package fr.leowenex.hashtransfer.service;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+/**
+ * Object store holding the stored files, shared by all the nodes.
+ * Objects are addressed by keys made of "/" separated segments.
+ */
+public interface StorageBackend {
+
+    /**
+     * Store the content of a file as an object, replacing any existing object with the same key.
+     * @param key The key of the object.
+     * @param sourceFilePath The path of the file to store.
+     */
+    void putFile(String key, Path sourceFilePath) throws IOException;
+
+    /**
+     * Store a small content as an object, replacing any existing object with the same key.
+     * @param key The key of the object.
+     * @param content The content to store.
+     */
+    void putBytes(String key, byte[] content) throws IOException;
+
+    /**
+     * Download the content of an object to a file.
+     * @param key The key of the object.
+     * @param targetFilePath The path of the file to write (created or replaced).
+     * @return true if the object was downloaded, false if it does not exist.
+     */
+    boolean getFile(String key, Path targetFilePath) throws IOException;
+
+    /**
+     * Read the content of a small object.
+     * @param key The key of the object.
+     * @return An Optional containing the content of the object, or empty if it does not exist.
+     */
+    Optional<byte[]> getBytes(String key) throws IOException;
+
+    /**
+     * Delete objects. Missing objects are ignored.
+     * @param keys The keys of the objects to delete.
+     */
+    void delete(Collection<String> keys) throws IOException;
+
+    /**
+     * List the keys starting with a prefix, in lexicographic order.
+     * @param prefix The prefix of the keys.
+     * @param keyConsumer Called with each key, returns false to stop the listing.
+     */
+    void list(String prefix, Predicate<String> keyConsumer) throws IOException;
+}
@@ -0,0 +1,156 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.jspecify.annotations.NonNull;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.MediaTypeFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.InvalidMimeTypeException;
+import org.springframework.util.MimeType;
+import org.springframework.util.MimeTypeUtils;
+import org.springframework.util.ObjectUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Transparent compression of the stored files.
+ * <p>
+ * A file is stored gzip-compressed when its content type is configured as compressible, and a sample of its first
+ * bytes compresses well enough. Compressed files are served as is to the clients accepting gzip, and decompressed on the
+ * fly for the others.
+ */
+@Slf4j
+@Component
+public class StorageCompressor {
+
+    public static final String GZIP_ENCODING = "gzip";
+
+    private static final int SAMPLE_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final boolean enabled;
+
+    private final List<MimeType> compressibleContentTypes;
+
+    private final int compressionLevel;
+
+    private final double compressionMaxRatio;
+
+    public StorageCompressor(HashTransferProperties hashTransferProperties) {
+        this.enabled = hashTransferProperties.isCompressionEnabled();
+        this.compressibleContentTypes = hashTransferProperties.getCompressionContentTypes().stream().map(MimeTypeUtils::parseMimeType).toList();
+        this.compressionLevel = hashTransferProperties.getCompressionLevel();
+        this.compressionMaxRatio = hashTransferProperties.getCompressionMaxRatio();
+    }
+
+    /**
+     * Get the number of bytes to sample from the start of a file to choose its encoding.
+     */
+    public int getSampleSize() {
+        return enabled ? SAMPLE_SIZE : 0;
+    }
+
+    /**
+     * Choose the encoding a file is stored with.
+     * @param fileName The name of the file (to guess its content type when none is given).
+     * @param contentType The MIME type of the file (optional).
+     * @param sample The first bytes of the file.
+     * @return The content encoding to store the file with, or null to store it as is.
+     */
+    public String selectContentEncoding(String fileName, String contentType, byte[] sample) {
+        if (!enabled || sample.length == 0 || !IsCompressibleContentType(fileName, contentType)) {
+            return null;
+        }
+
+        Deflater deflater = new Deflater(compressionLevel, true);
+        try {
+            deflater.setInput(sample);
+            deflater.finish();
+            byte[] buffer = new byte[sample.length];
+            long compressedLength = 0;
+            while (!deflater.finished()) {
+                compressedLength += deflater.deflate(buffer);
+            }
+            double ratio = (double) compressedLength / sample.length;
+            log.debug("Compression ratio of sample: fileName={}, ratio={}", fileName, ratio);
+            return ratio <= compressionMaxRatio ? GZIP_ENCODING : null;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private boolean IsCompressibleContentType(String fileName, String contentType) {
+        MimeType mimeType = null;
+        if (!ObjectUtils.isEmpty(contentType)) {
+            try {
+                mimeType = MimeTypeUtils.parseMimeType(contentType);
+            } catch (InvalidMimeTypeException _) {
+                // Guessed from the file name below
+            }
+        }
+        if (mimeType == null) {
+            mimeType = MediaTypeFactory.getMediaType(fileName).orElse(null);
+        }
+        if (mimeType == null) {
+            return false;
+        }
+        MimeType fileMimeType = mimeType;
+        return compressibleContentTypes.stream().anyMatch(compressibleContentType -> compressibleContentType.includes(fileMimeType));
+    }
+
+    /**
+     * Compress the bytes written to an OutputStream.
+     * @param outputStream The OutputStream of the stored file.
+     * @return The compressing OutputStream, closing the given one.
+     */
+    public OutputStream compress(OutputStream outputStream) throws IOException {
+        return new GZIPOutputStream(outputStream, BUFFER_SIZE) {
+            {
+                def.setLevel(compressionLevel);
+            }
+        };
+    }
+
+    /**
+     * Get a Resource serving the decompressed content of a compressed stored file.
+     * @param resource The Resource of the compressed file.
+     * @param size The size of the decompressed content.
+     * @return The decompressing Resource.
+     */
+    public Resource decompress(Resource resource, long size) {
+        return new AbstractResource() {
+            @Override
+            public @NonNull InputStream getInputStream() throws IOException {
+                return new GZIPInputStream(resource.getInputStream(), BUFFER_SIZE);
+            }
+
+            @Override
+            public long contentLength() {
+                return size;
+            }
+
+            @Override
+            public boolean exists() {
+                return resource.exists();
+            }
+
+            @Override
+            public String getFilename() {
+                return resource.getFilename();
+            }
+
+            @Override
+            public @NonNull String getDescription() {
+                return "Decompressed " + resource.getDescription();
+            }
+        };
+    }
+}
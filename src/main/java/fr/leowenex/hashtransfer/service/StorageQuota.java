@@ -0,0 +1,217 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.exception.StorageQuotaExceededException;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.input.ProxyInputStream;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Admission control of the uploads against the storage quotas: the total size of the stored files, the size of the
+ * files stored by each client (remote address), and the free space left on the volume of the storage directory.
+ * <p>
+ * An upload reserves its declared size before any of its bytes is received, and is rejected right away if the
+ * reservation does not fit. The reservation is held until the upload is stored (it is then counted by {@link StorageUsage})
+ * or discarded, so that the uploads in progress cannot together take more space than there is. Uploads of unknown size
+ * extend their reservation as their bytes are received, and fail as soon as it does not fit anymore.
+ * The stored bytes are the running totals of {@link StorageUsage}: the storage directory is never walked.
+ * The free space is the usable space of the volume minus the reserved bytes, which counts the bytes already received by
+ * the uploads in progress twice: the check errs on the side of rejecting, and always applies (a minimum free space of 0
+ * only requires the uploads to fit).
+ */
+@Slf4j
+@Component
+public class StorageQuota {
+
+    private static final long RESERVATION_STEP = 16 * 1024 * 1024;
+
+    private final StorageUsage storageUsage;
+
+    private final long storageQuota;
+
+    private final long clientStorageQuota;
+
+    private final long minFreeDiskSpace;
+
+    private final FileStore fileStore;
+
+    /**
+     * Reserved bytes, in total and by owner (without the owners that have no bytes reserved). Guarded by this.
+     */
+    private long reservedBytes;
+
+    private final Map<String, Long> ownerReservedBytes = new HashMap<>();
+
+    public StorageQuota(HashTransferProperties hashTransferProperties, StorageUsage storageUsage) {
+        this.storageUsage = storageUsage;
+        this.storageQuota = hashTransferProperties.getStorageQuota().toBytes();
+        this.clientStorageQuota = hashTransferProperties.getClientStorageQuota().toBytes();
+        this.minFreeDiskSpace = hashTransferProperties.getMinFreeDiskSpace().toBytes();
+        FileStore storageFileStore;
+        try {
+            storageFileStore = Files.getFileStore(LocalStorageFileUtils.GetFileStorageDirectoryPath(hashTransferProperties.getFileStorageDirectory()));
+        } catch (IOException e) {
+            log.warn("Could not get the volume of the storage directory, its free space is not checked: {}", e.getMessage());
+            storageFileStore = null;
+        }
+        this.fileStore = storageFileStore;
+    }
+
+    /**
+     * Reserve space for an upload.
+     * @param owner The client the upload is accounted to, or null if it has none.
+     * @param bytes The declared size of the upload, 0 if it is unknown.
+     * @return The reservation, to be closed once the upload is stored or discarded.
+     * @throws StorageQuotaExceededException if the upload does not fit in a quota or in the free space.
+     */
+    public Reservation reserve(String owner, long bytes) {
+        Reservation reservation = new Reservation(owner);
+        reservation.extend(bytes);
+        return reservation;
+    }
+
+    /**
+     * Reserve space for an upload admitted before, without checking the quotas, e.g. an upload session loaded after a restart.
+     * @param owner The client the upload is accounted to, or null if it has none.
+     * @param bytes The declared size of the upload.
+     * @return The reservation, to be closed once the upload is stored or discarded.
+     */
+    public Reservation restore(String owner, long bytes) {
+        Reservation reservation = new Reservation(owner);
+        synchronized (this) {
+            Reserve(reservation, bytes);
+        }
+        return reservation;
+    }
+
+    private synchronized void Extend(Reservation reservation, long bytes) {
+        if (reservation.released) {
+            return;
+        }
+        if (storageQuota > 0 && storageUsage.getStoredBytes() + reservedBytes + bytes > storageQuota) {
+            log.warn("Rejecting upload of {} bytes: storage quota reached", bytes);
+            throw new StorageQuotaExceededException("Storage quota exceeded");
+        }
+        if (clientStorageQuota > 0 && reservation.owner != null
+                && storageUsage.getStoredBytes(reservation.owner) + ownerReservedBytes.getOrDefault(reservation.owner, 0L) + bytes > clientStorageQuota) {
+            log.debug("Rejecting upload of {} bytes: client storage quota reached for {}", bytes, reservation.owner);
+            throw new StorageQuotaExceededException("Client storage quota exceeded");
+        }
+        if (fileStore != null) {
+            long usableSpace;
+            try {
+                usableSpace = fileStore.getUsableSpace();
+            } catch (IOException e) {
+                log.warn("Could not read the free space of the storage volume: {}", e.getMessage());
+                usableSpace = Long.MAX_VALUE;
+            }
+            if (usableSpace - reservedBytes - bytes < minFreeDiskSpace) {
+                log.warn("Rejecting upload of {} bytes: not enough free space on the storage volume ({} bytes usable, {} bytes reserved)", bytes, usableSpace, reservedBytes);
+                throw new StorageQuotaExceededException("Not enough free storage space");
+            }
+        }
+        Reserve(reservation, bytes);
+    }
+
+    private void Reserve(Reservation reservation, long bytes) {
+        reservation.bytes += bytes;
+        reservedBytes += bytes;
+        if (reservation.owner != null && bytes != 0) {
+            ownerReservedBytes.merge(reservation.owner, bytes, Long::sum);
+        }
+    }
+
+    private synchronized void Release(Reservation reservation) {
+        if (reservation.released) {
+            return;
+        }
+        reservation.released = true;
+        reservedBytes -= reservation.bytes;
+        if (reservation.owner != null && reservation.bytes != 0) {
+            ownerReservedBytes.computeIfPresent(reservation.owner, (_, ownerBytes) -> ownerBytes - reservation.bytes > 0 ? ownerBytes - reservation.bytes : null);
+        }
+    }
+
+    /**
+     * Space reserved for an upload. Closing it releases the space, once.
+     */
+    public final class Reservation implements AutoCloseable {
+
+        private final String owner;
+
+        /**
+         * Reserved bytes, and whether they are released. Written under the lock of the StorageQuota, the reserved bytes
+         * are also read without it by {@link #cover(long)}, as they only grow.
+         */
+        private volatile long bytes;
+
+        private boolean released;
+
+        private Reservation(String owner) {
+            this.owner = owner;
+        }
+
+        /**
+         * Reserve more space.
+         * @param bytes The number of bytes to add to the reservation.
+         * @throws StorageQuotaExceededException if they do not fit in a quota or in the free space.
+         */
+        public void extend(long bytes) {
+            Extend(this, bytes);
+        }
+
+        /**
+         * Make sure that the reservation covers the bytes received so far, extending it by steps past them if needed
+         * (or only up to them, close to a quota).
+         * @param receivedBytes The number of bytes received by the upload.
+         * @throws StorageQuotaExceededException if the received bytes do not fit in a quota or in the free space.
+         */
+        public void cover(long receivedBytes) {
+            long missingBytes = receivedBytes - bytes;
+            if (missingBytes <= 0) {
+                return;
+            }
+            if (missingBytes >= RESERVATION_STEP) {
+                extend(missingBytes);
+                return;
+            }
+            try {
+                extend(RESERVATION_STEP);
+            } catch (StorageQuotaExceededException _) {
+                extend(missingBytes);
+            }
+        }
+
+        /**
+         * Wrap the content of an upload so that the reservation covers it as it is read.
+         * @param inputStream The content of the upload.
+         * @return The covered content.
+         */
+        public InputStream cover(InputStream inputStream) {
+            return new ProxyInputStream(inputStream) {
+                private long receivedBytes;
+
+                @Override
+                protected void afterRead(int n) throws IOException {
+                    if (n > 0) {
+                        receivedBytes += n;
+                        cover(receivedBytes);
+                    }
+                    super.afterRead(n);
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            Release(this);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package fr.leowenex.hashtransfer.service;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of the stored files, maintained as files are stored and deleted rather than by walking the storage directory.
+ * The bytes are the on-disk size of the stored files (after compression). With the content-addressed layout, a blob
+ * shared by several files is counted once per file.
+ * The bytes are also totalled by owner (the client the files are accounted to), for the client storage quota.
+ */
+@Component
+public class StorageUsage {
+
+    private final AtomicLong storedBytes = new AtomicLong();
+
+    private final AtomicLong storedFiles = new AtomicLong();
+
+    /**
+     * Stored bytes by owner, without the owners that have no bytes left.
+     */
+    private final Map<String, Long> ownerStoredBytes = new ConcurrentHashMap<>();
+
+    /**
+     * Count a stored file.
+     * @param owner The client the file is accounted to, or null if it has none.
+     * @param bytes The on-disk size of the file.
+     */
+    public void add(String owner, long bytes) {
+        storedBytes.addAndGet(bytes);
+        storedFiles.incrementAndGet();
+        if (owner != null && bytes != 0) {
+            ownerStoredBytes.merge(owner, bytes, Long::sum);
+        }
+    }
+
+    /**
+     * Uncount a deleted file.
+     * @param owner The client the file is accounted to, or null if it has none.
+     * @param bytes The on-disk size of the file, as counted when it was stored.
+     */
+    public void remove(String owner, long bytes) {
+        storedBytes.addAndGet(-bytes);
+        storedFiles.decrementAndGet();
+        if (owner != null && bytes != 0) {
+            ownerStoredBytes.computeIfPresent(owner, (_, ownerBytes) -> ownerBytes - bytes > 0 ? ownerBytes - bytes : null);
+        }
+    }
+
+    public long getStoredBytes() {
+        return storedBytes.get();
+    }
+
+    public long getStoredFiles() {
+        return storedFiles.get();
+    }
+
+    public long getStoredBytes(String owner) {
+        return ownerStoredBytes.getOrDefault(owner, 0L);
+    }
+}
@@ -0,0 +1,84 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.dto.TreeHash;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * OutputStream computing the tree hash of the bytes written to it.
+ * Each full chunk is hashed on the tree hash executor while the next one is filled, in a buffer taken from the
+ * {@link TreeHasher} pool.
+ */
+public class TreeHashOutputStream extends OutputStream {
+
+    private final TreeHasher treeHasher;
+
+    private final int chunkSize;
+
+    private final List<Future<byte[]>> chunkHashes = new ArrayList<>();
+
+    private byte[] chunk;
+
+    private int chunkLength;
+
+    TreeHashOutputStream(TreeHasher treeHasher, int chunkSize) {
+        this.treeHasher = treeHasher;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (chunk == null) {
+                chunk = treeHasher.TakeChunkBuffer();
+            }
+            int length = Math.min(len, chunkSize - chunkLength);
+            System.arraycopy(b, off, chunk, chunkLength, length);
+            chunkLength += length;
+            off += length;
+            len -= length;
+            if (chunkLength == chunkSize) {
+                SubmitChunk();
+            }
+        }
+    }
+
+    private void SubmitChunk() throws InterruptedIOException {
+        chunkHashes.add(treeHasher.SubmitChunk(chunk != null ? chunk : new byte[0], chunkLength));
+        chunk = null;
+        chunkLength = 0;
+    }
+
+    /**
+     * Hash the last chunk and compute the tree hash of all the bytes written.
+     * @return The tree hash, with the chunk hashes.
+     */
+    public TreeHash finish() throws IOException {
+        if (chunkLength > 0 || chunkHashes.isEmpty()) {
+            SubmitChunk();
+        }
+        List<byte[]> hashes = new ArrayList<>(chunkHashes.size());
+        try {
+            for (Future<byte[]> chunkHash : chunkHashes) {
+                hashes.add(chunkHash.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while computing the tree hash");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute the tree hash", e.getCause());
+        }
+        return TreeHasher.BuildTreeHash(chunkSize, hashes);
+    }
+}
@@ -0,0 +1,196 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.TreeHash;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Computes the SHA-256 tree hashes of the stored files (see {@link TreeHash}), the chunks being hashed in parallel.
+ * The chunk buffers are shared by all the hashes: up to twice the parallelism of chunks are queued for hashing at a
+ * time, whatever the number of concurrent uploads, and their buffers are reused.
+ * Disabled unless a tree hash chunk size is configured.
+ */
+@Slf4j
+@Component
+public class TreeHasher {
+
+    private static final byte LEAF_PREFIX = 0x00;
+    private static final byte NODE_PREFIX = 0x01;
+
+    private final int chunkSize;
+
+    private final int parallelism;
+
+    private final ExecutorService executorService;
+
+    private final Semaphore queuedChunks;
+
+    private final BlockingQueue<byte[]> chunkBuffers;
+
+    public TreeHasher(HashTransferProperties hashTransferProperties) {
+        long configuredChunkSize = hashTransferProperties.getTreeHashChunkSize().toBytes();
+        if (configuredChunkSize < 0 || configuredChunkSize > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("The tree hash chunk size must be between 0 and 2GB");
+        }
+        this.chunkSize = (int) configuredChunkSize;
+        this.parallelism = hashTransferProperties.getTreeHashParallelism() > 0
+                ? hashTransferProperties.getTreeHashParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        this.executorService = isEnabled() ? Executors.newFixedThreadPool(parallelism) : null;
+        this.queuedChunks = new Semaphore(parallelism * 2);
+        this.chunkBuffers = new ArrayBlockingQueue<>(parallelism * 2);
+    }
+
+    public boolean isEnabled() {
+        return chunkSize > 0;
+    }
+
+    @PreDestroy
+    public void shutdownExecutor() {
+        if (executorService != null) {
+            executorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Create an OutputStream computing the tree hash of the bytes written to it.
+     * The stream only holds the chunk being filled, the full chunks being queued for hashing with the ones of the other streams.
+     * @return The OutputStream, to be finished once all the bytes are written.
+     */
+    public TreeHashOutputStream newOutputStream() {
+        return new TreeHashOutputStream(this, chunkSize);
+    }
+
+    /**
+     * Take a chunk buffer from the pool, or allocate one if none is free.
+     */
+    byte[] TakeChunkBuffer() {
+        byte[] chunkBuffer = chunkBuffers.poll();
+        return chunkBuffer != null ? chunkBuffer : new byte[chunkSize];
+    }
+
+    /**
+     * Give a chunk buffer back to the pool, where it is dropped if the pool is full.
+     */
+    void ReturnChunkBuffer(byte[] chunkBuffer) {
+        if (chunkBuffer.length == chunkSize) {
+            chunkBuffers.offer(chunkBuffer);
+        }
+    }
+
+    /**
+     * Queue a chunk for hashing, waiting while too many chunks are queued. Its buffer is given back to the pool once hashed.
+     * @param chunkBuffer The buffer of the chunk.
+     * @param length The length of the chunk in the buffer.
+     * @return The hash of the chunk, once computed.
+     */
+    Future<byte[]> SubmitChunk(byte[] chunkBuffer, int length) throws InterruptedIOException {
+        try {
+            queuedChunks.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a tree hash chunk");
+        }
+        try {
+            return executorService.submit(() -> {
+                try {
+                    return HashChunk(chunkBuffer, length);
+                } finally {
+                    ReturnChunkBuffer(chunkBuffer);
+                    queuedChunks.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            queuedChunks.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Compute the tree hash of a file, the chunks being read and hashed in parallel.
+     * @param filePath The path of the file.
+     * @return The tree hash, with the chunk hashes.
+     */
+    public TreeHash hashFile(Path filePath) throws IOException {
+        try (FileChannel channel = FileChannel.open(filePath)) {
+            long size = channel.size();
+            long chunkCount = Math.max(1, (size + chunkSize - 1) / chunkSize);
+            List<Future<byte[]>> chunkHashes = new ArrayList<>();
+            for (long chunkIndex = 0; chunkIndex < chunkCount; chunkIndex++) {
+                long position = chunkIndex * chunkSize;
+                int length = (int) Math.min(chunkSize, size - position);
+                chunkHashes.add(executorService.submit(() -> {
+                    byte[] chunkBuffer = TakeChunkBuffer();
+                    try {
+                        ByteBuffer buffer = ByteBuffer.wrap(chunkBuffer, 0, length);
+                        while (buffer.hasRemaining()) {
+                            if (channel.read(buffer, position + buffer.position()) < 0) {
+                                throw new IOException("Unexpected end of file");
+                            }
+                        }
+                        return HashChunk(chunkBuffer, length);
+                    } finally {
+                        ReturnChunkBuffer(chunkBuffer);
+                    }
+                }));
+            }
+            List<byte[]> hashes = new ArrayList<>(chunkHashes.size());
+            for (Future<byte[]> chunkHash : chunkHashes) {
+                hashes.add(chunkHash.get());
+            }
+            return BuildTreeHash(chunkSize, hashes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while computing the tree hash");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compute the tree hash", e.getCause());
+        }
+    }
+
+    static byte[] HashChunk(byte[] data, int length) {
+        MessageDigest sha256Digest = DigestUtils.getSha256Digest();
+        sha256Digest.update(LEAF_PREFIX);
+        sha256Digest.update(data, 0, length);
+        return sha256Digest.digest();
+    }
+
+    static TreeHash BuildTreeHash(int chunkSize, List<byte[]> chunkHashes) {
+        List<byte[]> level = chunkHashes;
+        while (level.size() > 1) {
+            List<byte[]> nextLevel = new ArrayList<>((level.size() + 1) / 2);
+            for (int i = 0; i + 1 < level.size(); i += 2) {
+                MessageDigest sha256Digest = DigestUtils.getSha256Digest();
+                sha256Digest.update(NODE_PREFIX);
+                sha256Digest.update(level.get(i));
+                sha256Digest.update(level.get(i + 1));
+                nextLevel.add(sha256Digest.digest());
+            }
+            if (level.size() % 2 == 1) {
+                nextLevel.add(level.getLast());
+            }
+            level = nextLevel;
+        }
+        HexFormat hexFormat = HexFormat.of();
+        return new TreeHash(chunkSize, hexFormat.formatHex(level.getFirst()), chunkHashes.stream().map(hexFormat::formatHex).toList());
+    }
+}
@@ -0,0 +1,20 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.dto.UploadSessionData;
+import fr.leowenex.hashtransfer.dto.UploadSessionRequest;
+
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+
+public interface UploadSessionService {
+
+    UploadSessionData createSession(UploadSessionRequest uploadSessionRequest, String owner);
+    Optional<UploadSessionData> querySession(String uploadId);
+    Optional<UploadSessionData> appendChunk(String uploadId, long offset, InputStream inputStream);
+    Optional<UploadSessionData> writeChunk(String uploadId, long offset, long length, InputStream inputStream);
+    Optional<FileUploadResponse> completeSession(String uploadId, Map<String, String> expectedDigests);
+    boolean abortSession(String uploadId);
+    void purgeExpiredSessions();
+}
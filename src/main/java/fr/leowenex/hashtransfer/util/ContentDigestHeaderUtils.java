@@ -2,13 +2,31 @@ package fr.leowenex.hashtransfer.util;
 
 import lombok.NoArgsConstructor;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
+/**
+ * Content-Digest and Want-Content-Digest headers (RFC 9530).
+ * Digests are handled as lowercase hex strings, and formatted as byte sequences (":base64:") in the headers.
+ */
 @NoArgsConstructor(access = lombok.AccessLevel.PRIVATE)
 public class ContentDigestHeaderUtils {
 
     public static final String CONTENT_DIGEST_HEADER = "Content-Digest";
+    public static final String WANT_CONTENT_DIGEST_HEADER = "Want-Content-Digest";
 
     public static final String SHA256_ALGORITHM = "sha-256";
     public static final String SHA512_ALGORITHM = "sha-512";
@@ -20,6 +38,29 @@ public class ContentDigestHeaderUtils {
     public static final String SHA1_ALGORITHM_PREFIX = SHA1_ALGORITHM + "=";
     public static final String MD5_ALGORITHM_PREFIX = MD5_ALGORITHM + "=";
 
+    /**
+     * Supported Content-Digest algorithms, with their JCA names.
+     */
+    private static final Map<String, String> MESSAGE_DIGEST_ALGORITHMS = Map.of(
+            SHA256_ALGORITHM, "SHA-256",
+            SHA512_ALGORITHM, "SHA-512",
+            SHA1_ALGORITHM, "SHA-1",
+            MD5_ALGORITHM, "MD5"
+    );
+
+    private static final Pattern HEX_PATTERN = Pattern.compile("[0-9a-fA-F]+");
+
+    public static boolean isSupportedAlgorithm(String algorithm) {
+        return MESSAGE_DIGEST_ALGORITHMS.containsKey(algorithm);
+    }
+
+    /**
+     * Parse a Content-Digest header.
+     * Values are accepted as byte sequences (":base64:", RFC 9530) or as hex strings.
+     * @param headerValue The header value (may be null).
+     * @return The digests of the supported algorithms, as lowercase hex strings, by algorithm.
+     * @throws IllegalArgumentException if the digest of a supported algorithm is malformed.
+     */
     public static Map<String, String> parseContentDigestHeader(String headerValue) {
         Map<String, String> digestMap = new HashMap<>();
         if (headerValue == null || headerValue.isEmpty()) {
@@ -27,11 +68,94 @@ public class ContentDigestHeaderUtils {
         }
         String[] parts = headerValue.split(",");
         for (String part : parts) {
-            String[] algoAndDigest = part.trim().split("=");
-            if (algoAndDigest.length == 2) {
-                digestMap.put(algoAndDigest[0].trim(), algoAndDigest[1].trim());
+            int separatorIndex = part.indexOf('=');
+            if (separatorIndex < 0) {
+                continue;
+            }
+            String algorithm = part.substring(0, separatorIndex).trim().toLowerCase();
+            if (isSupportedAlgorithm(algorithm)) {
+                digestMap.put(algorithm, parseDigestValue(part.substring(separatorIndex + 1).trim()));
             }
         }
         return digestMap;
     }
+
+    private static String parseDigestValue(String value) {
+        if (value.length() >= 2 && value.startsWith(":") && value.endsWith(":")) {
+            return HexFormat.of().formatHex(Base64.getDecoder().decode(value.substring(1, value.length() - 1)));
+        }
+        if (HEX_PATTERN.matcher(value).matches()) {
+            return value.toLowerCase();
+        }
+        throw new IllegalArgumentException("Malformed digest value: " + value);
+    }
+
+    /**
+     * Parse a Want-Content-Digest header, e.g. "sha-512=3, sha-256=10".
+     * @param headerValue The header value (may be null).
+     * @return The supported algorithms wanted by the client, most preferred first (algorithms with a weight of 0 are excluded).
+     */
+    public static List<String> parseWantContentDigestHeader(String headerValue) {
+        Map<String, Integer> weights = new HashMap<>();
+        if (headerValue == null || headerValue.isEmpty()) {
+            return List.of();
+        }
+        for (String part : headerValue.split(",")) {
+            String[] algorithmAndWeight = part.trim().split("=", 2);
+            String algorithm = algorithmAndWeight[0].trim().toLowerCase();
+            int weight = 1;
+            if (algorithmAndWeight.length == 2) {
+                try {
+                    weight = Integer.parseInt(algorithmAndWeight[1].trim());
+                } catch (NumberFormatException _) {
+                    continue;
+                }
+            }
+            if (isSupportedAlgorithm(algorithm) && weight > 0) {
+                weights.put(algorithm, weight);
+            }
+        }
+        List<String> algorithms = new ArrayList<>(weights.keySet());
+        algorithms.sort(Comparator.comparing(weights::get).reversed());
+        return algorithms;
+    }
+
+    /**
+     * Format a Content-Digest header.
+     * @param digests The digests to include, as hex strings, by algorithm.
+     * @return The header value.
+     */
+    public static String formatContentDigestHeader(Map<String, String> digests) {
+        return digests.entrySet().stream()
+                .map(digest -> digest.getKey() + "=:" + Base64.getEncoder().encodeToString(HexFormat.of().parseHex(digest.getValue())) + ":")
+                .collect(Collectors.joining(", "));
+    }
+
+    /**
+     * Create one MessageDigest per algorithm, to compute all the digests of a content in a single pass.
+     * @param algorithms The supported algorithms to compute.
+     * @return The MessageDigests by algorithm.
+     */
+    public static Map<String, MessageDigest> createMessageDigests(Collection<String> algorithms) {
+        Map<String, MessageDigest> messageDigests = new TreeMap<>();
+        for (String algorithm : Set.copyOf(algorithms)) {
+            try {
+                messageDigests.put(algorithm, MessageDigest.getInstance(MESSAGE_DIGEST_ALGORITHMS.get(algorithm)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return messageDigests;
+    }
+
+    /**
+     * Complete the digests computed by MessageDigests.
+     * @param messageDigests The MessageDigests by algorithm.
+     * @return The digests as lowercase hex strings, by algorithm.
+     */
+    public static Map<String, String> formatHexDigests(Map<String, MessageDigest> messageDigests) {
+        Map<String, String> digests = new LinkedHashMap<>();
+        messageDigests.forEach((algorithm, messageDigest) -> digests.put(algorithm, HexFormat.of().formatHex(messageDigest.digest())));
+        return digests;
+    }
 }
@@ -0,0 +1,80 @@
+package fr.leowenex.hashtransfer.util;
+
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.service.StorageCompressor;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Headers of the download responses, shared by the transfer engines.
+ */
+@NoArgsConstructor(access = lombok.AccessLevel.PRIVATE)
+public class DownloadHeaderUtils {
+
+    /**
+     * Get the strong ETag of a file, as sent with a given content encoding.
+     * @param sha256 The SHA-256 checksum of the file.
+     * @param contentEncoding The content encoding the file is sent with, or null if it is sent as is.
+     * @return The quoted ETag.
+     */
+    public static String toETag(String sha256, String contentEncoding) {
+        return contentEncoding != null ? "\"" + sha256 + "-" + contentEncoding + "\"" : "\"" + sha256 + "\"";
+    }
+
+    /**
+     * Parse an Accept-Encoding header, e.g. "gzip, deflate;q=0.5, identity;q=0".
+     * @param headerValue The header value (may be null).
+     * @return The content encodings accepted by the client (a wildcard stands for gzip, unless it is explicitly refused).
+     */
+    public static List<String> parseAcceptEncoding(String headerValue) {
+        List<String> acceptedContentEncodings = new ArrayList<>();
+        if (headerValue == null || headerValue.isEmpty()) {
+            return acceptedContentEncodings;
+        }
+        List<String> refusedContentEncodings = new ArrayList<>();
+        for (String part : headerValue.split(",")) {
+            String[] codingAndParameters = part.trim().split(";");
+            String coding = codingAndParameters[0].trim().toLowerCase();
+            double quality = 1;
+            for (int i = 1; i < codingAndParameters.length; i++) {
+                String parameter = codingAndParameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException _) {
+                        quality = 0;
+                    }
+                }
+            }
+            (quality > 0 ? acceptedContentEncodings : refusedContentEncodings).add(coding);
+        }
+        if (acceptedContentEncodings.contains("*") && !refusedContentEncodings.contains(StorageCompressor.GZIP_ENCODING)) {
+            acceptedContentEncodings.add(StorageCompressor.GZIP_ENCODING);
+        }
+        return acceptedContentEncodings;
+    }
+
+    /**
+     * Get the Content-Digest of a full download, with the stored digests the client asks for (SHA-256 by default).
+     * @param fileData The metadata of the file.
+     * @param wantContentDigest The Want-Content-Digest header value (may be null).
+     * @return The Content-Digest header value.
+     */
+    public static String toContentDigest(FileData fileData, String wantContentDigest) {
+        Map<String, String> digests = new LinkedHashMap<>();
+        for (String algorithm : ContentDigestHeaderUtils.parseWantContentDigestHeader(wantContentDigest)) {
+            String digest = fileData.findDigest(algorithm);
+            if (digest != null) {
+                digests.put(algorithm, digest);
+            }
+        }
+        if (digests.isEmpty()) {
+            digests.put(ContentDigestHeaderUtils.SHA256_ALGORITHM, fileData.sha256());
+        }
+        return ContentDigestHeaderUtils.formatContentDigestHeader(digests);
+    }
+}
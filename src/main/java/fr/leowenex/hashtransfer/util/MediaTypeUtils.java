@@ -0,0 +1,43 @@
+package fr.leowenex.hashtransfer.util;
+
+import fr.leowenex.hashtransfer.dto.FileData;
+import lombok.NoArgsConstructor;
+import org.springframework.http.MediaType;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Resolution of the media type a stored file is served with.
+ */
+@NoArgsConstructor(access = lombok.AccessLevel.PRIVATE)
+public class MediaTypeUtils {
+
+    /**
+     * Resolve the media type of a file, from the content type given at upload, or else from its name.
+     * @param fileData The metadata of the file.
+     * @return The media type of the file (application/octet-stream if it cannot be resolved).
+     */
+    public static MediaType resolveMediaType(FileData fileData) {
+        if (fileData.contentType() != null) {
+            try {
+                return MediaType.parseMediaType(fileData.contentType());
+            } catch (Exception _) {
+            }
+        }
+        return resolveMediaType(fileData.filename());
+    }
+
+    private static MediaType resolveMediaType(String filename) {
+        try {
+            String contentType = Files.probeContentType(Paths.get(filename));
+            if (contentType != null) {
+                return MediaType.parseMediaType(contentType);
+            }
+        } catch (IOException _) {
+        }
+
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+}
@@ -0,0 +1,44 @@
+package fr.leowenex.hashtransfer.util;
+
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Helpers for the servlet container sendfile support.
+ * When the file attributes are set on a request, Tomcat writes the file slice to the socket itself with
+ * FileChannel.transferTo (sendfile(2) on Linux), so the bytes never go through the JVM heap.
+ */
+@NoArgsConstructor(access = lombok.AccessLevel.PRIVATE)
+public class SendfileUtils {
+
+    public static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+    public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+    public static final String SENDFILE_FILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+    public static final String SENDFILE_FILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+    /**
+     * Below this size, a regular buffered copy is cheaper than a sendfile call (same threshold as Tomcat's DefaultServlet).
+     */
+    public static final long SENDFILE_MIN_SIZE = 48 * 1024;
+
+    public static boolean isSendfileSupported(HttpServletRequest request) {
+        return Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE));
+    }
+
+    /**
+     * Ask the container to send a file slice as the response body.
+     * The response headers (including Content-Length) must be set, and the response body must not be written.
+     * @param request the current request
+     * @param file the file to send
+     * @param start the offset of the first byte to send
+     * @param end the offset after the last byte to send (exclusive)
+     */
+    public static void sendfile(HttpServletRequest request, File file, long start, long end) throws IOException {
+        request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, file.getCanonicalPath());
+        request.setAttribute(SENDFILE_FILE_START_ATTRIBUTE, start);
+        request.setAttribute(SENDFILE_FILE_END_ATTRIBUTE, end);
+    }
+}
@@ -0,0 +1,75 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import fr.leowenex.hashtransfer.service.DiskBandwidthLimiter;
+import fr.leowenex.hashtransfer.service.FileExpiryIndex;
+import fr.leowenex.hashtransfer.service.FileMetadataIndex;
+import fr.leowenex.hashtransfer.service.HotFileCache;
+import fr.leowenex.hashtransfer.service.LocalStorageFileService;
+import fr.leowenex.hashtransfer.service.StorageCompressor;
+import fr.leowenex.hashtransfer.service.StorageUsage;
+import fr.leowenex.hashtransfer.service.TreeHasher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.FileUtils;
+import org.slf4j.LoggerFactory;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Storage fixtures shared by the benchmarks: a file service wired by hand (no Spring context) on a temporary directory.
+ */
+final class BenchmarkStorage {
+
+    static {
+        // Without the Spring Boot logging configuration, logback logs everything at DEBUG level
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    }
+
+    private BenchmarkStorage() {
+    }
+
+    /**
+     * Create a temporary storage directory.
+     * @return The path to the created directory.
+     */
+    static Path CreateStorageDirectory() throws IOException {
+        return Files.createTempDirectory("hashtransfer-benchmark-");
+    }
+
+    /**
+     * Create properties pointing to a given storage directory, with the defaults for everything else.
+     * @param storageDirectoryPath The path to the storage directory.
+     * @return The properties.
+     */
+    static HashTransferProperties CreateProperties(Path storageDirectoryPath) {
+        HashTransferProperties hashTransferProperties = new HashTransferProperties();
+        hashTransferProperties.setFileStorageDirectory(storageDirectoryPath.resolve("files").toString());
+        hashTransferProperties.setUploadSessionDirectory(storageDirectoryPath.resolve("uploads").toString());
+        return hashTransferProperties;
+    }
+
+    /**
+     * Create a file service and load its indexes, as done by Spring at startup.
+     * @param hashTransferProperties The properties of the service.
+     * @return The file service.
+     */
+    static LocalStorageFileService CreateFileService(HashTransferProperties hashTransferProperties) {
+        ObjectMapper objectMapper = JsonMapper.builder().build();
+        StorageUsage storageUsage = new StorageUsage();
+        HashTransferMetrics hashTransferMetrics = new HashTransferMetrics(new SimpleMeterRegistry(), storageUsage);
+        LocalStorageFileService fileService = new LocalStorageFileService(hashTransferProperties, objectMapper, new FileMetadataIndex(hashTransferProperties), new FileExpiryIndex(), new DiskBandwidthLimiter(hashTransferProperties), new TreeHasher(hashTransferProperties), new StorageCompressor(hashTransferProperties), storageUsage, hashTransferMetrics, new HotFileCache(hashTransferProperties, hashTransferMetrics));
+        fileService.loadIndexes();
+        return fileService;
+    }
+
+    static void DeleteStorageDirectory(Path storageDirectoryPath) {
+        FileUtils.deleteQuietly(storageDirectoryPath.toFile());
+    }
+}
@@ -0,0 +1,56 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SHA-256 throughput, fed by buffers of the given size as done by the uploads.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+    @Param({"4KB", "1MB", "64MB"})
+    public String dataSize;
+
+    @Param({"8KB", "64KB", "1MB"})
+    public String bufferSize;
+
+    private byte[] data;
+    private int bufferLength;
+
+    @Setup
+    public void setUp() {
+        data = new byte[(int) DataSize.parse(dataSize).toBytes()];
+        new Random(42).nextBytes(data);
+        bufferLength = (int) DataSize.parse(bufferSize).toBytes();
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        MessageDigest sha256Digest = DigestUtils.getSha256Digest();
+        for (int offset = 0; offset < data.length; offset += bufferLength) {
+            sha256Digest.update(data, offset, Math.min(bufferLength, data.length - offset));
+        }
+        return sha256Digest.digest();
+    }
+}
@@ -0,0 +1,94 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.rest.FileTransferController;
+import fr.leowenex.hashtransfer.rest.limit.TransferShaper;
+import fr.leowenex.hashtransfer.service.LocalStorageFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+
+/**
+ * Download of a stored file, read straight from the service, or served by the controller (without a container, so
+ * without sendfile).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({"4KB", "1MB", "64MB"})
+    public String fileSize;
+
+    private Path storageDirectoryPath;
+    private LocalStorageFileService fileService;
+    private MockMvc mockMvc;
+    private String fileId;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storageDirectoryPath = BenchmarkStorage.CreateStorageDirectory();
+        HashTransferProperties hashTransferProperties = BenchmarkStorage.CreateProperties(storageDirectoryPath);
+        fileService = BenchmarkStorage.CreateFileService(hashTransferProperties);
+        mockMvc = MockMvcBuilders.standaloneSetup(new FileTransferController(fileService, hashTransferProperties, new TransferShaper(hashTransferProperties))).build();
+
+        byte[] content = new byte[(int) DataSize.parse(fileSize).toBytes()];
+        new Random(42).nextBytes(content);
+        fileId = fileService.uploadFile("benchmark.bin", content.length, "application/octet-stream", Map.of(), List.of(), new ByteArrayInputStream(content), null).fileId();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileService.shutdownPurgePool();
+        BenchmarkStorage.DeleteStorageDirectory(storageDirectoryPath);
+    }
+
+    @Benchmark
+    public long readResource() throws IOException {
+        Resource fileResource = fileService.downloadFile(fileId).orElseThrow().fileResource();
+        try (InputStream inputStream = fileResource.getInputStream()) {
+            return inputStream.transferTo(OutputStream.nullOutputStream());
+        }
+    }
+
+    @Benchmark
+    public MockHttpServletResponse serveFile() throws Exception {
+        return mockMvc.perform(get("/api/file/{fileId}/download", fileId)).andReturn().getResponse();
+    }
+
+    @Benchmark
+    public MockHttpServletResponse serveRange() throws Exception {
+        return mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.RANGE, "bytes=0-1023")).andReturn().getResponse();
+    }
+}
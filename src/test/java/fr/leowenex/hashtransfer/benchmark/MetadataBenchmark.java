@@ -0,0 +1,86 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.service.LocalStorageFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * File metadata reads and writes.
+ * <p>
+ * Reads are served by the metadata index when it is unbounded (metadataIndexMaxEntries = 0), and mostly from the metadata
+ * files when it only holds one entry. Writes create an empty file, so that the cost of a file record (directory, metadata
+ * file and indexes) is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataBenchmark {
+
+    private static final int FILE_COUNT = 10_000;
+
+    @Param({"0", "1"})
+    public int metadataIndexMaxEntries;
+
+    private Path storageDirectoryPath;
+    private HashTransferProperties hashTransferProperties;
+    private LocalStorageFileService fileService;
+    private String[] fileIds;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storageDirectoryPath = BenchmarkStorage.CreateStorageDirectory();
+        hashTransferProperties = BenchmarkStorage.CreateProperties(storageDirectoryPath);
+        hashTransferProperties.setMetadataIndexMaxEntries(metadataIndexMaxEntries);
+        fileService = BenchmarkStorage.CreateFileService(hashTransferProperties);
+        fileIds = new String[FILE_COUNT];
+        for (int i = 0; i < FILE_COUNT; i++) {
+            fileIds[i] = createFileRecord().fileId();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileService.shutdownPurgePool();
+        BenchmarkStorage.DeleteStorageDirectory(storageDirectoryPath);
+    }
+
+    @Benchmark
+    public Optional<FileData> readMetadata() {
+        return fileService.queryFileData(fileIds[ThreadLocalRandom.current().nextInt(FILE_COUNT)]);
+    }
+
+    @Benchmark
+    public FileUploadResponse writeMetadata() {
+        return createFileRecord();
+    }
+
+    private FileUploadResponse createFileRecord() {
+        return fileService.uploadFile("benchmark.bin", 0, "application/octet-stream", Map.of(), List.of(), new ByteArrayInputStream(new byte[0]), null);
+    }
+}
@@ -0,0 +1,92 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.service.LocalStorageFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Purge of the expired files of a synthetic store.
+ * <p>
+ * The store holds entryCount files, expiredPercent of which are expired before each purge. Only the purge is measured,
+ * the store is built (through the upload path, with tiny files) and refilled outside of the measurement.
+ * Building the largest stores takes a while, use e.g. -p entryCount=10000 for a quick run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PurgeBenchmark {
+
+    private static final byte[] CONTENT = "benchmark".getBytes();
+
+    @Param({"10000", "100000", "1000000"})
+    public int entryCount;
+
+    @Param({"10"})
+    public int expiredPercent;
+
+    private Path storageDirectoryPath;
+    private HashTransferProperties hashTransferProperties;
+    private LocalStorageFileService fileService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storageDirectoryPath = BenchmarkStorage.CreateStorageDirectory();
+        hashTransferProperties = BenchmarkStorage.CreateProperties(storageDirectoryPath);
+        fileService = BenchmarkStorage.CreateFileService(hashTransferProperties);
+        uploadFiles(entryCount - getExpiredCount());
+    }
+
+    /**
+     * Refill the store with the files expired by the next purge.
+     */
+    @Setup(Level.Iteration)
+    public void addExpiredFiles() {
+        int expirationMinutes = hashTransferProperties.getExpirationMinutes();
+        hashTransferProperties.setExpirationMinutes(-1);
+        uploadFiles(getExpiredCount());
+        hashTransferProperties.setExpirationMinutes(expirationMinutes);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileService.shutdownPurgePool();
+        BenchmarkStorage.DeleteStorageDirectory(storageDirectoryPath);
+    }
+
+    private int getExpiredCount() {
+        return entryCount * expiredPercent / 100;
+    }
+
+    private void uploadFiles(int count) {
+        for (int i = 0; i < count; i++) {
+            fileService.uploadFile("benchmark.txt", CONTENT.length, "text/plain", Map.of(), List.of(), new ByteArrayInputStream(CONTENT), null);
+        }
+    }
+
+    @Benchmark
+    public void purgeExpiredFiles() {
+        fileService.purgeExpiredFiles();
+    }
+}
@@ -0,0 +1,85 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.TreeHash;
+import fr.leowenex.hashtransfer.service.TreeHashOutputStream;
+import fr.leowenex.hashtransfer.service.TreeHasher;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-thread SHA-256 against the tree hash, for the same data fed by upload-sized buffers, across core counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeHashBenchmark {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    @Param({"256MB"})
+    public String dataSize;
+
+    @Param({"4MB"})
+    public String chunkSize;
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private byte[] data;
+    private TreeHasher treeHasher;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        data = new byte[(int) DataSize.parse(dataSize).toBytes()];
+        new Random(42).nextBytes(data);
+        HashTransferProperties hashTransferProperties = new HashTransferProperties();
+        hashTransferProperties.setTreeHashChunkSize(DataSize.parse(chunkSize));
+        hashTransferProperties.setTreeHashParallelism(parallelism);
+        treeHasher = new TreeHasher(hashTransferProperties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        treeHasher.shutdownExecutor();
+    }
+
+    @Benchmark
+    public byte[] sha256() {
+        MessageDigest sha256Digest = DigestUtils.getSha256Digest();
+        for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+            sha256Digest.update(data, offset, Math.min(BUFFER_SIZE, data.length - offset));
+        }
+        return sha256Digest.digest();
+    }
+
+    @Benchmark
+    public TreeHash treeHash() throws IOException {
+        TreeHashOutputStream treeHashOutputStream = treeHasher.newOutputStream();
+        for (int offset = 0; offset < data.length; offset += BUFFER_SIZE) {
+            treeHashOutputStream.write(data, offset, Math.min(BUFFER_SIZE, data.length - offset));
+        }
+        return treeHashOutputStream.finish();
+    }
+}
@@ -0,0 +1,81 @@
+package fr.leowenex.hashtransfer.benchmark;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.service.LocalStorageFileService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Upload of a file through the local storage, i.e. copy to disk, SHA-256 computation and metadata write.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"4KB", "1MB", "64MB"})
+    public String fileSize;
+
+    @Param({"8KB", "64KB", "1MB"})
+    public String uploadBufferSize;
+
+    private Path storageDirectoryPath;
+    private HashTransferProperties hashTransferProperties;
+    private LocalStorageFileService fileService;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        storageDirectoryPath = BenchmarkStorage.CreateStorageDirectory();
+        hashTransferProperties = BenchmarkStorage.CreateProperties(storageDirectoryPath);
+        hashTransferProperties.setUploadBufferSize(DataSize.parse(uploadBufferSize));
+        fileService = BenchmarkStorage.CreateFileService(hashTransferProperties);
+        content = new byte[(int) DataSize.parse(fileSize).toBytes()];
+        new Random(42).nextBytes(content);
+    }
+
+    /**
+     * Uploaded files are deleted after each iteration, to bound the disk usage.
+     */
+    @TearDown(Level.Iteration)
+    public void deleteUploadedFiles() {
+        fileService.shutdownPurgePool();
+        BenchmarkStorage.DeleteStorageDirectory(storageDirectoryPath);
+        fileService = BenchmarkStorage.CreateFileService(hashTransferProperties);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        fileService.shutdownPurgePool();
+        BenchmarkStorage.DeleteStorageDirectory(storageDirectoryPath);
+    }
+
+    @Benchmark
+    public FileUploadResponse uploadFile() {
+        return fileService.uploadFile("benchmark.bin", content.length, "application/octet-stream", Map.of(), List.of(), new ByteArrayInputStream(content), null);
+    }
+}
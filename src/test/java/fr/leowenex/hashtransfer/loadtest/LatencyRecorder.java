@@ -0,0 +1,165 @@
+package fr.leowenex.hashtransfer.loadtest;
+
+import fr.leowenex.hashtransfer.loadtest.LoadTestOptions.Operation;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latencies (in microseconds), failures and transferred bytes of the requests, by operation.
+ * <p>
+ * Each operation has an interval histogram, read and reset by every report, and a histogram of the whole run.
+ * The metadata queries running while the purge runs (started before it ends and finished after it starts) are also
+ * recorded apart, so that their latency can be compared with the latency of the others: unlike the transfers, their
+ * latency does not depend on a file size, so a stalled request path shows in it.
+ */
+final class LatencyRecorder {
+
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private final Map<Operation, OperationRecorder> operationRecorders = new EnumMap<>(Operation.class);
+
+    private final Recorder duringPurgeRecorder = new Recorder(SIGNIFICANT_DIGITS);
+    private final Recorder outsidePurgeRecorder = new Recorder(SIGNIFICANT_DIGITS);
+
+    /**
+     * Start and end of the purge (System.nanoTime), 0 until they happen.
+     */
+    private final AtomicLong purgeStart = new AtomicLong();
+    private final AtomicLong purgeEnd = new AtomicLong();
+
+    private static final class OperationRecorder {
+        private final Recorder intervalRecorder = new Recorder(SIGNIFICANT_DIGITS);
+        private final Histogram totalHistogram = new Histogram(SIGNIFICANT_DIGITS);
+        private final LongAdder intervalErrors = new LongAdder();
+        private final LongAdder totalErrors = new LongAdder();
+        private final LongAdder intervalBytes = new LongAdder();
+        private final LongAdder totalBytes = new LongAdder();
+    }
+
+    /**
+     * Report of an operation over an interval or the whole run.
+     * @param count The number of successful requests.
+     * @param errors The number of failed requests.
+     * @param bytes The number of bytes transferred by the successful requests.
+     * @param histogram The latencies of the successful requests.
+     */
+    record OperationReport(long count, long errors, long bytes, Histogram histogram) {}
+
+    LatencyRecorder() {
+        for (Operation operation : Operation.values()) {
+            operationRecorders.put(operation, new OperationRecorder());
+        }
+    }
+
+    /**
+     * Record a successful request.
+     * @param operation The operation of the request.
+     * @param startNanos The start of the request (System.nanoTime).
+     * @param endNanos The end of the request (System.nanoTime).
+     * @param bytes The number of bytes transferred.
+     */
+    void recordSuccess(Operation operation, long startNanos, long endNanos, long bytes) {
+        long latencyMicros = TimeUnit.NANOSECONDS.toMicros(endNanos - startNanos);
+        OperationRecorder operationRecorder = operationRecorders.get(operation);
+        operationRecorder.intervalRecorder.recordValue(latencyMicros);
+        operationRecorder.intervalBytes.add(bytes);
+
+        if (operation != Operation.METADATA) {
+            return;
+        }
+        long currentPurgeStart = purgeStart.get();
+        long currentPurgeEnd = purgeEnd.get();
+        boolean duringPurge = currentPurgeStart != 0 && endNanos - currentPurgeStart > 0 && (currentPurgeEnd == 0 || currentPurgeEnd - startNanos > 0);
+        (duringPurge ? duringPurgeRecorder : outsidePurgeRecorder).recordValue(latencyMicros);
+    }
+
+    /**
+     * Record a failed request.
+     * @param operation The operation of the request.
+     */
+    void recordError(Operation operation) {
+        operationRecorders.get(operation).intervalErrors.increment();
+    }
+
+    void purgeStarted() {
+        purgeStart.set(System.nanoTime());
+    }
+
+    void purgeEnded() {
+        purgeEnd.set(System.nanoTime());
+    }
+
+    /**
+     * Get the reports of the interval since the previous call, and add them to the reports of the whole run.
+     * @return The reports of the interval, by operation.
+     */
+    Map<Operation, OperationReport> nextInterval() {
+        Map<Operation, OperationReport> reports = new EnumMap<>(Operation.class);
+        operationRecorders.forEach((operation, operationRecorder) -> {
+            Histogram histogram = operationRecorder.intervalRecorder.getIntervalHistogram();
+            long errors = operationRecorder.intervalErrors.sumThenReset();
+            long bytes = operationRecorder.intervalBytes.sumThenReset();
+            synchronized (operationRecorder.totalHistogram) {
+                operationRecorder.totalHistogram.add(histogram);
+            }
+            operationRecorder.totalErrors.add(errors);
+            operationRecorder.totalBytes.add(bytes);
+            reports.put(operation, new OperationReport(histogram.getTotalCount(), errors, bytes, histogram));
+        });
+        return reports;
+    }
+
+    /**
+     * Discard the interval since the previous call (e.g. a ramp-up), from the interval and the whole run.
+     */
+    void discardInterval() {
+        operationRecorders.values().forEach(operationRecorder -> {
+            operationRecorder.intervalRecorder.reset();
+            operationRecorder.intervalErrors.reset();
+            operationRecorder.intervalBytes.reset();
+        });
+    }
+
+    /**
+     * Get the reports of the whole run (up to the last interval).
+     * @return The reports, by operation.
+     */
+    Map<Operation, OperationReport> total() {
+        Map<Operation, OperationReport> reports = new EnumMap<>(Operation.class);
+        operationRecorders.forEach((operation, operationRecorder) -> {
+            Histogram histogram;
+            synchronized (operationRecorder.totalHistogram) {
+                histogram = operationRecorder.totalHistogram.copy();
+            }
+            reports.put(operation, new OperationReport(histogram.getTotalCount(), operationRecorder.totalErrors.sum(), operationRecorder.totalBytes.sum(), histogram));
+        });
+        return reports;
+    }
+
+    /**
+     * @return The latencies of the metadata queries that ran during the purge, or null if no purge ran.
+     */
+    Histogram duringPurge() {
+        return purgeEnd.get() == 0 ? null : duringPurgeRecorder.getIntervalHistogram();
+    }
+
+    /**
+     * @return The latencies of the metadata queries that did not run during the purge.
+     */
+    Histogram outsidePurge() {
+        return outsidePurgeRecorder.getIntervalHistogram();
+    }
+
+    /**
+     * @return The duration of the purge in milliseconds, or -1 if no purge ran.
+     */
+    long purgeMillis() {
+        return purgeEnd.get() == 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(purgeEnd.get() - purgeStart.get());
+    }
+}
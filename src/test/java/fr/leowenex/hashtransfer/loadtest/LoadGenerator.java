@@ -0,0 +1,298 @@
+package fr.leowenex.hashtransfer.loadtest;
+
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import fr.leowenex.hashtransfer.loadtest.LoadTestOptions.Operation;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.unit.DataSize;
+import tools.jackson.databind.ObjectMapper;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Virtual users sending requests to the /api/file endpoints, one at a time each, with no think time (closed loop):
+ * the throughput of a stage is the one the instance sustains with that many concurrent clients.
+ * <p>
+ * Each request is an operation drawn from the mix: an upload (PUT /api/file/{name}) of a size drawn from the size
+ * distribution, with a unique content so that no upload is deduplicated, a download (GET /api/file/{id}/download) or a
+ * metadata query (GET /api/file/{id}) of one of the last uploaded files. Downloads and metadata queries fall back to an
+ * upload while no file was uploaded yet.
+ */
+@Slf4j
+final class LoadGenerator implements AutoCloseable {
+
+    private static final int UPLOADED_FILE_POOL_SIZE = 4096;
+    private static final int CONTENT_BLOCK_SIZE = 1024 * 1024;
+    private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+    private final String baseUrl;
+    private final LatencyRecorder latencyRecorder;
+    private final WeightedChoice<Operation> operations;
+    private final WeightedChoice<DataSize> sizes;
+
+    private final HttpClient httpClient;
+    private final ExecutorService userExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ObjectMapper objectMapper = JsonMapper.builder().build();
+
+    /**
+     * Random bytes the upload contents are made of, after a unique prefix.
+     */
+    private final byte[] contentBlock = new byte[CONTENT_BLOCK_SIZE];
+
+    /**
+     * The last uploaded files, as a ring.
+     */
+    private final AtomicReferenceArray<UploadedFile> uploadedFiles = new AtomicReferenceArray<>(UPLOADED_FILE_POOL_SIZE);
+    private final AtomicLong uploadCount = new AtomicLong();
+
+    private final List<Thread> userThreads = new ArrayList<>();
+    private volatile boolean stopped;
+
+    private record UploadedFile(String fileId, long size) {}
+
+    LoadGenerator(String baseUrl, Map<Operation, Integer> mix, Map<DataSize, Integer> sizes, LatencyRecorder latencyRecorder) {
+        this.baseUrl = baseUrl;
+        this.latencyRecorder = latencyRecorder;
+        this.operations = new WeightedChoice<>(mix);
+        this.sizes = new WeightedChoice<>(sizes);
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .executor(userExecutor)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        new Random(0).nextBytes(contentBlock);
+    }
+
+    /**
+     * Upload files before the load, without recording them.
+     * @param fileCount The number of files to upload.
+     */
+    void seed(int fileCount) throws IOException, InterruptedException {
+        for (int i = 0; i < fileCount; i++) {
+            Upload(sizes.next());
+        }
+    }
+
+    /**
+     * Start virtual users, evenly over a given time.
+     * @param userCount The number of users to start.
+     * @param rampUp The time over which the users are started.
+     */
+    void startUsers(int userCount, Duration rampUp) throws InterruptedException {
+        long delayNanos = userCount > 1 ? rampUp.toNanos() / userCount : 0;
+        for (int i = 0; i < userCount && !stopped; i++) {
+            userThreads.add(Thread.ofVirtual().name("load-user-" + userThreads.size()).start(this::RunUser));
+            TimeUnit.NANOSECONDS.sleep(delayNanos);
+        }
+    }
+
+    int getUserCount() {
+        return userThreads.size();
+    }
+
+    private void RunUser() {
+        while (!stopped) {
+            Operation operation = operations.next();
+            UploadedFile uploadedFile = PickUploadedFile();
+            if (uploadedFile == null) {
+                operation = Operation.UPLOAD;
+            }
+            long start = System.nanoTime();
+            try {
+                long bytes = switch (operation) {
+                    case UPLOAD -> Upload(sizes.next());
+                    case DOWNLOAD -> Download(uploadedFile);
+                    case METADATA -> QueryMetadata(uploadedFile);
+                };
+                latencyRecorder.recordSuccess(operation, start, System.nanoTime(), bytes);
+            } catch (InterruptedException _) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (!stopped) {
+                    log.debug("Request failed: operation={}, error={}", operation, e.toString());
+                    latencyRecorder.recordError(operation);
+                }
+            }
+        }
+    }
+
+    private UploadedFile PickUploadedFile() {
+        long count = uploadCount.get();
+        if (count == 0) {
+            return null;
+        }
+        long index = count - 1 - ThreadLocalRandom.current().nextLong(Math.min(count, UPLOADED_FILE_POOL_SIZE));
+        return uploadedFiles.get((int) (index % UPLOADED_FILE_POOL_SIZE));
+    }
+
+    /**
+     * Upload a file with a unique content, and add it to the pool.
+     * @param size The size of the file.
+     * @return The number of bytes sent.
+     */
+    private long Upload(DataSize size) throws IOException, InterruptedException {
+        long fileSize = size.toBytes();
+        long uploadNumber = ThreadLocalRandom.current().nextLong();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/file/load-" + Long.toHexString(uploadNumber) + ".bin"))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/octet-stream")
+                .PUT(HttpRequest.BodyPublishers.fromPublisher(HttpRequest.BodyPublishers.ofInputStream(() -> new SyntheticContentInputStream(fileSize, uploadNumber)), fileSize))
+                .build();
+        HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        CheckStatus(response);
+
+        FileUploadResponse uploadResponse = objectMapper.readValue(response.body(), FileUploadResponse.class);
+        long index = uploadCount.getAndIncrement();
+        uploadedFiles.set((int) (index % UPLOADED_FILE_POOL_SIZE), new UploadedFile(uploadResponse.fileId(), fileSize));
+        return fileSize;
+    }
+
+    /**
+     * Download a file and discard its content.
+     * @return The number of bytes received.
+     */
+    private long Download(UploadedFile uploadedFile) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/file/" + uploadedFile.fileId() + "/download"))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        HttpResponse<InputStream> response = httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        try (InputStream inputStream = response.body()) {
+            CheckStatus(response);
+            long bytes = inputStream.transferTo(OutputStream.nullOutputStream());
+            if (bytes != uploadedFile.size()) {
+                throw new IOException("Downloaded " + bytes + " bytes instead of " + uploadedFile.size());
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * Query the metadata of a file.
+     * @return The number of bytes received.
+     */
+    private long QueryMetadata(UploadedFile uploadedFile) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/file/" + uploadedFile.fileId()))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        HttpResponse<byte[]> response = httpClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+        CheckStatus(response);
+        return response.body().length;
+    }
+
+    private static void CheckStatus(HttpResponse<?> response) throws IOException {
+        if (response.statusCode() != 200) {
+            throw new IOException("Unexpected status " + response.statusCode() + " for " + response.request().method() + " " + response.request().uri());
+        }
+    }
+
+    /**
+     * Stop the users, letting their current request end.
+     * If interrupted, the interrupt flag is restored and the requests are aborted rather than waited for.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        try {
+            for (Thread userThread : userThreads) {
+                userThread.join(REQUEST_TIMEOUT.toMillis());
+            }
+        } catch (InterruptedException _) {
+            Thread.currentThread().interrupt();
+        }
+        httpClient.close();
+        userExecutor.close();
+    }
+
+    /**
+     * Content of an upload: a unique 8-byte prefix, then the random content block repeated.
+     */
+    private final class SyntheticContentInputStream extends InputStream {
+
+        private final long size;
+        private final byte[] prefix;
+        private long position;
+
+        private SyntheticContentInputStream(long size, long uploadNumber) {
+            this.size = size;
+            this.prefix = ByteBuffer.allocate(Long.BYTES).putLong(uploadNumber).array();
+        }
+
+        @Override
+        public int read() {
+            byte[] singleByte = new byte[1];
+            return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (position >= size) {
+                return -1;
+            }
+            int read = (int) Math.min(length, size - position);
+            for (int copied = 0; copied < read; ) {
+                long contentPosition = position + copied;
+                int count;
+                if (contentPosition < prefix.length) {
+                    count = Math.min(read - copied, prefix.length - (int) contentPosition);
+                    System.arraycopy(prefix, (int) contentPosition, buffer, offset + copied, count);
+                } else {
+                    int blockPosition = (int) (contentPosition % CONTENT_BLOCK_SIZE);
+                    count = Math.min(read - copied, CONTENT_BLOCK_SIZE - blockPosition);
+                    System.arraycopy(contentBlock, blockPosition, buffer, offset + copied, count);
+                }
+                copied += count;
+            }
+            position += read;
+            return read;
+        }
+    }
+
+    /**
+     * Random choice of a value according to weights.
+     */
+    private static final class WeightedChoice<T> {
+
+        private final List<T> values = new ArrayList<>();
+        private final int[] cumulativeWeights;
+
+        private WeightedChoice(Map<T, Integer> weights) {
+            cumulativeWeights = new int[weights.size()];
+            int totalWeight = 0;
+            for (Map.Entry<T, Integer> weight : weights.entrySet()) {
+                totalWeight += weight.getValue();
+                cumulativeWeights[values.size()] = totalWeight;
+                values.add(weight.getKey());
+            }
+        }
+
+        private T next() {
+            int draw = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+            for (int i = 0; i < cumulativeWeights.length; i++) {
+                if (draw < cumulativeWeights[i]) {
+                    return values.get(i);
+                }
+            }
+            throw new IllegalStateException();
+        }
+    }
+}
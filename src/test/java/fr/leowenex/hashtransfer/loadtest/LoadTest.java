@@ -0,0 +1,306 @@
+package fr.leowenex.hashtransfer.loadtest;
+
+import fr.leowenex.hashtransfer.HashTransferApplication;
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.loadtest.LatencyRecorder.OperationReport;
+import fr.leowenex.hashtransfer.loadtest.LoadTestOptions.Operation;
+import fr.leowenex.hashtransfer.scheduling.PurgeScheduling;
+import fr.leowenex.hashtransfer.service.FileService;
+import org.HdrHistogram.Histogram;
+import org.apache.commons.io.FileUtils;
+import org.springframework.boot.SpringApplication;
+import org.springframework.context.ConfigurableApplicationContext;
+import tools.jackson.databind.SerializationFeature;
+import tools.jackson.databind.json.JsonMapper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load and soak test of the transfer endpoints, run with: mvn -Pload-test verify -Dload.args="..."
+ * <p>
+ * An instance is started in the same JVM on a temporary storage (or the load is sent to --target), seeded with files,
+ * then loaded by virtual users (see LoadGenerator):
+ * <ul>
+ *     <li>soak mode: a fixed number of users for a long time, reported every report interval, to spot latency or
+ *     throughput drifting with time (e.g. --mode=soak --users=32 --duration=2h);</li>
+ *     <li>ramp mode: stages of increasing users, reported per stage, to find the concurrency past which the latency
+ *     grows without the throughput following (e.g. --mode=ramp --users=8,16,32,64,128 --duration=1m).</li>
+ * </ul>
+ * Reports give the p50/p99/p999/max latencies and the throughput of each operation, and are written in JSON to
+ * target/load-test-result.json.
+ * <p>
+ * With the embedded instance, expired files are created before the load and purged in the middle of it, and the
+ * latency of the metadata queries running during the purge is compared with the latency of the others.
+ * The run fails (exit status 1) when too many requests fail or when the purge stalls the requests.
+ * The embedded instance shares the CPU of the load generator: use --target on another host to measure a node alone.
+ * The other options are described in LoadTestOptions; the instance properties can be given as well, e.g.
+ * --hashtransfer.max-concurrent-uploads=16 or --spring.main.web-application-type=reactive.
+ */
+public final class LoadTest {
+
+    /**
+     * Minimum number of metadata queries running during the purge to compare their latency with the others.
+     */
+    private static final int MIN_PURGE_SAMPLES = 20;
+
+    private LoadTest() {
+    }
+
+    /**
+     * Report of an interval, a stage or the whole run, in the JSON report.
+     */
+    record IntervalReport(String label, int users, double seconds, Map<Operation, OperationSummary> operations) {}
+
+    record OperationSummary(long requests, long errors, double requestsPerSecond, double megabytesPerSecond,
+                            double p50Millis, double p99Millis, double p999Millis, double maxMillis) {}
+
+    record PurgeReport(long purgeMillis, int expiredFiles, int purgedFiles, long queriesDuringPurge,
+                       double p99MillisDuringPurge, double p99MillisOutsidePurge, Boolean stalled) {}
+
+    record Result(LoadTestOptions options, List<IntervalReport> intervals, IntervalReport total, PurgeReport purge,
+                  double errorRate, boolean passed) {}
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options = LoadTestOptions.parse(args);
+
+        Path storageDirectoryPath = null;
+        ConfigurableApplicationContext context = null;
+        int exitStatus;
+        try {
+            String baseUrl = options.target();
+            if (baseUrl == null) {
+                storageDirectoryPath = Files.createTempDirectory("hashtransfer-load-test-");
+                context = StartInstance(storageDirectoryPath, options.instanceArguments());
+                baseUrl = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+            }
+            exitStatus = Run(options, baseUrl, context) ? 0 : 1;
+        } finally {
+            if (context != null) {
+                context.close();
+            }
+            if (storageDirectoryPath != null) {
+                FileUtils.deleteQuietly(storageDirectoryPath.toFile());
+            }
+        }
+        System.exit(exitStatus);
+    }
+
+    /**
+     * Start an instance on a temporary storage, on a random port, with the scheduled purge disabled.
+     * @param storageDirectoryPath The path to the temporary storage directory.
+     * @param instanceArguments The arguments overriding the defaults of the instance.
+     * @return The context of the started instance.
+     */
+    private static ConfigurableApplicationContext StartInstance(Path storageDirectoryPath, List<String> instanceArguments) throws IOException {
+        Path multipartDirectoryPath = Files.createDirectories(storageDirectoryPath.resolve("temp"));
+
+        Map<String, String> properties = new LinkedHashMap<>();
+        properties.put("server.port", "0");
+        properties.put("hashtransfer.file-storage-directory", storageDirectoryPath.resolve("files") + "/");
+        properties.put("hashtransfer.upload-session-directory", storageDirectoryPath.resolve("uploads") + "/");
+        properties.put("spring.servlet.multipart.location", multipartDirectoryPath + "/");
+        properties.put("hashtransfer.expiration-check-cron", "-");
+        properties.put("logging.level.root", "warn");
+        properties.put("spring.main.banner-mode", "off");
+        for (String instanceArgument : instanceArguments) {
+            int separatorIndex = instanceArgument.indexOf('=');
+            properties.put(instanceArgument.substring(2, separatorIndex < 0 ? instanceArgument.length() : separatorIndex),
+                    separatorIndex < 0 ? "true" : instanceArgument.substring(separatorIndex + 1));
+        }
+
+        System.out.println("Starting the embedded instance on " + storageDirectoryPath);
+        return SpringApplication.run(HashTransferApplication.class, properties.entrySet().stream()
+                .map(property -> "--" + property.getKey() + "=" + property.getValue())
+                .toArray(String[]::new));
+    }
+
+    /**
+     * Run the load and report it.
+     * @param options The load test options.
+     * @param baseUrl The base URL of the instance.
+     * @param context The context of the embedded instance, or null when loading a target.
+     * @return true if the run passed.
+     */
+    private static boolean Run(LoadTestOptions options, String baseUrl, ConfigurableApplicationContext context) throws Exception {
+        LatencyRecorder latencyRecorder = new LatencyRecorder();
+        List<IntervalReport> intervalReports = new ArrayList<>();
+
+        List<String> expiredFileIds = context != null && options.purgeFiles() > 0 ? CreateExpiredFiles(context, options.purgeFiles()) : List.of();
+
+        try (LoadGenerator loadGenerator = new LoadGenerator(baseUrl, options.mix(), options.sizes(), latencyRecorder)) {
+            System.out.println("Seeding " + options.seedFiles() + " files on " + baseUrl);
+            loadGenerator.seed(options.seedFiles());
+
+            Thread purgeThread = null;
+            for (int stage = 0; stage < options.users().size(); stage++) {
+                int userCount = options.users().get(stage);
+                System.out.println("Starting " + (userCount - loadGenerator.getUserCount()) + " users over " + options.rampUp().toSeconds() + "s");
+                loadGenerator.startUsers(userCount - loadGenerator.getUserCount(), options.rampUp());
+                latencyRecorder.discardInterval();
+
+                if (stage == 0 && !expiredFileIds.isEmpty()) {
+                    purgeThread = Thread.ofVirtual().name("load-test-purge").start(() -> RunPurge(context, options.purgeAt(), latencyRecorder));
+                }
+
+                long stageStart = System.nanoTime();
+                long stageEnd = stageStart + options.duration().toNanos();
+                long intervalStart = stageStart;
+                while (intervalStart < stageEnd) {
+                    TimeUnit.NANOSECONDS.sleep(Math.min(options.reportInterval().toNanos(), stageEnd - intervalStart));
+                    long intervalEnd = System.nanoTime();
+                    String label = "users=" + userCount + " t=" + TimeUnit.NANOSECONDS.toSeconds(intervalEnd - stageStart) + "s";
+                    IntervalReport intervalReport = Summarize(label, userCount, latencyRecorder.nextInterval(), Duration.ofNanos(intervalEnd - intervalStart));
+                    intervalReports.add(intervalReport);
+                    Print(intervalReport);
+                    intervalStart = intervalEnd;
+                }
+            }
+            if (purgeThread != null) {
+                // A purge still running keeps being measured under load
+                purgeThread.join();
+            }
+        }
+
+        Duration measuredTime = intervalReports.stream().map(intervalReport -> Duration.ofNanos((long) (intervalReport.seconds() * 1e9))).reduce(Duration.ZERO, Duration::plus);
+        IntervalReport total = Summarize("total", options.users().getLast(), latencyRecorder.total(), measuredTime);
+        Print(total);
+
+        long requests = total.operations().values().stream().mapToLong(OperationSummary::requests).sum();
+        long errors = total.operations().values().stream().mapToLong(OperationSummary::errors).sum();
+        double errorRate = requests + errors == 0 ? 0 : (double) errors / (requests + errors);
+        boolean passed = errorRate <= options.maxErrorRate();
+        System.out.printf("Error rate: %.4f%% (max %.4f%%)%n", errorRate * 100, options.maxErrorRate() * 100);
+
+        PurgeReport purgeReport = null;
+        if (!expiredFileIds.isEmpty()) {
+            purgeReport = ReportPurge(context, expiredFileIds, latencyRecorder, options.maxPurgeP99Ratio());
+            passed &= !Boolean.TRUE.equals(purgeReport.stalled());
+        }
+
+        System.out.println(passed ? "PASSED" : "FAILED");
+        if (options.reportFile() != null) {
+            Path reportFilePath = Path.of(options.reportFile());
+            if (reportFilePath.getParent() != null) {
+                Files.createDirectories(reportFilePath.getParent());
+            }
+            Files.writeString(reportFilePath, JsonMapper.builder().enable(SerializationFeature.INDENT_OUTPUT).build()
+                    .writeValueAsString(new Result(options, intervalReports, total, purgeReport, errorRate, passed)));
+            System.out.println("Report written to " + reportFilePath.toAbsolutePath());
+        }
+        return passed;
+    }
+
+    /**
+     * Create expired files directly through the file service of the embedded instance, before the load.
+     * @param context The context of the embedded instance.
+     * @param fileCount The number of files to create.
+     * @return The IDs of the created files.
+     */
+    private static List<String> CreateExpiredFiles(ConfigurableApplicationContext context, int fileCount) {
+        System.out.println("Creating " + fileCount + " expired files");
+        HashTransferProperties hashTransferProperties = context.getBean(HashTransferProperties.class);
+        FileService fileService = context.getBean(FileService.class);
+
+        List<String> fileIds = new ArrayList<>();
+        int expirationMinutes = hashTransferProperties.getExpirationMinutes();
+        hashTransferProperties.setExpirationMinutes(-1);
+        try {
+            for (int i = 0; i < fileCount; i++) {
+                byte[] content = ("expired-" + i).getBytes(StandardCharsets.UTF_8);
+                fileIds.add(fileService.uploadFile("expired-" + i + ".txt", content.length, "application/octet-stream",
+                        Map.of(), List.of(), new ByteArrayInputStream(content), null).fileId());
+            }
+        } finally {
+            hashTransferProperties.setExpirationMinutes(expirationMinutes);
+        }
+        return fileIds;
+    }
+
+    /**
+     * Run the scheduled purge after a delay, while the users keep sending requests.
+     */
+    private static void RunPurge(ConfigurableApplicationContext context, Duration delay, LatencyRecorder latencyRecorder) {
+        try {
+            TimeUnit.NANOSECONDS.sleep(delay.toNanos());
+        } catch (InterruptedException _) {
+            return;
+        }
+        System.out.println("Purging the expired files");
+        latencyRecorder.purgeStarted();
+        try {
+            context.getBean(PurgeScheduling.class).purgeExpiredFiles();
+        } finally {
+            latencyRecorder.purgeEnded();
+        }
+    }
+
+    private static PurgeReport ReportPurge(ConfigurableApplicationContext context, List<String> expiredFileIds, LatencyRecorder latencyRecorder, double maxP99Ratio) {
+        long purgeMillis = latencyRecorder.purgeMillis();
+        if (purgeMillis < 0) {
+            System.out.println("Purge: not run, the load ended before --purge-at");
+            return new PurgeReport(-1, expiredFileIds.size(), 0, 0, 0, 0, null);
+        }
+
+        Map<String, FileData> remainingFiles = context.getBean(FileService.class).queryFileData(expiredFileIds);
+        int purgedFiles = (int) remainingFiles.values().stream().filter(Objects::isNull).count();
+
+        Histogram duringPurge = latencyRecorder.duringPurge();
+        Histogram outsidePurge = latencyRecorder.outsidePurge();
+        double p99MillisDuringPurge = ToMillis(duringPurge.getValueAtPercentile(99));
+        double p99MillisOutsidePurge = ToMillis(outsidePurge.getValueAtPercentile(99));
+        Boolean stalled = null;
+        if (duringPurge.getTotalCount() >= MIN_PURGE_SAMPLES && outsidePurge.getTotalCount() > 0) {
+            stalled = p99MillisDuringPurge > maxP99Ratio * p99MillisOutsidePurge;
+        }
+
+        System.out.printf("Purge: %d of %d expired files purged in %d ms, %d metadata queries during the purge%n",
+                purgedFiles, expiredFileIds.size(), purgeMillis, duringPurge.getTotalCount());
+        System.out.printf("Purge: metadata query p99 %.1f ms during the purge, %.1f ms outside (max ratio %.1f): %s%n",
+                p99MillisDuringPurge, p99MillisOutsidePurge, maxP99Ratio,
+                stalled == null ? "too few metadata queries during the purge to compare" : stalled ? "STALLED" : "ok");
+        return new PurgeReport(purgeMillis, expiredFileIds.size(), purgedFiles, duringPurge.getTotalCount(), p99MillisDuringPurge, p99MillisOutsidePurge, stalled);
+    }
+
+    private static IntervalReport Summarize(String label, int userCount, Map<Operation, OperationReport> operationReports, Duration duration) {
+        double seconds = duration.toNanos() / 1e9;
+        Map<Operation, OperationSummary> operations = new LinkedHashMap<>();
+        operationReports.forEach((operation, operationReport) -> {
+            Histogram histogram = operationReport.histogram();
+            operations.put(operation, new OperationSummary(
+                    operationReport.count(),
+                    operationReport.errors(),
+                    operationReport.count() / seconds,
+                    operationReport.bytes() / seconds / (1024 * 1024),
+                    ToMillis(histogram.getValueAtPercentile(50)),
+                    ToMillis(histogram.getValueAtPercentile(99)),
+                    ToMillis(histogram.getValueAtPercentile(99.9)),
+                    ToMillis(histogram.getMaxValue())
+            ));
+        });
+        return new IntervalReport(label, userCount, seconds, operations);
+    }
+
+    private static double ToMillis(long micros) {
+        return micros / 1000.0;
+    }
+
+    private static void Print(IntervalReport intervalReport) {
+        System.out.printf("%n[%s] %.1fs%n", intervalReport.label(), intervalReport.seconds());
+        System.out.printf("%-9s %9s %7s %10s %8s %10s %10s %10s %10s%n", "operation", "requests", "errors", "req/s", "MB/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        intervalReport.operations().forEach((operation, summary) -> System.out.printf("%-9s %9d %7d %10.1f %8.1f %10.2f %10.2f %10.2f %10.2f%n",
+                operation.name().toLowerCase(), summary.requests(), summary.errors(), summary.requestsPerSecond(), summary.megabytesPerSecond(),
+                summary.p50Millis(), summary.p99Millis(), summary.p999Millis(), summary.maxMillis()));
+    }
+}
@@ -0,0 +1,143 @@
+package fr.leowenex.hashtransfer.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Options of the load test, given as "--name=value" arguments. The other arguments starting with "--hashtransfer.",
+ * "--spring.", "--server." or "--logging." are passed to the embedded instance.
+ * @param mode soak (one stage of users, reported every report interval) or ramp (one stage per user count, reported per stage).
+ * @param users The number of virtual users of each stage.
+ * @param rampUp The time over which the users added by a stage are started, not included in the reports of the stage.
+ * @param duration The measured duration of each stage.
+ * @param reportInterval The interval of the soak reports.
+ * @param mix The weights of the operations.
+ * @param sizes The weights of the upload sizes.
+ * @param seedFiles The number of files uploaded before the load, so that the downloads and metadata queries have targets.
+ * @param purgeFiles The number of expired files created before the load and purged under load (embedded instance only, 0 to disable).
+ * @param purgeAt The time after which the purge is run, from the start of the measurements (half of the measured time by default).
+ * @param maxErrorRate The maximum ratio of failed requests.
+ * @param maxPurgeP99Ratio The maximum ratio between the p99 of the metadata queries running during the purge and the p99 of the others.
+ * @param target The base URL of an instance to load, or null to start an embedded instance.
+ * @param reportFile The path of the JSON report, or null to only print the reports.
+ * @param instanceArguments The arguments passed to the embedded instance.
+ */
+record LoadTestOptions(
+        Mode mode,
+        List<Integer> users,
+        Duration rampUp,
+        Duration duration,
+        Duration reportInterval,
+        Map<Operation, Integer> mix,
+        Map<DataSize, Integer> sizes,
+        int seedFiles,
+        int purgeFiles,
+        Duration purgeAt,
+        double maxErrorRate,
+        double maxPurgeP99Ratio,
+        String target,
+        String reportFile,
+        List<String> instanceArguments
+) {
+
+    enum Mode { SOAK, RAMP }
+
+    enum Operation { UPLOAD, DOWNLOAD, METADATA }
+
+    private static final List<String> INSTANCE_ARGUMENT_PREFIXES = List.of("--hashtransfer.", "--spring.", "--server.", "--logging.");
+
+    /**
+     * Parse the load test options.
+     * @param args The command line arguments.
+     * @return The options, with the defaults for the ones not given.
+     * @throws IllegalArgumentException if an option is unknown or malformed.
+     */
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        List<String> instanceArguments = new ArrayList<>();
+        for (String arg : args) {
+            if (INSTANCE_ARGUMENT_PREFIXES.stream().anyMatch(arg::startsWith)) {
+                instanceArguments.add(arg);
+                continue;
+            }
+            int separatorIndex = arg.indexOf('=');
+            if (!arg.startsWith("--") || separatorIndex < 0) {
+                throw new IllegalArgumentException("Malformed option (expected --name=value): " + arg);
+            }
+            values.put(arg.substring(2, separatorIndex), arg.substring(separatorIndex + 1));
+        }
+
+        Mode mode = Mode.valueOf(values.getOrDefault("mode", "soak").toUpperCase(Locale.ROOT));
+        List<Integer> users = Arrays.stream(values.getOrDefault("users", mode == Mode.RAMP ? "4,8,16,32,64" : "16").split(","))
+                .map(String::trim)
+                .map(Integer::parseInt)
+                .toList();
+        Duration duration = ParseDuration(values.getOrDefault("duration", mode == Mode.RAMP ? "30s" : "5m"));
+
+        LoadTestOptions options = new LoadTestOptions(
+                mode,
+                users,
+                ParseDuration(values.getOrDefault("ramp-up", "5s")),
+                duration,
+                ParseDuration(values.getOrDefault("report-interval", mode == Mode.RAMP ? values.getOrDefault("duration", "30s") : "30s")),
+                ParseWeights(values.getOrDefault("mix", "upload:20,download:60,metadata:20"), value -> Operation.valueOf(value.toUpperCase(Locale.ROOT))),
+                ParseWeights(values.getOrDefault("sizes", "4KB:40,256KB:30,4MB:25,64MB:5"), DataSize::parse),
+                Integer.parseInt(values.getOrDefault("seed-files", "100")),
+                Integer.parseInt(values.getOrDefault("purge-files", "5000")),
+                values.containsKey("purge-at") ? ParseDuration(values.get("purge-at")) : duration.multipliedBy(users.size()).dividedBy(2),
+                Double.parseDouble(values.getOrDefault("max-error-rate", "0.001")),
+                Double.parseDouble(values.getOrDefault("max-purge-p99-ratio", "3")),
+                values.get("target"),
+                values.getOrDefault("report-file", "target/load-test-result.json"),
+                instanceArguments
+        );
+
+        values.keySet().removeAll(List.of("mode", "users", "ramp-up", "duration", "report-interval", "mix", "sizes", "seed-files",
+                "purge-files", "purge-at", "max-error-rate", "max-purge-p99-ratio", "target", "report-file"));
+        if (!values.isEmpty()) {
+            throw new IllegalArgumentException("Unknown options: " + values.keySet());
+        }
+        if (users.stream().anyMatch(userCount -> userCount <= 0) || (mode == Mode.SOAK && users.size() != 1)) {
+            throw new IllegalArgumentException("The soak mode takes one positive user count, the ramp mode a list of them");
+        }
+        return options;
+    }
+
+    private static Duration ParseDuration(String value) {
+        return DurationStyle.detectAndParse(value);
+    }
+
+    /**
+     * Parse weights, e.g. "upload:20,download:80".
+     * @param value The option value.
+     * @param keyParser The parser of the weighted values.
+     * @return The weights by value, in the given order.
+     */
+    private static <T> Map<T, Integer> ParseWeights(String value, Function<String, T> keyParser) {
+        Map<T, Integer> weights = new LinkedHashMap<>();
+        for (String part : value.split(",")) {
+            String[] keyAndWeight = part.trim().split(":");
+            if (keyAndWeight.length != 2) {
+                throw new IllegalArgumentException("Malformed weight (expected value:weight): " + part);
+            }
+            int weight = Integer.parseInt(keyAndWeight[1].trim());
+            if (weight > 0) {
+                weights.put(keyParser.apply(keyAndWeight[0].trim()), weight);
+            }
+        }
+        if (weights.isEmpty()) {
+            throw new IllegalArgumentException("No positive weight in: " + value);
+        }
+        return weights;
+    }
+}
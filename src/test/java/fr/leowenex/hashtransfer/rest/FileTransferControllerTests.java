@@ -0,0 +1,120 @@
+package fr.leowenex.hashtransfer.rest;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class FileTransferControllerTests {
+
+    private static final byte[] CONTENT = new byte[4096];
+
+    static {
+        new Random(42).nextBytes(CONTENT);
+    }
+
+    @TempDir
+    static Path storageDirectoryPath;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    private String fileId;
+
+    private String eTag;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("hashtransfer.file-storage-directory", () -> storageDirectoryPath.resolve("files").toString());
+        registry.add("hashtransfer.upload-session-directory", () -> storageDirectoryPath.resolve("uploads").toString());
+        registry.add("hashtransfer.warm-up-size", () -> "0B");
+    }
+
+    @BeforeEach
+    void uploadFile() throws Exception {
+        String response = mockMvc.perform(put("/api/file/{fileName}", "range.bin")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(CONTENT))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        fileId = JsonPath.read(response, "$.fileId");
+        eTag = mockMvc.perform(get("/api/file/{fileId}/download", fileId))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT))
+                .andReturn().getResponse().getHeader(HttpHeaders.ETAG);
+    }
+
+    @Test
+    void singleRangeIsPartialContent() throws Exception {
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.RANGE, "bytes=100-199"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, "bytes 100-199/" + CONTENT.length))
+                .andExpect(content().bytes(Arrays.copyOfRange(CONTENT, 100, 200)));
+    }
+
+    @Test
+    void multipleRangesAreMultipartByteranges() throws Exception {
+        String body = mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.RANGE, "bytes=0-9,1000-1009"))
+                .andExpect(status().isPartialContent())
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, startsWith("multipart/byteranges")))
+                .andReturn().getResponse().getContentAsString(StandardCharsets.ISO_8859_1);
+        assertThat(body)
+                .contains("Content-Range: bytes 0-9/" + CONTENT.length)
+                .contains("Content-Range: bytes 1000-1009/" + CONTENT.length)
+                .contains(new String(Arrays.copyOfRange(CONTENT, 1000, 1010), StandardCharsets.ISO_8859_1));
+    }
+
+    @Test
+    void unsatisfiableRangeIsRejected() throws Exception {
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.RANGE, "bytes=" + CONTENT.length + "-"))
+                .andExpect(status().isRequestedRangeNotSatisfiable())
+                .andExpect(header().string(HttpHeaders.CONTENT_RANGE, containsString("*/" + CONTENT.length)));
+    }
+
+    @Test
+    void matchingIfNoneMatchIsNotModified() throws Exception {
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.IF_NONE_MATCH, eTag))
+                .andExpect(status().isNotModified())
+                .andExpect(content().bytes(new byte[0]));
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId).header(HttpHeaders.IF_NONE_MATCH, "\"other\""))
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void staleIfRangeSendsTheWholeFile() throws Exception {
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId)
+                        .header(HttpHeaders.RANGE, "bytes=100-199")
+                        .header(HttpHeaders.IF_RANGE, "\"stale\""))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist(HttpHeaders.CONTENT_RANGE))
+                .andExpect(content().bytes(CONTENT));
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId)
+                        .header(HttpHeaders.RANGE, "bytes=100-199")
+                        .header(HttpHeaders.IF_RANGE, eTag))
+                .andExpect(status().isPartialContent())
+                .andExpect(content().bytes(Arrays.copyOfRange(CONTENT, 100, 200)));
+    }
+}
@@ -0,0 +1,145 @@
+package fr.leowenex.hashtransfer.rest;
+
+import com.jayway.jsonpath.JsonPath;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.request.MockHttpServletRequestBuilder;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * Each test uploads from its own client address, so that the client storage quota of a test is not taken by the others.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class StorageQuotaControllerTests {
+
+    private static final int CLIENT_QUOTA = 64 * 1024;
+
+    private static final int STORAGE_QUOTA = 1024 * 1024;
+
+    @TempDir
+    static Path storageDirectoryPath;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("hashtransfer.file-storage-directory", () -> storageDirectoryPath.resolve("files").toString());
+        registry.add("hashtransfer.upload-session-directory", () -> storageDirectoryPath.resolve("uploads").toString());
+        registry.add("hashtransfer.warm-up-size", () -> "0B");
+        registry.add("hashtransfer.storage-quota", () -> STORAGE_QUOTA + "B");
+        registry.add("hashtransfer.client-storage-quota", () -> CLIENT_QUOTA + "B");
+    }
+
+    @Test
+    void uploadsOverTheStorageQuotaAreRejectedBeforeTheirBody() throws Exception {
+        byte[] content = new byte[STORAGE_QUOTA + 1];
+
+        MvcResult result = mockMvc.perform(put("/api/file/{fileName}", "global.bin").with(remoteAddress("10.0.0.1"))
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(content))
+                .andExpect(status().isInsufficientStorage())
+                .andReturn();
+        assertThat(result.getRequest().getInputStream().available()).isEqualTo(content.length);
+    }
+
+    @Test
+    void uploadsOverTheClientStorageQuotaAreRejectedBeforeTheirBody() throws Exception {
+        uploadFile("10.0.0.2", "first.bin", new byte[CLIENT_QUOTA / 2], null)
+                .andExpect(status().isOk());
+
+        byte[] content = new byte[CLIENT_QUOTA / 2 + 1];
+        MvcResult result = uploadFile("10.0.0.2", "second.bin", content, null)
+                .andExpect(status().isInsufficientStorage())
+                .andReturn();
+        assertThat(result.getRequest().getInputStream().available()).isEqualTo(content.length);
+
+        // The quota is per client
+        uploadFile("10.0.0.3", "second.bin", content, null)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void failedUploadsReleaseTheirReservation() throws Exception {
+        byte[] content = new byte[CLIENT_QUOTA];
+
+        uploadFile("10.0.0.4", "failed.bin", content, "sha-256=:" + Base64.getEncoder().encodeToString(new byte[32]) + ":")
+                .andExpect(status().isExpectationFailed());
+        uploadFile("10.0.0.4", "retried.bin", content, null)
+                .andExpect(status().isOk());
+    }
+
+    @Test
+    void abortedSessionsReleaseTheirReservation() throws Exception {
+        String uploadId = createSession("10.0.0.5", "aborted.bin", CLIENT_QUOTA);
+        mockMvc.perform(post("/api/upload").with(remoteAddress("10.0.0.5")).contentType(MediaType.APPLICATION_JSON)
+                        .content(sessionRequest("rejected.bin", 1)))
+                .andExpect(status().isInsufficientStorage());
+
+        mockMvc.perform(delete("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isNoContent());
+        createSession("10.0.0.5", "accepted.bin", CLIENT_QUOTA);
+    }
+
+    @Test
+    void completedSessionsReleaseTheirReservation() throws Exception {
+        byte[] content = new byte[CLIENT_QUOTA / 2];
+        String uploadId = createSession("10.0.0.6", "completed.bin", content.length);
+        mockMvc.perform(put("/api/upload/{uploadId}", uploadId).param("offset", "0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(content))
+                .andExpect(status().isOk());
+        mockMvc.perform(post("/api/upload/{uploadId}/complete", uploadId)
+                        .header("Content-Digest", "sha-256=:" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content)) + ":"))
+                .andExpect(status().isOk());
+
+        // The stored file is counted once: the reservation of the session is released
+        createSession("10.0.0.6", "remaining.bin", CLIENT_QUOTA - content.length);
+    }
+
+    private ResultActions uploadFile(String remoteAddress, String fileName, byte[] content, String contentDigest) throws Exception {
+        MockHttpServletRequestBuilder requestBuilder = put("/api/file/{fileName}", fileName).with(remoteAddress(remoteAddress))
+                .contentType(MediaType.APPLICATION_OCTET_STREAM).content(content);
+        if (contentDigest != null) {
+            requestBuilder.header("Content-Digest", contentDigest);
+        }
+        return mockMvc.perform(requestBuilder);
+    }
+
+    private String createSession(String remoteAddress, String filename, long fileSize) throws Exception {
+        String response = mockMvc.perform(post("/api/upload").with(remoteAddress(remoteAddress)).contentType(MediaType.APPLICATION_JSON)
+                        .content(sessionRequest(filename, fileSize)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return JsonPath.read(response, "$.uploadId");
+    }
+
+    private static String sessionRequest(String filename, long fileSize) {
+        return "{\"filename\":\"" + filename + "\",\"fileSize\":" + fileSize + "}";
+    }
+
+    private static RequestPostProcessor remoteAddress(String remoteAddress) {
+        return request -> {
+            request.setRemoteAddr(remoteAddress);
+            return request;
+        };
+    }
+}
@@ -0,0 +1,195 @@
+package fr.leowenex.hashtransfer.rest;
+
+import com.jayway.jsonpath.JsonPath;
+import fr.leowenex.hashtransfer.service.TreeHasher;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.webmvc.test.autoconfigure.AutoConfigureMockMvc;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.context.bean.override.mockito.MockitoSpyBean;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HexFormat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.put;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringBootTest
+@AutoConfigureMockMvc
+class UploadSessionControllerTests {
+
+    private static final byte[] CONTENT = "Resumable upload session content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    static Path storageDirectoryPath;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockitoSpyBean
+    private TreeHasher treeHasher;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("hashtransfer.file-storage-directory", () -> storageDirectoryPath.resolve("files").toString());
+        registry.add("hashtransfer.upload-session-directory", () -> storageDirectoryPath.resolve("uploads").toString());
+        registry.add("hashtransfer.warm-up-size", () -> "0B");
+        registry.add("hashtransfer.max-upload-size", () -> "1MB");
+        registry.add("hashtransfer.tree-hash-chunk-size", () -> "16B");
+    }
+
+    @Test
+    void sequentialChunksAreCompletedWithTheirDigest() throws Exception {
+        String uploadId = createSession("session.txt", CONTENT.length, null);
+
+        mockMvc.perform(put("/api/upload/{uploadId}", uploadId).param("offset", "0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 0, 10)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(10))
+                .andExpect(jsonPath("$.owner").doesNotExist());
+
+        mockMvc.perform(put("/api/upload/{uploadId}", uploadId).param("offset", "4")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 4, 10)))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(get("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(10))
+                .andExpect(jsonPath("$.fileSize").value(CONTENT.length))
+                .andExpect(jsonPath("$.owner").doesNotExist());
+
+        mockMvc.perform(put("/api/upload/{uploadId}", uploadId).param("offset", "10")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 10, CONTENT.length)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(CONTENT.length));
+
+        // A wrong digest leaves the session as is, so that the completion can be retried
+        mockMvc.perform(post("/api/upload/{uploadId}/complete", uploadId)
+                        .header("Content-Digest", contentDigest("other content".getBytes(StandardCharsets.UTF_8))))
+                .andExpect(status().isExpectationFailed());
+
+        String fileId = complete(uploadId);
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+        mockMvc.perform(get("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void parallelChunksAreCompletedInAnyOrder() throws Exception {
+        String uploadId = createSession("parallel.txt", CONTENT.length, sha256Hex(CONTENT));
+
+        mockMvc.perform(put("/api/upload/{uploadId}/chunks", uploadId).param("offset", "20")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 20, CONTENT.length)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(0))
+                .andExpect(jsonPath("$.receivedRanges[0].start").value(20));
+
+        mockMvc.perform(put("/api/upload/{uploadId}/chunks", uploadId).param("offset", "0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 0, 10)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(10));
+
+        // The completion is refused while a range is missing
+        mockMvc.perform(post("/api/upload/{uploadId}/complete", uploadId).header("Content-Digest", contentDigest(CONTENT)))
+                .andExpect(status().isConflict());
+
+        mockMvc.perform(put("/api/upload/{uploadId}/chunks", uploadId).param("offset", "10")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(Arrays.copyOfRange(CONTENT, 10, 20)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(CONTENT.length));
+
+        String fileId = complete(uploadId);
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    void failedImportKeepsTheReceivedBytes() throws Exception {
+        String uploadId = createSession("retried.txt", CONTENT.length, sha256Hex(CONTENT));
+        mockMvc.perform(put("/api/upload/{uploadId}", uploadId).param("offset", "0")
+                        .contentType(MediaType.APPLICATION_OCTET_STREAM).content(CONTENT))
+                .andExpect(status().isOk());
+
+        // The import fails once the received file is moved to the storage
+        doThrow(new IOException("Simulated tree hash failure")).doCallRealMethod().when(treeHasher).hashFile(any());
+        mockMvc.perform(post("/api/upload/{uploadId}/complete", uploadId).header("Content-Digest", contentDigest(CONTENT)))
+                .andExpect(status().isInternalServerError());
+        mockMvc.perform(get("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(CONTENT.length));
+
+        String fileId = complete(uploadId);
+        mockMvc.perform(get("/api/file/{fileId}/download", fileId))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(CONTENT));
+    }
+
+    @Test
+    void abortedSessionIsDeleted() throws Exception {
+        String uploadId = createSession("aborted.txt", CONTENT.length, null);
+
+        mockMvc.perform(delete("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isNoContent());
+        mockMvc.perform(get("/api/upload/{uploadId}", uploadId))
+                .andExpect(status().isNotFound());
+    }
+
+    @Test
+    void invalidSessionsAreRejectedAtCreation() throws Exception {
+        mockMvc.perform(post("/api/upload").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"filename\":\"../escaped.txt\",\"fileSize\":10}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/upload").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"filename\":\"negative.txt\",\"fileSize\":-1}"))
+                .andExpect(status().isBadRequest());
+        mockMvc.perform(post("/api/upload").contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"filename\":\"large.txt\",\"fileSize\":" + (2 * 1024 * 1024) + "}"))
+                .andExpect(status().isContentTooLarge());
+    }
+
+    private String createSession(String filename, long fileSize, String sha256) throws Exception {
+        String body = "{\"filename\":\"" + filename + "\",\"fileSize\":" + fileSize + (sha256 != null ? ",\"sha256\":\"" + sha256 + "\"" : "") + "}";
+        String response = mockMvc.perform(post("/api/upload").contentType(MediaType.APPLICATION_JSON).content(body))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.offset").value(0))
+                .andExpect(jsonPath("$.owner").doesNotExist())
+                .andReturn().getResponse().getContentAsString();
+        return JsonPath.read(response, "$.uploadId");
+    }
+
+    private String complete(String uploadId) throws Exception {
+        String response = mockMvc.perform(post("/api/upload/{uploadId}/complete", uploadId).header("Content-Digest", contentDigest(CONTENT)))
+                .andExpect(status().isOk())
+                .andReturn().getResponse().getContentAsString();
+        return JsonPath.read(response, "$.fileId");
+    }
+
+    private static String contentDigest(byte[] content) throws NoSuchAlgorithmException {
+        return "sha-256=:" + Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(content)) + ":";
+    }
+
+    private static String sha256Hex(byte[] content) throws NoSuchAlgorithmException {
+        return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+    }
+}
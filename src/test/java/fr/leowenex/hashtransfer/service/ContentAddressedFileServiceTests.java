@@ -0,0 +1,87 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileUploadResponse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@SpringBootTest
+class ContentAddressedFileServiceTests {
+
+    private static final byte[] CONTENT = "Deduplicated content".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    static Path storageDirectoryPath;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private FileExpiryIndex fileExpiryIndex;
+
+    @Autowired
+    private HashTransferProperties hashTransferProperties;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        registry.add("hashtransfer.file-storage-directory", () -> storageDirectoryPath.resolve("files").toString());
+        registry.add("hashtransfer.upload-session-directory", () -> storageDirectoryPath.resolve("uploads").toString());
+        registry.add("hashtransfer.warm-up-size", () -> "0B");
+        registry.add("hashtransfer.storage-layout", () -> "content-addressed");
+    }
+
+    @Test
+    void identicalUploadsShareOneBlobUntilBothArePurged() throws Exception {
+        assertThat(fileService).isInstanceOf(ContentAddressedFileService.class);
+
+        String expiredFileId = uploadFile("first.txt", -1);
+        String keptFileId = uploadFile("second.txt", hashTransferProperties.getExpirationMinutes());
+
+        String sha256 = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(CONTENT));
+        Path blobPath = storageDirectoryPath.resolve("files").resolve(".blobs").resolve(sha256.substring(0, 2)).resolve(sha256);
+        // The blob name and the two file links
+        assertThat(linkCount(blobPath)).isEqualTo(3);
+
+        fileService.purgeExpiredFiles();
+        assertThat(fileService.queryFileData(expiredFileId)).isEmpty();
+        assertThat(fileService.queryFileData(keptFileId)).isPresent();
+        assertThat(linkCount(blobPath)).isEqualTo(2);
+
+        fileExpiryIndex.add(keptFileId, Instant.EPOCH);
+        fileService.purgeExpiredFiles();
+        assertThat(fileService.queryFileData(keptFileId)).isEmpty();
+        assertThat(blobPath).doesNotExist();
+    }
+
+    private String uploadFile(String fileName, int expirationMinutes) {
+        int defaultExpirationMinutes = hashTransferProperties.getExpirationMinutes();
+        hashTransferProperties.setExpirationMinutes(expirationMinutes);
+        try {
+            FileUploadResponse uploadResponse = fileService.uploadFile(fileName, CONTENT.length, "text/plain",
+                    Map.of(), List.of(), new ByteArrayInputStream(CONTENT), null);
+            return uploadResponse.fileId();
+        } finally {
+            hashTransferProperties.setExpirationMinutes(defaultExpirationMinutes);
+        }
+    }
+
+    private static int linkCount(Path path) throws Exception {
+        return (Integer) Files.getAttribute(path, "unix:nlink");
+    }
+}
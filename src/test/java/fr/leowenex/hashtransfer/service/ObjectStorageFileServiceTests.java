@@ -0,0 +1,191 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.FileData;
+import fr.leowenex.hashtransfer.dto.FileDownloadResponse;
+import fr.leowenex.hashtransfer.metrics.HashTransferMetrics;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.MinIOContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+import tools.jackson.databind.ObjectMapper;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs against a MinIO container, and is skipped where Docker is not available.
+ */
+@SpringBootTest
+@Testcontainers(disabledWithoutDocker = true)
+class ObjectStorageFileServiceTests {
+
+    private static final String BUCKET = "hashtransfer-test";
+
+    private static final int FILE_SIZE = 4 * 1024;
+
+    private static final Random RANDOM = new Random(42);
+
+    @Container
+    static final MinIOContainer minio = new MinIOContainer("minio/minio:RELEASE.2023-09-04T19-57-37Z");
+
+    @TempDir
+    static Path storageDirectoryPath;
+
+    @Autowired
+    private FileService fileService;
+
+    @Autowired
+    private StorageBackend storageBackend;
+
+    @Autowired
+    private StorageUsage storageUsage;
+
+    @Autowired
+    private FileExpiryIndex fileExpiryIndex;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private HashTransferMetrics hashTransferMetrics;
+
+    @DynamicPropertySource
+    static void storageProperties(DynamicPropertyRegistry registry) {
+        try (S3Client s3Client = S3Client.builder()
+                .endpointOverride(URI.create(minio.getS3URL()))
+                .region(Region.US_EAST_1)
+                .forcePathStyle(true)
+                .credentialsProvider(StaticCredentialsProvider.create(AwsBasicCredentials.create(minio.getUserName(), minio.getPassword())))
+                .build()) {
+            s3Client.createBucket(request -> request.bucket(BUCKET));
+        }
+        registry.add("hashtransfer.file-storage-directory", () -> storageDirectoryPath.resolve("files").toString());
+        registry.add("hashtransfer.upload-session-directory", () -> storageDirectoryPath.resolve("uploads").toString());
+        registry.add("hashtransfer.warm-up-size", () -> "0B");
+        registry.add("hashtransfer.storage-layout", () -> "object-store");
+        registry.add("hashtransfer.object-store-endpoint", minio::getS3URL);
+        registry.add("hashtransfer.object-store-access-key", minio::getUserName);
+        registry.add("hashtransfer.object-store-secret-key", minio::getPassword);
+        registry.add("hashtransfer.object-store-bucket", () -> BUCKET);
+        // The smallest part size accepted by S3 for multipart uploads
+        registry.add("hashtransfer.object-store-part-size", () -> "5MB");
+        registry.add("hashtransfer.object-store-cache-size", () -> (2 * FILE_SIZE) + "B");
+    }
+
+    @Test
+    void objectsAreStoredListedAndDeleted() throws Exception {
+        byte[] content = randomBytes(11 * 1024 * 1024);
+        Path sourceFilePath = storageDirectoryPath.resolve("multipart.bin");
+        Files.write(sourceFilePath, content);
+
+        // Stored with a multipart upload and read with ranged GETs, as larger than the part size
+        storageBackend.putFile("test/multipart.bin", sourceFilePath);
+        storageBackend.putBytes("test/small", new byte[]{1, 2, 3});
+
+        Path targetFilePath = storageDirectoryPath.resolve("multipart.copy");
+        assertThat(storageBackend.getFile("test/multipart.bin", targetFilePath)).isTrue();
+        assertThat(Files.readAllBytes(targetFilePath)).isEqualTo(content);
+        assertThat(storageBackend.getBytes("test/small")).hasValueSatisfying(bytes -> assertThat(bytes).containsExactly(1, 2, 3));
+
+        List<String> keys = new ArrayList<>();
+        storageBackend.list("test/", keys::add);
+        assertThat(keys).containsExactly("test/multipart.bin", "test/small");
+
+        storageBackend.delete(List.of("test/multipart.bin", "test/small", "test/missing"));
+        assertThat(storageBackend.getBytes("test/small")).isEmpty();
+        assertThat(storageBackend.getFile("test/multipart.bin", targetFilePath)).isFalse();
+    }
+
+    @Test
+    void evictedFilesAreFetchedAgain() throws Exception {
+        byte[] firstContent = randomBytes(FILE_SIZE);
+        String firstFileId = uploadFile("first.bin", firstContent);
+        uploadFile("second.bin", randomBytes(FILE_SIZE));
+        uploadFile("third.bin", randomBytes(FILE_SIZE));
+
+        // The least recently used file is evicted from the local cache, and no longer counted
+        Path firstFileDirectoryPath = LocalStorageFileUtils.GetFileDirectoryPath(storageDirectoryPath.resolve("files"), firstFileId, 2);
+        assertThat(firstFileDirectoryPath).doesNotExist();
+        assertThat(storageUsage.getStoredBytes()).isLessThanOrEqualTo(2 * FILE_SIZE);
+
+        FileDownloadResponse downloadResponse = fileService.downloadFile(firstFileId).orElseThrow();
+        assertThat(downloadResponse.fileResource().getContentAsByteArray()).isEqualTo(firstContent);
+        assertThat(firstFileDirectoryPath).isDirectory();
+        assertThat(storageUsage.getStoredBytes()).isLessThanOrEqualTo(2 * FILE_SIZE);
+    }
+
+    @Test
+    void filesPurgedByAnotherNodeAreMissing() {
+        ObjectStorageFileService otherNode = createOtherNode();
+        byte[] content = randomBytes(FILE_SIZE);
+        String fileId = uploadFile("purged.bin", content);
+
+        // Only the metadata is read by the other node, not the content
+        assertThat(otherNode.queryFileData(fileId)).isPresent();
+
+        fileExpiryIndex.add(fileId, Instant.EPOCH);
+        fileService.purgeExpiredFiles();
+
+        // The content is found missing on the first download, and the cached metadata is dropped
+        assertThat(otherNode.downloadFile(fileId)).isEmpty();
+        assertThat(otherNode.queryFileData(fileId)).isEmpty();
+    }
+
+    @Test
+    void expiredFilesKnownByAnotherNodeAreMissing() {
+        ObjectStorageFileService otherNode = createOtherNode();
+        String fileId = uploadFile("expired.bin", randomBytes(FILE_SIZE));
+        FileData fileData = otherNode.queryFileData(fileId).orElseThrow();
+
+        // The metadata read from the object store is indexed for expiration, and missing once expired
+        assertThat(otherNode.fileExpiryIndex.size()).isEqualTo(1);
+        otherNode.fileMetadataIndex.put(fileId, fileData.withExpiresAt(Instant.now()));
+        assertThat(otherNode.queryFileData(fileId)).isEmpty();
+        assertThat(otherNode.downloadFile(fileId)).isEmpty();
+    }
+
+    /**
+     * Create a second node sharing the object store, with its own local cache and indexes.
+     */
+    private ObjectStorageFileService createOtherNode() {
+        HashTransferProperties hashTransferProperties = new HashTransferProperties();
+        hashTransferProperties.setFileStorageDirectory(storageDirectoryPath.resolve("other-node-" + UUID.randomUUID()).toString());
+        ObjectStorageFileService otherNode = new ObjectStorageFileService(hashTransferProperties, objectMapper,
+                new FileMetadataIndex(hashTransferProperties), new FileExpiryIndex(), new DiskBandwidthLimiter(hashTransferProperties),
+                new TreeHasher(hashTransferProperties), new StorageCompressor(hashTransferProperties), new StorageUsage(),
+                hashTransferMetrics, new HotFileCache(hashTransferProperties, hashTransferMetrics), storageBackend);
+        otherNode.loadIndexes();
+        return otherNode;
+    }
+
+    private String uploadFile(String fileName, byte[] content) {
+        return fileService.uploadFile(fileName, content.length, "application/octet-stream", Map.of(), List.of(),
+                new ByteArrayInputStream(content), null).fileId();
+    }
+
+    private static byte[] randomBytes(int size) {
+        byte[] bytes = new byte[size];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+}
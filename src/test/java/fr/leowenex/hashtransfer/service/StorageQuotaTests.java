@@ -0,0 +1,114 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.exception.StorageQuotaExceededException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatNoException;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StorageQuotaTests {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    @TempDir
+    Path storageDirectoryPath;
+
+    private StorageUsage storageUsage;
+
+    private StorageQuota storageQuota;
+
+    @BeforeEach
+    void createStorageQuota() {
+        HashTransferProperties hashTransferProperties = new HashTransferProperties();
+        hashTransferProperties.setFileStorageDirectory(storageDirectoryPath.toString());
+        hashTransferProperties.setStorageQuota(DataSize.ofMegabytes(100));
+        hashTransferProperties.setClientStorageQuota(DataSize.ofMegabytes(40));
+        storageUsage = new StorageUsage();
+        storageQuota = new StorageQuota(hashTransferProperties, storageUsage);
+    }
+
+    @Test
+    void uploadsOverTheStorageQuotaAreRejected() {
+        storageUsage.add(null, 70 * MEGABYTE);
+        storageQuota.reserve("client-a", 20 * MEGABYTE);
+
+        assertThatThrownBy(() -> storageQuota.reserve("client-b", 20 * MEGABYTE))
+                .isInstanceOf(StorageQuotaExceededException.class)
+                .hasMessage("Storage quota exceeded");
+        assertThatNoException().isThrownBy(() -> storageQuota.reserve("client-b", 10 * MEGABYTE));
+    }
+
+    @Test
+    void uploadsOverTheClientStorageQuotaAreRejected() {
+        storageUsage.add("client-a", 25 * MEGABYTE);
+        storageQuota.reserve("client-a", 10 * MEGABYTE);
+
+        assertThatThrownBy(() -> storageQuota.reserve("client-a", 10 * MEGABYTE))
+                .isInstanceOf(StorageQuotaExceededException.class)
+                .hasMessage("Client storage quota exceeded");
+        // Other clients, and uploads accounted to no client, are not limited by it
+        assertThatNoException().isThrownBy(() -> storageQuota.reserve("client-b", 30 * MEGABYTE));
+        assertThatNoException().isThrownBy(() -> storageQuota.reserve(null, 30 * MEGABYTE));
+    }
+
+    @Test
+    void closedReservationsAreReleasedOnce() {
+        StorageQuota.Reservation reservation = storageQuota.reserve("client-a", 40 * MEGABYTE);
+        assertThatThrownBy(() -> storageQuota.reserve("client-a", 1)).isInstanceOf(StorageQuotaExceededException.class);
+
+        reservation.close();
+        reservation.close();
+        StorageQuota.Reservation otherReservation = storageQuota.reserve("client-a", 40 * MEGABYTE);
+        assertThatThrownBy(() -> storageQuota.reserve("client-a", 1)).isInstanceOf(StorageQuotaExceededException.class);
+
+        // A released reservation does not grow anymore
+        reservation.extend(40 * MEGABYTE);
+        otherReservation.close();
+        assertThatNoException().isThrownBy(() -> storageQuota.reserve("client-a", 40 * MEGABYTE));
+    }
+
+    @Test
+    void restoredReservationsAreNotChecked() {
+        storageQuota.restore("client-a", 50 * MEGABYTE);
+
+        assertThatThrownBy(() -> storageQuota.reserve("client-a", 1)).isInstanceOf(StorageQuotaExceededException.class);
+    }
+
+    @Test
+    void coverExtendsTheReservationBySteps() {
+        StorageQuota.Reservation reservation = storageQuota.reserve("client-a", 0);
+
+        // The first byte reserves a whole step, and the next bytes of the step are already covered
+        reservation.cover(1);
+        reservation.cover(16 * MEGABYTE);
+        assertThatThrownBy(() -> storageQuota.reserve("client-a", 24 * MEGABYTE + 1)).isInstanceOf(StorageQuotaExceededException.class);
+
+        // Close to the quota, only the missing bytes are reserved
+        reservation.cover(16 * MEGABYTE + 1);
+        reservation.cover(32 * MEGABYTE + 1);
+        reservation.cover(40 * MEGABYTE);
+        assertThatThrownBy(() -> reservation.cover(40 * MEGABYTE + 1))
+                .isInstanceOf(StorageQuotaExceededException.class)
+                .hasMessage("Client storage quota exceeded");
+    }
+
+    @Test
+    void coveredStreamFailsOnceOverTheQuota() throws Exception {
+        StorageQuota.Reservation reservation = storageQuota.reserve("client-a", 0);
+        storageUsage.add("client-a", 39 * MEGABYTE);
+
+        try (InputStream inputStream = reservation.cover(new ByteArrayInputStream(new byte[(int) (2 * MEGABYTE)]))) {
+            assertThat(inputStream.readNBytes((int) MEGABYTE)).hasSize((int) MEGABYTE);
+            assertThatThrownBy(inputStream::readAllBytes).isInstanceOf(StorageQuotaExceededException.class);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package fr.leowenex.hashtransfer.service;
+
+import fr.leowenex.hashtransfer.config.HashTransferProperties;
+import fr.leowenex.hashtransfer.dto.TreeHash;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TreeHasherTests {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    @TempDir
+    Path directoryPath;
+
+    private TreeHasher treeHasher;
+
+    @BeforeEach
+    void createTreeHasher() {
+        HashTransferProperties hashTransferProperties = new HashTransferProperties();
+        hashTransferProperties.setTreeHashChunkSize(DataSize.ofBytes(CHUNK_SIZE));
+        hashTransferProperties.setTreeHashParallelism(2);
+        treeHasher = new TreeHasher(hashTransferProperties);
+    }
+
+    @AfterEach
+    void shutdownTreeHasher() {
+        treeHasher.shutdownExecutor();
+    }
+
+    @Test
+    void concurrentStreamsShareTheChunkBuffers() throws Exception {
+        Random random = new Random(42);
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            byte[] content = new byte[random.nextInt(20 * CHUNK_SIZE)];
+            random.nextBytes(content);
+            contents.add(content);
+        }
+
+        // More streams than queued chunks, writing in pieces not aligned with the chunks
+        List<Future<TreeHash>> streamHashes = new ArrayList<>();
+        try (ExecutorService writers = Executors.newFixedThreadPool(contents.size())) {
+            for (byte[] content : contents) {
+                streamHashes.add(writers.submit(() -> {
+                    TreeHashOutputStream treeHashOutputStream = treeHasher.newOutputStream();
+                    for (int offset = 0; offset < content.length; offset += 700) {
+                        treeHashOutputStream.write(content, offset, Math.min(700, content.length - offset));
+                    }
+                    return treeHashOutputStream.finish();
+                }));
+            }
+        }
+
+        // The reused buffers hold the bytes of previous chunks past the end of the current one
+        for (int i = 0; i < contents.size(); i++) {
+            Path filePath = directoryPath.resolve("file-" + i);
+            Files.write(filePath, contents.get(i));
+            assertThat(streamHashes.get(i).get()).isEqualTo(treeHasher.hashFile(filePath));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package fr.leowenex.hashtransfer.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+class ContentDigestHeaderUtilsTests {
+
+    // Digests of "hello world"
+    private static final String SHA256_HEX = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+
+    private static final String MD5_HEX = "5eb63bbbe01eeed093cb22bb8f5acdc3";
+
+    @Test
+    void byteSequenceDigestIsParsedAsHex() {
+        String headerValue = "sha-256=:" + toBase64(SHA256_HEX) + ":";
+
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader(headerValue))
+                .containsExactlyEntriesOf(Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, SHA256_HEX));
+    }
+
+    @Test
+    void hexDigestIsParsedAsLowercaseHex() {
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader("sha-256=" + SHA256_HEX.toUpperCase()))
+                .containsExactlyEntriesOf(Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, SHA256_HEX));
+    }
+
+    @Test
+    void multipleAlgorithmsAreParsed() {
+        String headerValue = "SHA-256=:" + toBase64(SHA256_HEX) + ":, md5=" + MD5_HEX;
+
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader(headerValue))
+                .containsOnly(
+                        Map.entry(ContentDigestHeaderUtils.SHA256_ALGORITHM, SHA256_HEX),
+                        Map.entry(ContentDigestHeaderUtils.MD5_ALGORITHM, MD5_HEX)
+                );
+    }
+
+    @Test
+    void unsupportedAlgorithmsAreIgnored() {
+        String headerValue = "crc32c=:yZRlqg==:, sha-256=" + SHA256_HEX + ", unixsum=not-checked";
+
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader(headerValue))
+                .containsExactlyEntriesOf(Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, SHA256_HEX));
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader(null)).isEmpty();
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader("")).isEmpty();
+    }
+
+    @Test
+    void malformedDigestsAreRejected() {
+        assertThatIllegalArgumentException().isThrownBy(() -> ContentDigestHeaderUtils.parseContentDigestHeader("sha-256=not-hex"));
+        assertThatIllegalArgumentException().isThrownBy(() -> ContentDigestHeaderUtils.parseContentDigestHeader("sha-256=:not base64!:"));
+        assertThatIllegalArgumentException().isThrownBy(() -> ContentDigestHeaderUtils.parseContentDigestHeader("sha-256="));
+    }
+
+    @Test
+    void wantedAlgorithmsAreSortedByWeight() {
+        assertThat(ContentDigestHeaderUtils.parseWantContentDigestHeader("sha-512=3, sha-256=10, md5=1"))
+                .containsExactly(ContentDigestHeaderUtils.SHA256_ALGORITHM, ContentDigestHeaderUtils.SHA512_ALGORITHM, ContentDigestHeaderUtils.MD5_ALGORITHM);
+        assertThat(ContentDigestHeaderUtils.parseWantContentDigestHeader("sha-512")).containsExactly(ContentDigestHeaderUtils.SHA512_ALGORITHM);
+        assertThat(ContentDigestHeaderUtils.parseWantContentDigestHeader(null)).isEmpty();
+    }
+
+    @Test
+    void wantedAlgorithmsWithZeroWeightOrUnsupportedAreExcluded() {
+        assertThat(ContentDigestHeaderUtils.parseWantContentDigestHeader("sha-256=0, sha-512=2, crc32c=5, md5=x"))
+                .isEqualTo(List.of(ContentDigestHeaderUtils.SHA512_ALGORITHM));
+        assertThat(ContentDigestHeaderUtils.parseWantContentDigestHeader("sha-256=0")).isEmpty();
+    }
+
+    @Test
+    void formattedHeaderIsParsedBack() {
+        Map<String, String> digests = ContentDigestHeaderUtils.formatHexDigests(ContentDigestHeaderUtils.createMessageDigests(
+                List.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, ContentDigestHeaderUtils.MD5_ALGORITHM)));
+        assertThat(ContentDigestHeaderUtils.parseContentDigestHeader(ContentDigestHeaderUtils.formatContentDigestHeader(digests)))
+                .isEqualTo(digests);
+
+        Map<String, String> helloWorldDigest = Map.of(ContentDigestHeaderUtils.SHA256_ALGORITHM, SHA256_HEX);
+        assertThat(ContentDigestHeaderUtils.formatContentDigestHeader(helloWorldDigest))
+                .isEqualTo("sha-256=:" + toBase64(SHA256_HEX) + ":");
+    }
+
+    private static String toBase64(String hexDigest) {
+        return Base64.getEncoder().encodeToString(HexFormat.of().parseHex(hexDigest));
+    }
+}